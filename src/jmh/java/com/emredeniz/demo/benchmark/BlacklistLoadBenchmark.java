@@ -0,0 +1,69 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.util.IBANValidator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full reload of the blacklist from a file: reading, normalizing, sorting and swapping in the snapshot. {@code startup}
+ * is the load at startup, from the text file or, with {@code binary}, from the binary snapshot of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BlacklistLoadBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private Path file;
+    private Path binaryFile;
+    private IBANValidator validator;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Fixtures.blacklistFile(entries, new Random(42));
+        validator = Fixtures.validator(file);
+        binaryFile = Files.createTempFile("blacklist-", ".bin");
+        Files.delete(binaryFile);
+        if (binary) {
+            // Writes the snapshot
+            startup();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(binaryFile);
+    }
+
+    @Benchmark
+    public int reload() throws IOException {
+        validator.reload();
+        return validator.snapshot().size();
+    }
+
+    @Benchmark
+    public int startup() throws IOException {
+        IBANValidator started = new IBANValidator();
+        ReflectionTestUtils.setField(started, "externalBlacklistedIBANsFile", file.toString());
+        if (binary) {
+            ReflectionTestUtils.setField(started, "binaryBlacklistFile", binaryFile.toString());
+        }
+        started.init();
+        return started.snapshot().size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.util.IBANBlacklist;
+import com.emredeniz.demo.util.ShardedBlacklist;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single lookups of normalized IBANs in a large blacklist, as done for every valid IBAN found in a document:
+ * {@code sorted} is the binary search over one {@link IBANBlacklist}, {@code sharded} the {@link ShardedBlacklist}
+ * with its per-country Bloom filters in front. {@code miss} looks up IBANs that are not blacklisted, the common case,
+ * {@code hit} blacklisted ones. The queries are spread over the whole list, so the binary search misses the caches.
+ * The false positive rate of the filters over a million IBANs that are not blacklisted is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BlacklistLookupBenchmark {
+
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"5000000"})
+    public int entries;
+
+    @Param({"sorted", "sharded"})
+    public String index;
+
+    private IBANBlacklist sorted;
+    private ShardedBlacklist sharded;
+    private final char[][] hits = new char[QUERIES][];
+    private final char[][] misses = new char[QUERIES][];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        IBANBlacklist.Builder builder = IBANBlacklist.builder();
+        for (int i = 0; i < entries; i++) {
+            String iban = Fixtures.randomIban(random);
+            builder.add(iban);
+            // Every n-th entry, so the hits are spread over the list as well
+            if (i % (entries / QUERIES) == 0 && i / (entries / QUERIES) < QUERIES) {
+                hits[i / (entries / QUERIES)] = iban.toCharArray();
+            }
+        }
+        sorted = builder.build();
+        if (index.equals("sharded")) {
+            sharded = ShardedBlacklist.of(sorted);
+            sorted = null;
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            misses[i] = Fixtures.randomIban(random).toCharArray();
+        }
+
+        if (sharded != null) {
+            int falsePositives = 0;
+            int trials = 1_000_000;
+            for (int i = 0; i < trials; i++) {
+                char[] iban = Fixtures.randomIban(random).toCharArray();
+                if (sharded.mightContain(iban, iban.length)) {
+                    falsePositives++;
+                }
+            }
+            System.out.printf("%nentries=%d false positive rate %.3f%% (%d of %d), %.1f MB%n", entries,
+                    100.0 * falsePositives / trials, falsePositives, trials, sharded.sizeInBytes() / 1e6);
+        }
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return lookup(misses[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return lookup(hits[next++ & (QUERIES - 1)]);
+    }
+
+    private boolean lookup(char[] iban) {
+        return sharded != null ? sharded.contains(iban, iban.length) : sorted.contains(iban, iban.length);
+    }
+}
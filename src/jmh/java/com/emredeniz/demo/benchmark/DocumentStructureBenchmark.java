@@ -0,0 +1,65 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans with the pages that cannot contain text skipped before extraction and without, on a PDF whose pages are
+ * mostly images and on the sample invoice, which has text on every page and only pays for the check. The shared font
+ * cache is measured on its own by {@link FontCacheBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+// A skipped page saves little per scan, more iterations and forks narrow the error
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class DocumentStructureBenchmark {
+
+    private static final ScanOptions OPTIONS = new ScanOptions(ExtractionMode.STREAMING, false);
+
+    @Param({"example", "scanned-64"})
+    public String pdf;
+
+    @Param({"false", "true"})
+    public boolean classify;
+
+    private HttpServer server;
+    private Fixtures.Scanner scanner;
+    private String url;
+
+    @Setup
+    public void setup() throws IOException {
+        Path blacklist = Fixtures.blacklistFile(100_000, new Random(42));
+        try {
+            scanner = new Fixtures.Scanner(Fixtures.validator(blacklist), false);
+        } finally {
+            Files.delete(blacklist);
+        }
+        ReflectionTestUtils.setField(scanner.service, "classifyPages", classify);
+        server = Fixtures.pdfServer();
+        url = Fixtures.url(server, pdf);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scanner.close();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public ScanResult scanInvoice() throws IOException {
+        return scanner.service.scanInvoice(url, OPTIONS);
+    }
+}
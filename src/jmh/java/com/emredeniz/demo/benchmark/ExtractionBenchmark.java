@@ -0,0 +1,47 @@
+package com.emredeniz.demo.benchmark;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction of a single page with {@link PDFTextStripper}, cycling through all pages of the document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({"example", "generated-50", "generated-500"})
+    public String pdf;
+
+    private PDDocument document;
+    private int pages;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        document = PDDocument.load(Fixtures.pdf(pdf));
+        pages = document.getNumberOfPages();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        document.close();
+    }
+
+    @Benchmark
+    public String extractPage() throws IOException {
+        int page = next++ % pages + 1;
+        PDFTextStripper stripper = new PDFTextStripper();
+        stripper.setStartPage(page);
+        stripper.setEndPage(page);
+        return stripper.getText(document);
+    }
+}
@@ -0,0 +1,57 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.util.IBANValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching extracted text against a blacklist of 100k IBANs, for corpora of different sizes and IBAN densities.
+ * Half of the IBANs in the text are blacklisted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindBlacklistedIBANsBenchmark {
+
+    @Param({"10240", "1048576"})
+    public int corpusSize;
+
+    @Param({"0", "1", "10"})
+    public int ibansPerKb;
+
+    private IBANValidator validator;
+    private String corpus;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        Path blacklist = Fixtures.blacklistFile(100_000, random);
+        try {
+            validator = Fixtures.validator(blacklist);
+        } finally {
+            Files.delete(blacklist);
+        }
+
+        // Blacklisted IBANs come from the same seed as the blacklist file, the others are fresh
+        Random blacklisted = new Random(42);
+        String[] ibans = new String[64];
+        for (int i = 0; i < ibans.length; i++) {
+            ibans[i] = i % 2 == 0 ? Fixtures.randomIban(blacklisted) : Fixtures.randomIban(random);
+        }
+        corpus = Fixtures.corpus(corpusSize, ibansPerKb, random, ibans);
+    }
+
+    @Benchmark
+    public Set<String> findBlacklistedIBANs() {
+        return validator.findBlacklistedIBANs(corpus);
+    }
+}
@@ -0,0 +1,287 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.service.InvoiceScannerService;
+import com.emredeniz.demo.service.LabeledRegionScanner;
+import com.emredeniz.demo.service.OcrFallback;
+import com.emredeniz.demo.service.PDFDownloaderService;
+import com.emredeniz.demo.service.ParallelPageScanner;
+import com.emredeniz.demo.service.ScanMetrics;
+import com.emredeniz.demo.service.ScanResultCache;
+import com.emredeniz.demo.service.SharedFontCache;
+import com.emredeniz.demo.service.StageLimiter;
+import com.emredeniz.demo.service.TesseractOcrEngine;
+import com.emredeniz.demo.util.IBANValidator;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Deterministic inputs shared by the benchmarks: random valid IBANs, text corpora, generated PDFs and a scanner
+ * wired up without Spring.
+ */
+final class Fixtures {
+
+    /** The IBAN printed on every page of the generated PDFs. */
+    static final String INVOICE_IBAN = "DE15300606010505780780";
+
+    private static final Map<String, byte[]> PDFS = new ConcurrentHashMap<>();
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return A random German IBAN with valid check digits.
+     */
+    static String randomIban(Random random) {
+        StringBuilder bban = new StringBuilder(18);
+        for (int i = 0; i < 18; i++) {
+            bban.append((char) ('0' + random.nextInt(10)));
+        }
+        // Check digits per ISO 7064: 98 - (BBAN + "DE00" as digits) mod 97
+        int remainder = 0;
+        for (char c : (bban + "131400").toCharArray()) {
+            remainder = (remainder * 10 + (c - '0')) % 97;
+        }
+        return String.format("DE%02d%s", 98 - remainder, bban);
+    }
+
+    static String grouped(String iban) {
+        return iban.replaceAll("(.{4})(?!$)", "$1 ");
+    }
+
+    /**
+     * Generates invoice-like text with roughly the given number of IBANs per KB, half of them grouped.
+     */
+    static String corpus(int size, int ibansPerKb, Random random, String[] ibans) {
+        StringBuilder text = new StringBuilder(size + 128);
+        long ibanCount = 0;
+        int line = 0;
+        while (text.length() < size) {
+            if ((long) ibansPerKb * text.length() / 1024 > ibanCount) {
+                String iban = ibans[random.nextInt(ibans.length)];
+                text.append("Please transfer the amount to IBAN ").append(ibanCount % 2 == 0 ? iban : grouped(iban)).append('\n');
+                ibanCount++;
+            } else {
+                text.append("Pos. ").append(++line).append(" Consulting services, 8 h at 120.00 EUR, total 960.00 EUR\n");
+            }
+        }
+        return text.toString();
+    }
+
+    static Path blacklistFile(int entries, Random random) throws IOException {
+        Path file = Files.createTempFile("blacklist-", ".txt");
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < entries; i++) {
+                writer.write(randomIban(random));
+                writer.write('\n');
+            }
+            writer.write(INVOICE_IBAN);
+            writer.write('\n');
+        }
+        return file;
+    }
+
+    static IBANValidator validator(Path blacklistFile) throws IOException {
+        IBANValidator validator = new IBANValidator();
+        ReflectionTestUtils.setField(validator, "externalBlacklistedIBANsFile", blacklistFile.toString());
+        validator.init();
+        return validator;
+    }
+
+    /**
+     * @param name {@code example} for the sample invoice, {@code generated-N} for a generated PDF of N pages or
+     *             {@code scanned-N} for a generated PDF of N pages of which only every fourth has text and the others
+     *             are full-page images, like scanned attachments.
+     */
+    static byte[] pdf(String name) {
+        return PDFS.computeIfAbsent(name, key -> {
+            try {
+                if (key.equals("example")) {
+                    try (InputStream inputStream = new ClassPathResource("samples/example_invoice.pdf").getInputStream()) {
+                        return inputStream.readAllBytes();
+                    }
+                }
+                if (key.startsWith("scanned-")) {
+                    return generateScannedPdf(Integer.parseInt(key.substring("scanned-".length())));
+                }
+                return generatePdf(Integer.parseInt(key.substring("generated-".length())));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static byte[] generatePdf(int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    writeInvoicePage(content, i);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] generateScannedPdf(int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 1; i <= pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                // Every page has its own image, as every scanned page would
+                PDImageXObject scan = i % 4 == 1 ? null : LosslessFactory.createFromImage(document, scanImage(i));
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    if (scan == null) {
+                        writeInvoicePage(content, i);
+                    } else {
+                        content.drawImage(scan, 0, 0, page.getMediaBox().getWidth(), page.getMediaBox().getHeight());
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static void writeInvoicePage(PDPageContentStream content, int page) throws IOException {
+        content.beginText();
+        content.setFont(PDType1Font.HELVETICA, 9);
+        content.setLeading(11);
+        content.newLineAtOffset(40, 750);
+        for (int line = 1; line <= 60; line++) {
+            content.showText("Pos. " + line + " Consulting services, 8 h at 120.00 EUR, total 960.00 EUR, page " + page);
+            content.newLine();
+        }
+        content.showText("IBAN " + grouped(INVOICE_IBAN));
+        content.endText();
+    }
+
+    /**
+     * @return A grey A4 page at 100 dpi with a few lines of "text" on it.
+     */
+    private static BufferedImage scanImage(int page) {
+        BufferedImage image = new BufferedImage(827, 1169, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(235, 235, 235));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.DARK_GRAY);
+        for (int y = 80; y < 1100; y += 24) {
+            graphics.fillRect(60, y, 300 + (y * page) % 400, 10);
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Serves the benchmark PDFs at {@code /<name>.pdf}, so scans include a real HTTP download.
+     */
+    static HttpServer pdfServer() throws IOException {
+        return pdfServer(Duration.ZERO);
+    }
+
+    /**
+     * Serves the benchmark PDFs like a remote document store that answers after the given latency, handling every
+     * request on a virtual thread so that any number of downloads can wait at the same time.
+     */
+    static HttpServer pdfServer(Duration latency) throws IOException {
+        // Without it, small responses stall on Nagle's algorithm and delayed ACKs for ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        if (!latency.isZero()) {
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] pdf = pdf(path.substring(1, path.length() - ".pdf".length()));
+            if (!latency.isZero()) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, pdf.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(pdf);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    static String url(HttpServer server, String pdf) {
+        return "http://localhost:" + server.getAddress().getPort() + "/" + pdf + ".pdf";
+    }
+
+    /**
+     * Scanner components wired the way Spring would, with lifecycle methods called explicitly.
+     */
+    static final class Scanner implements AutoCloseable {
+
+        final PDFDownloaderService downloader = new PDFDownloaderService();
+        final ParallelPageScanner parallelPageScanner;
+        final ScanResultCache cache = new ScanResultCache();
+        final SharedFontCache fontCache = new SharedFontCache();
+        final StageLimiter limiter = new StageLimiter();
+        // Disabled unless invoice.scanner.ocr.enabled is set
+        final OcrFallback ocr = new OcrFallback(new TesseractOcrEngine(), limiter);
+        final InvoiceScannerService service;
+
+        Scanner(IBANValidator validator, boolean cacheEnabled) {
+            this(validator, cacheEnabled, 0);
+        }
+
+        /**
+         * @param parallelWorkers {@code invoice.scanner.parallel.workers}, 0 for one per available processor.
+         */
+        Scanner(IBANValidator validator, boolean cacheEnabled, int parallelWorkers) {
+            downloader.init();
+            fontCache.init();
+            limiter.init();
+            ocr.init();
+            parallelPageScanner = new ParallelPageScanner(validator, fontCache, limiter, ocr);
+            ReflectionTestUtils.setField(parallelPageScanner, "workers", parallelWorkers);
+            parallelPageScanner.init();
+            cache.init();
+            service = new InvoiceScannerService(downloader, validator, parallelPageScanner, cache,
+                    new ScanMetrics(new SimpleMeterRegistry()), new LabeledRegionScanner(validator), fontCache, limiter, ocr);
+            ReflectionTestUtils.setField(service, "cacheEnabled", cacheEnabled);
+        }
+
+        @Override
+        public void close() {
+            parallelPageScanner.shutdown();
+            ocr.shutdown();
+            downloader.shutdown();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.service.SharedFontCache;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving every font of the sample invoice in a freshly loaded document, which is what the shared font cache saves
+ * and all it saves, with the cache off and on. The load itself is included, as the same for both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+// The difference is a few milliseconds, more iterations and forks keep the error well below it
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class FontCacheBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fontCache;
+
+    private final SharedFontCache sharedFontCache = new SharedFontCache();
+    private byte[] pdf;
+
+    @Setup
+    public void setup() {
+        ReflectionTestUtils.setField(sharedFontCache, "enabled", fontCache);
+        sharedFontCache.init();
+        pdf = Fixtures.pdf("example");
+    }
+
+    @Benchmark
+    public void resolveFonts(Blackhole blackhole) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            sharedFontCache.attach(document);
+            for (PDPage page : document.getPages()) {
+                PDResources resources = page.getResources();
+                for (COSName name : resources.getFontNames()) {
+                    blackhole.consume(resources.getFont(name));
+                }
+            }
+            SharedFontCache.release(document);
+        }
+    }
+}
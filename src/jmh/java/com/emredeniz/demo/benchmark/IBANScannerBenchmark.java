@@ -0,0 +1,37 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.util.IBANScanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization of single IBANs, as done for every line of the blacklist file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IBANScannerBenchmark {
+
+    private final IBANScanner scanner = new IBANScanner();
+    private final String[] ibans = new String[1024];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < ibans.length; i++) {
+            String iban = Fixtures.randomIban(random);
+            ibans[i] = i % 2 == 0 ? iban : Fixtures.grouped(iban);
+        }
+    }
+
+    @Benchmark
+    public String normalizeIBAN() {
+        return scanner.normalize(ibans[next++ & (ibans.length - 1)]);
+    }
+}
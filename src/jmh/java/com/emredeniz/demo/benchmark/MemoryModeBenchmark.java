@@ -0,0 +1,61 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming scans per memory mode. Run with {@code -prof gc} to compare the heap allocated per scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryModeBenchmark {
+
+    @Param({"example", "generated-500"})
+    public String pdf;
+
+    @Param({"MAIN_MEMORY", "MIXED", "TEMP_FILE"})
+    public MemoryMode memoryMode;
+
+    private HttpServer server;
+    private Fixtures.Scanner scanner;
+    private String url;
+    private ScanOptions options;
+
+    @Setup
+    public void setup() throws IOException {
+        Path blacklist = Fixtures.blacklistFile(1_000, new Random(42));
+        try {
+            scanner = new Fixtures.Scanner(Fixtures.validator(blacklist), false);
+        } finally {
+            Files.delete(blacklist);
+        }
+        server = Fixtures.pdfServer();
+        url = Fixtures.url(server, pdf);
+        options = new ScanOptions(ExtractionMode.STREAMING, false, memoryMode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scanner.close();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public ScanResult scanInvoice() throws IOException {
+        return scanner.service.scanInvoice(url, options);
+    }
+}
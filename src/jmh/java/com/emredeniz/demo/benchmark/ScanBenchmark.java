@@ -0,0 +1,96 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.model.ExtractionMode;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@code scanInvoiceForBlacklistedIBANs}: HTTP download, parsing, extraction and matching against a
+ * blacklist of 100k IBANs, per page count and extraction mode, with the scan cache off and on. PARALLEL is measured per
+ * number of {@code invoice.scanner.parallel.workers}, which the other modes do not use. Sampled, so that the tail of
+ * the latency is reported next to its mean.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    /**
+     * A generated invoice with the given number of pages, served over HTTP.
+     */
+    @State(Scope.Benchmark)
+    public abstract static class Invoice {
+
+        @Param({"1", "50", "500"})
+        public int pages;
+
+        @Param({"false", "true"})
+        public boolean cache;
+
+        private HttpServer server;
+        Fixtures.Scanner scanner;
+        String url;
+
+        void setup(ExtractionMode mode, int parallelWorkers) throws IOException {
+            Path blacklist = Fixtures.blacklistFile(100_000, new Random(42));
+            try {
+                scanner = new Fixtures.Scanner(Fixtures.validator(blacklist), cache, parallelWorkers);
+            } finally {
+                Files.delete(blacklist);
+            }
+            ReflectionTestUtils.setField(scanner.service, "extractionMode", mode);
+            server = Fixtures.pdfServer();
+            url = Fixtures.url(server, "generated-" + pages);
+        }
+
+        @TearDown
+        public void tearDown() {
+            scanner.close();
+            server.stop(0);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sequential extends Invoice {
+
+        @Param({"FULL_TEXT", "STREAMING"})
+        public ExtractionMode mode;
+
+        @Setup
+        public void setup() throws IOException {
+            setup(mode, 0);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parallel extends Invoice {
+
+        @Param({"1", "2", "4"})
+        public int workers;
+
+        @Setup
+        public void setup() throws IOException {
+            setup(ExtractionMode.PARALLEL, workers);
+        }
+    }
+
+    @Benchmark
+    public Set<String> scanInvoiceForBlacklistedIBANs(Sequential invoice) throws IOException {
+        return invoice.scanner.service.scanInvoiceForBlacklistedIBANs(invoice.url);
+    }
+
+    @Benchmark
+    public Set<String> scanInvoiceForBlacklistedIBANsParallel(Parallel invoice) throws IOException {
+        return invoice.scanner.service.scanInvoiceForBlacklistedIBANs(invoice.url);
+    }
+}
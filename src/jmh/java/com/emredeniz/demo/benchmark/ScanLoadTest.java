@@ -0,0 +1,246 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.exception.ScanCapacityException;
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test of the scan endpoint with requests served on platform threads versus virtual threads.
+ * <p>
+ * Unlike the JMH benchmarks it measures a server under concurrent load: a fixed number of clients send scan requests
+ * back to back for a while, and the throughput and latency percentiles of the answers are reported. The server is a
+ * stand-in for Tomcat that runs the real scanner, download and {@link com.emredeniz.demo.service.StageLimiter}: its
+ * requests are handled by a pool of {@code --platform-threads} platform threads, like
+ * {@code server.tomcat.threads.max}, or by a virtual thread each, like {@code spring.threads.virtual.enabled}. The
+ * invoices are downloaded from a local stub file server that answers after {@code --latency}, standing in for a
+ * remote document store.
+ * <pre>
+ * ./mvnw -Pjmh test-compile exec:exec -Djmh.main=com.emredeniz.demo.benchmark.ScanLoadTest \
+ *        -Djmh.args="--clients 50,200,800 --latency 200ms --pdf generated-4"
+ * </pre>
+ * Options: {@code --threads platform,virtual}, {@code --clients}, {@code --duration 20s}, {@code --warmup 10s},
+ * {@code --latency}, {@code --pdf} (see {@link Fixtures#pdf(String)}), {@code --mode STREAMING},
+ * {@code --platform-threads 200} and {@code --parse-heap-share 0.5}.
+ */
+public final class ScanLoadTest {
+
+    private final Map<String, String> options = new HashMap<>(Map.of(
+            "threads", "platform,virtual",
+            "clients", "50,200,800",
+            "duration", "20s",
+            "warmup", "10s",
+            "latency", "200ms",
+            "pdf", "generated-4",
+            "mode", "STREAMING",
+            "platform-threads", "200",
+            "parse-heap-share", "0.5"));
+
+    private ScanLoadTest(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ScanLoadTest(args).run();
+    }
+
+    private void run() throws Exception {
+        Duration latency = duration(options.get("latency"));
+        HttpServer fileServer = Fixtures.pdfServer(latency);
+        String url = Fixtures.url(fileServer, options.get("pdf"));
+        System.out.printf("pdf=%s (%d bytes) latency=%d ms mode=%s cpus=%d heap=%d MB%n", options.get("pdf"),
+                Fixtures.pdf(options.get("pdf")).length, latency.toMillis(), options.get("mode"),
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf("%-8s %7s %9s %9s %9s %9s %9s %9s %7s %7s %9s%n", "threads", "clients", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "503", "errors", "heap MB");
+
+        Path blacklist = Fixtures.blacklistFile(100_000, new Random(42));
+        Fixtures.Scanner scanner;
+        try {
+            scanner = new Fixtures.Scanner(Fixtures.validator(blacklist), false);
+        } finally {
+            Files.delete(blacklist);
+        }
+        try (scanner) {
+            // All invoices come from the one stub host, which stands in for many
+            ReflectionTestUtils.setField(scanner.downloader, "maxConcurrentPerHost", Integer.MAX_VALUE);
+            ReflectionTestUtils.setField(scanner.limiter, "parseHeapShare", Double.parseDouble(options.get("parse-heap-share")));
+            scanner.limiter.init();
+
+            for (String threads : options.get("threads").split(",")) {
+                for (String clients : options.get("clients").split(",")) {
+                    Result result = measure(scanner, threads, url, Integer.parseInt(clients));
+                    System.out.printf("%-8s %7s %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %7d %7d %9d%n", threads, clients,
+                            result.throughput(), result.percentile(0.5), result.percentile(0.9), result.percentile(0.99),
+                            result.percentile(0.999), result.percentile(1), result.rejected(), result.errors(),
+                            result.peakHeap() >> 20);
+                }
+            }
+        } finally {
+            fileServer.stop(0);
+        }
+    }
+
+    private Result measure(Fixtures.Scanner scanner, String threads, String url, int clients) throws Exception {
+        ScanOptions scanOptions = new ScanOptions(ExtractionMode.valueOf(options.get("mode")), false);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        server.createContext("/scan", exchange -> scan(scanner, scanOptions, exchange));
+        ExecutorService requestThreads = switch (threads) {
+            case "platform" -> Executors.newFixedThreadPool(Integer.parseInt(options.get("platform-threads")));
+            case "virtual" -> Executors.newVirtualThreadPerTaskExecutor();
+            default -> throw new IllegalArgumentException("Unknown threads: " + threads);
+        };
+        server.setExecutor(requestThreads);
+        server.start();
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/scan?url="
+                + URLEncoder.encode(url, StandardCharsets.UTF_8));
+
+        ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clientThreads).build();
+        try {
+            System.gc();
+            long start = System.nanoTime();
+            long measureFrom = start + duration(options.get("warmup")).toNanos();
+            long end = measureFrom + duration(options.get("duration")).toNanos();
+            List<Future<Client>> futures = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                futures.add(clientThreads.submit(() -> new Client().run(client, uri, measureFrom, end)));
+            }
+            // Peak heap of the measured period only
+            while (System.nanoTime() < measureFrom) {
+                Thread.sleep(10);
+            }
+            ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+            Client total = new Client();
+            for (Future<Client> future : futures) {
+                total.add(future.get());
+            }
+            long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                    .sum();
+            return total.result((end - measureFrom) / 1e9, peakHeap);
+        } finally {
+            server.stop(0);
+            requestThreads.shutdownNow();
+            clientThreads.shutdownNow();
+        }
+    }
+
+    private static void scan(Fixtures.Scanner scanner, ScanOptions scanOptions, HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String url = URLDecoder.decode(query.substring("url=".length()), StandardCharsets.UTF_8);
+        int status = 200;
+        try {
+            scanner.service.scanInvoice(url, scanOptions);
+        } catch (ScanCapacityException e) {
+            status = 503;
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+        }
+        exchange.getRequestBody().readAllBytes();
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    /**
+     * Sends requests back to back and keeps the latencies of those that started within the measured period.
+     */
+    private static final class Client {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private int rejected;
+        private int errors;
+
+        Client run(HttpClient client, URI uri, long measureFrom, long end) throws InterruptedException {
+            HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build();
+            for (long start = System.nanoTime(); start < end; start = System.nanoTime()) {
+                int status;
+                try {
+                    status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                } catch (IOException e) {
+                    status = -1;
+                }
+                if (start < measureFrom) {
+                    continue;
+                }
+                if (status == 200) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                } else if (status == 503) {
+                    rejected++;
+                } else {
+                    errors++;
+                }
+            }
+            return this;
+        }
+
+        void add(Client other) {
+            latencies = Arrays.copyOf(latencies, count + other.count);
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            rejected += other.rejected;
+            errors += other.errors;
+        }
+
+        Result result(double seconds, long peakHeap) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return new Result(count / seconds, sorted, rejected, errors, peakHeap);
+        }
+    }
+
+    private record Result(double throughput, long[] sortedLatencies, int rejected, int errors, long peakHeap) {
+
+        double percentile(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    private static Duration duration(String value) {
+        return value.endsWith("ms")
+                ? Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)))
+                : Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+    }
+}
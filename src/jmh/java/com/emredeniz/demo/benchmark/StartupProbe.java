@@ -0,0 +1,72 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.util.IBANValidator;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Time to the first successful scan of a fresh JVM: loads a blacklist, wires up the scanner and scans one invoice from
+ * a local stub file server, then prints the JVM uptime at each step. Unlike the JMH benchmarks it measures one cold
+ * start, so it is run once per JVM, with and without a class data sharing archive:
+ * <pre>
+ * java -cp ... com.emredeniz.demo.benchmark.StartupProbe --prepare /tmp/probe      # blacklist files
+ * java -XX:ArchiveClassesAtExit=/tmp/probe/app.jsa -cp ... com.emredeniz.demo.benchmark.StartupProbe /tmp/probe
+ * java -XX:SharedArchiveFile=/tmp/probe/app.jsa -cp ... com.emredeniz.demo.benchmark.StartupProbe /tmp/probe binary
+ * </pre>
+ * The directory holds a text blacklist of 1,000,000 entries; with {@code binary} its snapshot is loaded instead.
+ */
+public final class StartupProbe {
+
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args[0].equals("--prepare")) {
+            Path directory = Files.createDirectories(Path.of(args[1]));
+            Path file = Fixtures.blacklistFile(1_000_000, new Random(42));
+            Files.move(file, directory.resolve("blacklist.txt"), StandardCopyOption.REPLACE_EXISTING);
+            validator(directory, true);
+            return;
+        }
+        Path directory = Path.of(args[0]);
+        boolean binary = args.length > 1 && args[1].equals("binary");
+
+        long main = uptime();
+        IBANValidator validator = validator(directory, binary);
+        long blacklist = uptime();
+        HttpServer server = Fixtures.pdfServer();
+        try (Fixtures.Scanner scanner = new Fixtures.Scanner(validator, false)) {
+            ScanResult result = scanner.service.scanInvoice(Fixtures.url(server, "example"), new ScanOptions(null, false));
+            if (result.pagesScanned() == 0) {
+                throw new IllegalStateException("The sample invoice was not scanned");
+            }
+        } finally {
+            server.stop(0);
+        }
+        long scan = uptime();
+        System.out.printf("main %d ms, blacklist loaded %d ms (%d), first scan %d ms (%d), total %d ms%n", main,
+                blacklist, blacklist - main, scan, scan - blacklist, scan);
+    }
+
+    private static IBANValidator validator(Path directory, boolean binary) throws Exception {
+        IBANValidator validator = new IBANValidator();
+        ReflectionTestUtils.setField(validator, "externalBlacklistedIBANsFile", directory.resolve("blacklist.txt").toString());
+        if (binary) {
+            ReflectionTestUtils.setField(validator, "binaryBlacklistFile", directory.resolve("blacklist.bin").toString());
+        }
+        validator.init();
+        return validator;
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
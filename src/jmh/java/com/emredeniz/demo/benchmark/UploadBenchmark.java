@@ -0,0 +1,95 @@
+package com.emredeniz.demo.benchmark;
+
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.service.DownloadedPDF;
+import com.emredeniz.demo.service.PDFDownloaderService;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting a PDF into the scanner: as an upload streamed over HTTP into {@code receive}, from memory without a socket,
+ * and as a download from a URL, which is the second of the two transfers a client pays for when it has to host the
+ * PDF first. The throughput in MB/s is the size of the PDF divided by the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"example", "generated-500"})
+    public String pdf;
+
+    @Param({"AUTO", "TEMP_FILE"})
+    public MemoryMode memoryMode;
+
+    private final PDFDownloaderService downloader = new PDFDownloaderService();
+    private HttpServer pdfServer;
+    private HttpServer uploadServer;
+    private HttpClient client;
+    private byte[] bytes;
+    private String url;
+    private URI uploadUri;
+
+    @Setup
+    public void setup() throws IOException {
+        downloader.init();
+        bytes = Fixtures.pdf(pdf);
+        pdfServer = Fixtures.pdfServer();
+        url = Fixtures.url(pdfServer, pdf);
+
+        // Stands in for the upload endpoint: the request body is streamed straight into the downloader
+        uploadServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        uploadServer.createContext("/upload", exchange -> {
+            long contentLength = Long.parseLong(exchange.getRequestHeaders().getFirst("Content-Length"));
+            try (DownloadedPDF received = downloader.receive(exchange.getRequestBody(), contentLength, memoryMode)) {
+                exchange.sendResponseHeaders(received.size() == contentLength ? 200 : 500, -1);
+            }
+            exchange.close();
+        });
+        uploadServer.start();
+        uploadUri = URI.create("http://localhost:" + uploadServer.getAddress().getPort() + "/upload");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        downloader.shutdown();
+        pdfServer.stop(0);
+        uploadServer.stop(0);
+    }
+
+    @Benchmark
+    public int upload() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uploadUri)
+                .header("Content-Type", "application/pdf")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(bytes))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public String receive() throws IOException {
+        try (DownloadedPDF received = downloader.receive(new ByteArrayInputStream(bytes), bytes.length, memoryMode)) {
+            return received.sha256();
+        }
+    }
+
+    @Benchmark
+    public String download() throws IOException {
+        try (DownloadedPDF downloaded = downloader.download(url, memoryMode)) {
+            return downloaded.sha256();
+        }
+    }
+}
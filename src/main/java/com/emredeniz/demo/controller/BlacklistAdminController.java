@@ -0,0 +1,84 @@
+package com.emredeniz.demo.controller;
+
+import com.emredeniz.demo.model.BlacklistStatus;
+import com.emredeniz.demo.model.HttpResponse;
+import com.emredeniz.demo.service.BlacklistReloadService;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANValidator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+
+@RestController
+@RequestMapping("/api/admin/blacklist")
+public class BlacklistAdminController {
+
+    // Reloads and deltas change what every scan matches against, they are only served when explicitly enabled
+    @Value("${invoice.admin.enabled:false}")
+    private boolean adminEnabled;
+
+    private final BlacklistReloadService blacklistReloadService;
+    private final IBANValidator ibanValidator;
+
+    public BlacklistAdminController(BlacklistReloadService blacklistReloadService, IBANValidator ibanValidator) {
+        this.blacklistReloadService = blacklistReloadService;
+        this.ibanValidator = ibanValidator;
+    }
+
+    @GetMapping
+    public BlacklistStatus status() {
+        BlacklistSnapshot snapshot = ibanValidator.snapshot();
+        return new BlacklistStatus(snapshot.version(), snapshot.size(), snapshot.countries(), snapshot.addedSize(),
+                snapshot.removedSize(), snapshot.createdAt());
+    }
+
+    @PostMapping("/reload")
+    public ResponseEntity<HttpResponse> reload(@RequestParam(required = false) String country) {
+        if (!adminEnabled) {
+            return disabled();
+        }
+        if (country == null) {
+            blacklistReloadService.reloadAsync();
+            return response(HttpStatus.ACCEPTED, "Blacklist reload started.");
+        }
+        if (!country.matches("[A-Za-z]{2}")) {
+            return response(HttpStatus.BAD_REQUEST, "Not a two-letter country code: " + country);
+        }
+        blacklistReloadService.reloadAsync(country);
+        return response(HttpStatus.ACCEPTED, "Blacklist reload of " + country.toUpperCase(Locale.ROOT) + " started.");
+    }
+
+    /**
+     * Applies delta lines and answers once they are in effect; a delta only waits for a reload already running.
+     */
+    @PostMapping(value = "/delta", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<HttpResponse> applyDelta(@RequestBody String delta) {
+        if (!adminEnabled) {
+            return disabled();
+        }
+        try {
+            BlacklistSnapshot snapshot = blacklistReloadService.applyDeltaAsync(delta).join();
+            return response(HttpStatus.OK, "Blacklist delta applied, version " + snapshot.version() + ".");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                return response(HttpStatus.BAD_REQUEST, e.getCause().getMessage());
+            }
+            Throwable cause = e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause() : e.getCause();
+            return response(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to apply blacklist delta: " + cause.getMessage());
+        }
+    }
+
+    private ResponseEntity<HttpResponse> disabled() {
+        return response(HttpStatus.FORBIDDEN, "Blacklist administration is disabled, see invoice.admin.enabled.");
+    }
+
+    private ResponseEntity<HttpResponse> response(HttpStatus httpStatus, String message) {
+        return new ResponseEntity<>(new HttpResponse(message, null, httpStatus.value()), httpStatus);
+    }
+}
@@ -0,0 +1,38 @@
+package com.emredeniz.demo.controller;
+
+import com.emredeniz.demo.model.CacheStatus;
+import com.emredeniz.demo.model.HttpResponse;
+import com.emredeniz.demo.service.ScanResultCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/admin/cache")
+public class CacheAdminController {
+
+    @Value("${invoice.admin.enabled:false}")
+    private boolean adminEnabled;
+
+    private final ScanResultCache scanResultCache;
+
+    public CacheAdminController(ScanResultCache scanResultCache) {
+        this.scanResultCache = scanResultCache;
+    }
+
+    @GetMapping
+    public CacheStatus status() {
+        return scanResultCache.status();
+    }
+
+    @DeleteMapping
+    public ResponseEntity<HttpResponse> clear() {
+        if (!adminEnabled) {
+            return new ResponseEntity<>(new HttpResponse("Cache administration is disabled, see invoice.admin.enabled.", null,
+                    HttpStatus.FORBIDDEN.value()), HttpStatus.FORBIDDEN);
+        }
+        scanResultCache.invalidateAll();
+        return new ResponseEntity<>(new HttpResponse("Scan cache cleared.", null, HttpStatus.OK.value()), HttpStatus.OK);
+    }
+}
@@ -1,12 +1,38 @@
 package com.emredeniz.demo.controller;
 
+import com.emredeniz.demo.exception.PDFDownloadException;
+import com.emredeniz.demo.model.BatchScanRequest;
+import com.emredeniz.demo.model.BatchScanResult;
+import com.emredeniz.demo.model.ExtractionMode;
 import com.emredeniz.demo.model.HttpResponse;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.service.BatchScanService;
 import com.emredeniz.demo.service.InvoiceScannerService;
+import com.emredeniz.demo.service.ScanTrace;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 @RestController
@@ -14,32 +40,255 @@ import java.util.Set;
 public class InvoiceScannerController {
 
     private final InvoiceScannerService invoiceScannerService;
+    private final BatchScanService batchScanService;
+    private final ObjectMapper objectMapper;
 
-    public InvoiceScannerController(InvoiceScannerService invoiceScannerService) {
+    public InvoiceScannerController(InvoiceScannerService invoiceScannerService, BatchScanService batchScanService,
+                                    ObjectMapper objectMapper) {
         this.invoiceScannerService = invoiceScannerService;
+        this.batchScanService = batchScanService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/scan")
-    public ResponseEntity<?> scanInvoice(@RequestParam String url) {
+    public ResponseEntity<?> scanInvoice(@RequestParam String url,
+                                         @RequestParam(required = false) ExtractionMode mode,
+                                         @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                         @RequestParam(required = false) MemoryMode memoryMode,
+                                         @RequestParam(defaultValue = "false") boolean timings) {
+        ScanTrace trace = timings ? new ScanTrace() : null;
         try {
-            Set<String> blacklistedIBANs = invoiceScannerService.scanInvoiceForBlacklistedIBANs(url);
-            if (blacklistedIBANs.isEmpty()) {
-                return response(HttpStatus.OK,"No blacklisted IBANs found.", blacklistedIBANs);
-            }
+            // Without a mode the configured one is used, page hits are only known when it extracts page by page
+            ScanOptions options = new ScanOptions(mode, stopAtFirstHit, memoryMode);
+            ScanResult result = trace != null
+                    ? invoiceScannerService.scanInvoice(url, options, trace)
+                    : invoiceScannerService.scanInvoice(url, options);
+            return response(result, trace != null ? trace.timingsMillis() : null);
+        } catch (IOException e) {
+            return response(status(e), e.getMessage(), null, null, trace != null ? trace.timingsMillis() : null);
+        }
+    }
+
+    /**
+     * Scans a PDF sent as the raw request body. The body is streamed into memory or, above the memory threshold,
+     * into a temporary file as it arrives, without being encoded or copied as a whole.
+     */
+    @PostMapping(value = "/scan/upload", consumes = MediaType.APPLICATION_PDF_VALUE)
+    public ResponseEntity<?> scanUpload(HttpServletRequest request,
+                                        @RequestParam(required = false) ExtractionMode mode,
+                                        @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                        @RequestParam(required = false) MemoryMode memoryMode,
+                                        @RequestParam(defaultValue = "false") boolean timings) throws IOException {
+        return scanUpload(request.getInputStream(), request.getContentLengthLong(),
+                new ScanOptions(mode, stopAtFirstHit, memoryMode), timings);
+    }
+
+    /**
+     * Scans a PDF sent as the {@code file} part of a multipart form. The servlet container has stored the part by
+     * then; a part on disk is taken over by the scan instead of being copied again.
+     */
+    @PostMapping(value = "/scan/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> scanMultipartUpload(@RequestPart("file") MultipartFile file,
+                                                 @RequestParam(required = false) ExtractionMode mode,
+                                                 @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                                 @RequestParam(required = false) MemoryMode memoryMode,
+                                                 @RequestParam(defaultValue = "false") boolean timings) {
+        ScanOptions options = new ScanOptions(mode, stopAtFirstHit, memoryMode);
+        return scanUpload(trace -> invoiceScannerService.scanUpload(file, options, trace), timings);
+    }
 
-            String message = String.format("There %s %d blacklisted IBAN%s found in the invoice.",
-                    blacklistedIBANs.size() == 1 ? "is" : "are",
-                    blacklistedIBANs.size(),
-                    blacklistedIBANs.size() == 1 ? "" : "s");
+    private ResponseEntity<HttpResponse> scanUpload(InputStream body, long contentLength, ScanOptions options, boolean timings) {
+        return scanUpload(trace -> invoiceScannerService.scanUpload(body, contentLength, options, trace), timings);
+    }
 
-            return response(HttpStatus.OK, message, blacklistedIBANs);
+    private ResponseEntity<HttpResponse> scanUpload(Upload upload, boolean timings) {
+        ScanTrace trace = new ScanTrace();
+        try {
+            ScanResult result = upload.scan(trace);
+            return response(result, timings ? trace.timingsMillis() : null);
         } catch (IOException e) {
-            return response(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage(), null);
+            return response(status(e), e.getMessage(), null, null, timings ? trace.timingsMillis() : null);
         }
     }
 
-    private ResponseEntity<HttpResponse> response(HttpStatus httpStatus, String message, Set<String> blacklistedIBANs) {
-        return new ResponseEntity<>(new HttpResponse(message, blacklistedIBANs, httpStatus.value()), httpStatus);
+    /**
+     * @return The status of a failed scan: a download failure by its reason, anything else is an internal error.
+     */
+    private static HttpStatus status(IOException e) {
+        if (!(e instanceof PDFDownloadException download)) {
+            return HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return switch (download.reason()) {
+            case NOT_FOUND -> HttpStatus.NOT_FOUND;
+            case HTTP_ERROR -> HttpStatus.BAD_GATEWAY;
+            case TOO_LARGE -> HttpStatus.PAYLOAD_TOO_LARGE;
+            case TIMEOUT -> HttpStatus.GATEWAY_TIMEOUT;
+            case TOO_MANY_REQUESTS -> HttpStatus.SERVICE_UNAVAILABLE;
+            case INTERRUPTED -> HttpStatus.INTERNAL_SERVER_ERROR;
+        };
     }
-}
 
+    /**
+     * Scans a list of invoices given as JSON ({@code {"urls": [...]}}) and streams one result per line as each
+     * invoice completes.
+     */
+    @PostMapping(value = "/scan/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> scanInvoices(@RequestBody BatchScanRequest request,
+                                                              @RequestParam(required = false) ExtractionMode mode,
+                                                              @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                                              @RequestParam(required = false) MemoryMode memoryMode) {
+        List<String> urls = request.urls() != null ? request.urls() : List.of();
+        return streamResults(urls.iterator(), new ScanOptions(mode, stopAtFirstHit, memoryMode));
+    }
+
+    /**
+     * Scans invoices given as NDJSON, one URL per line either as a JSON string or as {@code {"url": "..."}}.
+     * The request body is read lazily while results are streamed back, so the list can be arbitrarily long.
+     */
+    @PostMapping(value = "/scan/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> scanInvoiceStream(HttpServletRequest request,
+                                                                   @RequestParam(required = false) ExtractionMode mode,
+                                                                   @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                                                   @RequestParam(required = false) MemoryMode memoryMode) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        return streamResults(new NdjsonUrlIterator(reader), new ScanOptions(mode, stopAtFirstHit, memoryMode));
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamResults(Iterator<String> urls, ScanOptions options) {
+        StreamingResponseBody body = outputStream ->
+                batchScanService.scanAll(urls, options, result -> writeLine(outputStream, toResponse(result)));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private void writeLine(OutputStream outputStream, HttpResponse response) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(response));
+        outputStream.write('\n');
+        outputStream.flush();
+    }
+
+    private HttpResponse toResponse(BatchScanResult batchResult) {
+        ScanResult result = batchResult.result();
+        if (result == null) {
+            // Without a URL the entry itself was invalid
+            HttpStatus status = batchResult.url() == null ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR;
+            return new HttpResponse(batchResult.error(), null, status.value(), null,
+                    batchResult.url(), batchResult.error(), null, null, null);
+        }
+        return new HttpResponse(message(result), result.blacklistedIbans(), HttpStatus.OK.value(),
+                pageHits(result), batchResult.url(), null, null, result.locations(), pagesNotRecognized(result));
+    }
+
+    private String message(ScanResult result) {
+        if (result.pagesNotRecognized() == 0) {
+            return message(result.blacklistedIbans());
+        }
+        // Pages that could not be read may hold blacklisted IBANs, the invoice must not look clean
+        return String.format("%s %d page%s without text could not be recognized and %s not scanned.",
+                result.blacklistedIbans().isEmpty()
+                        ? "No blacklisted IBANs found on the readable pages." : message(result.blacklistedIbans()),
+                result.pagesNotRecognized(),
+                result.pagesNotRecognized() == 1 ? "" : "s",
+                result.pagesNotRecognized() == 1 ? "was" : "were");
+    }
+
+    private String message(Set<String> blacklistedIBANs) {
+        if (blacklistedIBANs.isEmpty()) {
+            return "No blacklisted IBANs found.";
+        }
+
+        return String.format("There %s %d blacklisted IBAN%s found in the invoice.",
+                blacklistedIBANs.size() == 1 ? "is" : "are",
+                blacklistedIBANs.size(),
+                blacklistedIBANs.size() == 1 ? "" : "s");
+    }
+
+    private static Map<Integer, Set<String>> pageHits(ScanResult result) {
+        return result.pageHits().isEmpty() ? null : result.pageHits();
+    }
+
+    private static Integer pagesNotRecognized(ScanResult result) {
+        return result.pagesNotRecognized() > 0 ? result.pagesNotRecognized() : null;
+    }
+
+    private ResponseEntity<HttpResponse> response(HttpStatus httpStatus, String message, Set<String> blacklistedIBANs,
+                                                  Map<Integer, Set<String>> pageHits, Map<String, Double> timings) {
+        return new ResponseEntity<>(new HttpResponse(message, blacklistedIBANs, httpStatus.value(), pageHits, null, null, timings,
+                null, null), httpStatus);
+    }
+
+    private ResponseEntity<HttpResponse> response(ScanResult result, Map<String, Double> timings) {
+        return new ResponseEntity<>(new HttpResponse(message(result), result.blacklistedIbans(), HttpStatus.OK.value(),
+                pageHits(result), null, null, timings, result.locations(), pagesNotRecognized(result)), HttpStatus.OK);
+    }
+
+    /**
+     * Scans an uploaded PDF, however it was sent.
+     */
+    @FunctionalInterface
+    private interface Upload {
+        ScanResult scan(ScanTrace trace) throws IOException;
+    }
+
+    /**
+     * Reads URLs from NDJSON lines on demand, skipping blank lines. A line that is not valid JSON or holds no URL is
+     * handed out as an {@link IllegalArgumentException} from {@link #next()}, so that only that line fails.
+     */
+    private class NdjsonUrlIterator implements Iterator<String> {
+
+        private final BufferedReader reader;
+        private int lineNumber;
+        private String next;
+        private String invalid;
+
+        NdjsonUrlIterator(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                String line;
+                while (next == null && invalid == null && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (!line.isBlank()) {
+                        read(line);
+                    }
+                }
+                return next != null || invalid != null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void read(String line) {
+            JsonNode node;
+            try {
+                node = objectMapper.readTree(line);
+            } catch (JsonProcessingException e) {
+                invalid = "Line " + lineNumber + " is not valid JSON: " + e.getOriginalMessage();
+                return;
+            }
+            JsonNode url = node.isTextual() ? node : node.path("url");
+            if (url.isTextual()) {
+                next = url.asText();
+            } else {
+                invalid = "Line " + lineNumber + " holds no URL, expected a string or {\"url\": \"...\"}";
+            }
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (invalid != null) {
+                String error = invalid;
+                invalid = null;
+                throw new IllegalArgumentException(error);
+            }
+            String url = next;
+            next = null;
+            return url;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.emredeniz.demo.controller;
+
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.HttpResponse;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.model.ScanJob;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.service.ScanJobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+
+@RestController
+@RequestMapping("/api/invoices/jobs")
+public class ScanJobController {
+
+    private final ScanJobService scanJobService;
+
+    public ScanJobController(ScanJobService scanJobService) {
+        this.scanJobService = scanJobService;
+    }
+
+    /**
+     * Queues a scan and returns right away with the job, which can be polled at its {@code Location}.
+     * A full queue is answered with 429 and a {@code Retry-After} header.
+     */
+    @PostMapping
+    public ResponseEntity<?> submit(@RequestParam String url,
+                                    @RequestParam(required = false) ExtractionMode mode,
+                                    @RequestParam(defaultValue = "false") boolean stopAtFirstHit,
+                                    @RequestParam(required = false) MemoryMode memoryMode,
+                                    @RequestParam(required = false) String callbackUrl) throws IOException {
+        try {
+            ScanJob job = scanJobService.submit(url, new ScanOptions(mode, stopAtFirstHit, memoryMode), callbackUrl);
+            return ResponseEntity.accepted().location(URI.create("/api/invoices/jobs/" + job.id())).body(job);
+        } catch (IllegalArgumentException e) {
+            return response(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> get(@PathVariable String id) {
+        ScanJob job = scanJobService.get(id);
+        if (job == null) {
+            return response(HttpStatus.NOT_FOUND, "Scan job not found: " + id);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    private ResponseEntity<HttpResponse> response(HttpStatus httpStatus, String message) {
+        return new ResponseEntity<>(new HttpResponse(message, null, httpStatus.value()), httpStatus);
+    }
+}
@@ -4,12 +4,14 @@ import com.emredeniz.demo.model.HttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.servlet.error.ErrorController;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.servlet.resource.NoResourceFoundException;
 
 import java.util.Set;
@@ -28,6 +30,9 @@ public class ExceptionHandling implements ErrorController {
     // Generic internal server error message
     private static final String INTERNAL_SERVER_ERROR_MSG = "An error occurred while processing the request";
 
+    // Error message for multipart uploads above spring.servlet.multipart.max-file-size
+    private static final String UPLOAD_TOO_LARGE_MSG = "The uploaded PDF exceeds the maximum upload size";
+
     // Error message for resource not found
     private static final String RESOURCE_NOT_FOUND_MSG = "The requested resource was not found. Please check the URL and try again";
 
@@ -60,6 +65,43 @@ public class ExceptionHandling implements ErrorController {
         return createHttpResponse(HttpStatus.NOT_FOUND, RESOURCE_NOT_FOUND_MSG);
     }
 
+    /**
+     * Handles MaxUploadSizeExceededException when a multipart upload is larger than the configured limit.
+     *
+     * @param exception The exception thrown when the upload is too large.
+     * @return A structured HTTP response with status 413 (Payload Too Large).
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<HttpResponse> maxUploadSizeExceededException(MaxUploadSizeExceededException exception) {
+        return createHttpResponse(HttpStatus.PAYLOAD_TOO_LARGE, UPLOAD_TOO_LARGE_MSG);
+    }
+
+    /**
+     * Handles JobQueueFullException when a scan job is submitted to a full queue.
+     *
+     * @param exception The exception thrown when the queue of the job is full.
+     * @return A structured HTTP response with status 429 (Too Many Requests) and a Retry-After header.
+     */
+    @ExceptionHandler(JobQueueFullException.class)
+    public ResponseEntity<HttpResponse> jobQueueFullException(JobQueueFullException exception) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.retryAfter().toSeconds()))
+                .body(new HttpResponse(exception.getMessage(), null, HttpStatus.TOO_MANY_REQUESTS.value()));
+    }
+
+    /**
+     * Handles ScanCapacityException when a scan waited too long for a download or parse slot.
+     *
+     * @param exception The exception thrown when the stage of the scan is saturated.
+     * @return A structured HTTP response with status 503 (Service Unavailable) and a Retry-After header.
+     */
+    @ExceptionHandler(ScanCapacityException.class)
+    public ResponseEntity<HttpResponse> scanCapacityException(ScanCapacityException exception) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(exception.retryAfter().toSeconds()))
+                .body(new HttpResponse(exception.getMessage(), null, HttpStatus.SERVICE_UNAVAILABLE.value()));
+    }
+
     /**
      * Handles all generic exceptions that are not specifically caught by other handlers.
      * Logs the error message for debugging purposes.
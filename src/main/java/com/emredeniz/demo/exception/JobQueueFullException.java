@@ -0,0 +1,23 @@
+package com.emredeniz.demo.exception;
+
+import com.emredeniz.demo.model.JobLane;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Thrown when a scan job is submitted to a lane that is already full, telling the client when to try again.
+ */
+public class JobQueueFullException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public JobQueueFullException(JobLane lane, Duration retryAfter) {
+        super("The " + lane.name().toLowerCase(Locale.ROOT) + " job queue is full, please retry in " + retryAfter.toSeconds() + " seconds");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,39 @@
+package com.emredeniz.demo.exception;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Thrown when a PDF cannot be downloaded, carrying the reason in a form that can be counted and mapped to a status.
+ */
+public class PDFDownloadException extends IOException {
+
+    public enum Reason {
+        NOT_FOUND,
+        HTTP_ERROR,
+        TOO_LARGE,
+        TIMEOUT,
+        TOO_MANY_REQUESTS,
+        INTERRUPTED;
+
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Reason reason;
+
+    public PDFDownloadException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public PDFDownloadException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+}
@@ -0,0 +1,20 @@
+package com.emredeniz.demo.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a scan waited too long for a free slot in one of its stages, telling the client when to try again.
+ */
+public class ScanCapacityException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ScanCapacityException(String stage, Duration retryAfter) {
+        super("Too many concurrent scans in the " + stage + " stage, please retry in " + retryAfter.toSeconds() + " seconds");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
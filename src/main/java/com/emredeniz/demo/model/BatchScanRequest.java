@@ -0,0 +1,5 @@
+package com.emredeniz.demo.model;
+
+import java.util.List;
+
+public record BatchScanRequest(List<String> urls) {}
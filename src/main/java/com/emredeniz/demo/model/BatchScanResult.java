@@ -0,0 +1,7 @@
+package com.emredeniz.demo.model;
+
+/**
+ * Outcome of scanning one invoice of a batch: either a result or the reason it failed. An entry of the batch that held
+ * no URL to scan has neither a URL nor a result.
+ */
+public record BatchScanResult(String url, ScanResult result, String error) {}
@@ -0,0 +1,5 @@
+package com.emredeniz.demo.model;
+
+import java.time.Instant;
+
+public record BlacklistStatus(long version, int size, int countries, int addedSinceLoad, int removedSinceLoad, Instant updatedAt) {}
@@ -0,0 +1,3 @@
+package com.emredeniz.demo.model;
+
+public record CacheStatus(long entries, long hits, long misses, long evictions, double hitRate) {}
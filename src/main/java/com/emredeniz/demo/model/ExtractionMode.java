@@ -0,0 +1,18 @@
+package com.emredeniz.demo.model;
+
+/**
+ * How the text of a PDF is extracted before it is matched against the blacklist.
+ */
+public enum ExtractionMode {
+    /** Extract the whole document into one String, then match it. */
+    FULL_TEXT,
+    /** Extract and match page by page, keeping only one page of text in memory. */
+    STREAMING,
+    /** Split the pages into ranges that are extracted and matched page by page on several threads. */
+    PARALLEL,
+    /**
+     * Extract text with its position and match the regions next to labels such as "IBAN" first, falling back to the
+     * whole page when they hold no blacklisted IBAN. Reports the location of every hit.
+     */
+    REGIONS
+}
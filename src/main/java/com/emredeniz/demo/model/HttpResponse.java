@@ -1,5 +1,20 @@
 package com.emredeniz.demo.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-public record HttpResponse (String message, Set<String> blacklistedIbans, int status) {}
+public record HttpResponse (String message, Set<String> blacklistedIbans, int status,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) Map<Integer, Set<String>> pageHits,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) String url,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) String error,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) Map<String, Double> timings,
+                            @JsonInclude(JsonInclude.Include.NON_EMPTY) List<IBANLocation> locations,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) Integer pagesNotRecognized) {
+
+    public HttpResponse(String message, Set<String> blacklistedIbans, int status) {
+        this(message, blacklistedIbans, status, null, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,9 @@
+package com.emredeniz.demo.model;
+
+/**
+ * Where a blacklisted IBAN was found: its page and the box around it in PDF points, measured from the top left corner
+ * of the page. An IBAN wrapped over two lines is covered by the box around both parts.
+ *
+ * @param labeled Whether it was found in a region next to a label such as "IBAN", rather than by the full page scan.
+ */
+public record IBANLocation(String iban, int page, float x, float y, float width, float height, boolean labeled) {}
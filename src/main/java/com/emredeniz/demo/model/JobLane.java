@@ -0,0 +1,11 @@
+package com.emredeniz.demo.model;
+
+/**
+ * Queue a scan job waits in, picked from the size of its PDF so that small invoices are not held up by large ones.
+ */
+public enum JobLane {
+    /** PDFs up to {@code invoice.scanner.jobs.small-threshold}, served first. */
+    SMALL,
+    /** Larger PDFs and PDFs of unknown size. */
+    LARGE
+}
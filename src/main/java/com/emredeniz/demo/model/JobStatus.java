@@ -0,0 +1,15 @@
+package com.emredeniz.demo.model;
+
+/**
+ * Lifecycle of an asynchronous scan job.
+ */
+public enum JobStatus {
+    /** Waiting in its lane for a free worker. */
+    QUEUED,
+    /** Being scanned; a job still running when the application stops is queued again on the next start. */
+    RUNNING,
+    /** Scanned, the result is available. */
+    DONE,
+    /** The scan failed, the error is available. */
+    FAILED
+}
@@ -0,0 +1,15 @@
+package com.emredeniz.demo.model;
+
+/**
+ * Where PDFBox keeps a document and its decoded streams while it is parsed.
+ */
+public enum MemoryMode {
+    /** Pick one of the other modes from the size of the PDF. */
+    AUTO,
+    /** Keep the PDF and everything decoded from it on the heap. Fastest, but costs a multiple of the file size. */
+    MAIN_MEMORY,
+    /** Keep decoded streams on the heap up to a cap and move the rest into a scratch file. */
+    MIXED,
+    /** Read the PDF from a temporary file on demand and keep decoded streams in a scratch file. */
+    TEMP_FILE
+}
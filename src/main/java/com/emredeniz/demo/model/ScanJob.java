@@ -0,0 +1,46 @@
+package com.emredeniz.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+
+/**
+ * State of an asynchronous scan job. Every transition creates a new instance, which is persisted before it becomes
+ * visible to pollers.
+ */
+public record ScanJob(String id, String url, ScanOptions options, JobLane lane, JobStatus status,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) String callbackUrl,
+                      Instant submittedAt,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) Instant startedAt,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) Instant finishedAt,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) ScanResult result,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) String error) {
+
+    public static ScanJob queued(String id, String url, ScanOptions options, JobLane lane, String callbackUrl) {
+        return new ScanJob(id, url, options, lane, JobStatus.QUEUED, callbackUrl, Instant.now(), null, null, null, null);
+    }
+
+    public ScanJob requeued() {
+        return new ScanJob(id, url, options, lane, JobStatus.QUEUED, callbackUrl, submittedAt, null, null, null, null);
+    }
+
+    public ScanJob inLane(JobLane lane) {
+        return new ScanJob(id, url, options, lane, status, callbackUrl, submittedAt, startedAt, finishedAt, result, error);
+    }
+
+    public ScanJob started() {
+        return new ScanJob(id, url, options, lane, JobStatus.RUNNING, callbackUrl, submittedAt, Instant.now(), null, null, null);
+    }
+
+    public ScanJob done(ScanResult result) {
+        return new ScanJob(id, url, options, lane, JobStatus.DONE, callbackUrl, submittedAt, startedAt, Instant.now(), result, null);
+    }
+
+    public ScanJob failed(String error) {
+        return new ScanJob(id, url, options, lane, JobStatus.FAILED, callbackUrl, submittedAt, startedAt, Instant.now(), null, error);
+    }
+
+    public boolean finished() {
+        return status == JobStatus.DONE || status == JobStatus.FAILED;
+    }
+}
@@ -0,0 +1,8 @@
+package com.emredeniz.demo.model;
+
+public record ScanOptions(ExtractionMode mode, boolean stopAtFirstHit, MemoryMode memoryMode) {
+
+    public ScanOptions(ExtractionMode mode, boolean stopAtFirstHit) {
+        this(mode, stopAtFirstHit, null);
+    }
+}
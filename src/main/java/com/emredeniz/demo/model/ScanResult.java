@@ -0,0 +1,33 @@
+package com.emredeniz.demo.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @param pagesNotRecognized Pages without text that OCR could not recognize, so they were not searched for IBANs.
+ */
+public record ScanResult(Set<String> blacklistedIbans, Map<Integer, Set<String>> pageHits, int pagesScanned,
+                         @JsonInclude(JsonInclude.Include.NON_EMPTY) List<IBANLocation> locations,
+                         @JsonInclude(JsonInclude.Include.NON_DEFAULT) int pagesNotRecognized) {
+
+    public ScanResult {
+        // Omitted from JSON when empty, so a stored result reads back without them
+        locations = locations != null ? locations : List.of();
+    }
+
+    public ScanResult(Set<String> blacklistedIbans, Map<Integer, Set<String>> pageHits, int pagesScanned,
+                      List<IBANLocation> locations) {
+        this(blacklistedIbans, pageHits, pagesScanned, locations, 0);
+    }
+
+    public ScanResult(Set<String> blacklistedIbans, Map<Integer, Set<String>> pageHits, int pagesScanned) {
+        this(blacklistedIbans, pageHits, pagesScanned, List.of());
+    }
+
+    public ScanResult withPagesNotRecognized(int pagesNotRecognized) {
+        return new ScanResult(blacklistedIbans, pageHits, pagesScanned, locations, pagesNotRecognized);
+    }
+}
@@ -0,0 +1,92 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.BatchScanResult;
+import com.emredeniz.demo.model.ScanOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Scans many invoices concurrently and hands each result over as soon as it is done.
+ */
+@Service
+public class BatchScanService {
+    private static final Logger log = LoggerFactory.getLogger(BatchScanService.class);
+
+    private final InvoiceScannerService invoiceScannerService;
+
+    // Maximum number of invoices of one batch that are scanned at the same time
+    @Value("${invoice.scanner.batch.max-concurrency:16}")
+    private int maxConcurrency = 16;
+
+    /**
+     * Receives the result of each invoice of a batch, in completion order.
+     */
+    @FunctionalInterface
+    public interface ResultSink {
+        void accept(BatchScanResult result) throws IOException;
+    }
+
+    public BatchScanService(InvoiceScannerService invoiceScannerService) {
+        this.invoiceScannerService = invoiceScannerService;
+    }
+
+    /**
+     * Scans all invoices with at most {@code invoice.scanner.batch.max-concurrency} in flight, each on its own virtual
+     * thread. URLs are pulled from the iterator only when a slot is free, so the input may be a lazily read stream.
+     * A failing invoice is reported through its result and does not abort the batch, and neither does an entry of the
+     * input that holds no URL: it is reported as a result without URL.
+     *
+     * @param urls    The URLs of the invoices to scan; {@code next()} throws an {@link IllegalArgumentException} for an
+     *                entry that holds no URL.
+     * @param options The options applied to every invoice.
+     * @param sink    Receiver of the results, called on the calling thread.
+     * @throws IOException If the sink fails, e.g. because the client went away; scans in flight are cancelled.
+     */
+    public void scanAll(Iterator<String> urls, ScanOptions options, ResultSink sink) throws IOException {
+        BlockingQueue<BatchScanResult> completed = new LinkedBlockingQueue<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            int inFlight = 0;
+            while (urls.hasNext() || inFlight > 0) {
+                while (inFlight < maxConcurrency && urls.hasNext()) {
+                    String url;
+                    try {
+                        url = urls.next();
+                    } catch (IllegalArgumentException e) {
+                        completed.add(new BatchScanResult(null, null, e.getMessage()));
+                        inFlight++;
+                        continue;
+                    }
+                    executor.execute(() -> completed.add(scan(url, options)));
+                    inFlight++;
+                }
+                sink.accept(completed.take());
+                inFlight--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for batch scan results");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BatchScanResult scan(String url, ScanOptions options) {
+        try {
+            return new BatchScanResult(url, invoiceScannerService.scanInvoice(url, options), null);
+        } catch (Exception e) {
+            log.warn("Failed to scan invoice {}: {}", url, e.getMessage());
+            return new BatchScanResult(url, null, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANValidator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rebuilds the blacklist in the background, either on request or when the external blacklist file changes.
+ * <p>
+ * When {@code blacklisted.ibans.external-file} is set, its directory is watched: a change to the file itself triggers
+ * a full reload, and every {@code *.delta} file dropped next to it is applied as a delta and then renamed to
+ * {@code *.delta.applied}, or to {@code *.delta.rejected} if a line holds no valid IBAN. Applied deltas, including
+ * those posted to the admin endpoint, are kept in the journal of the {@link IBANValidator} and applied again after
+ * every full or per-country reload and at the next start, until the blacklist file is modified after them. All
+ * rebuilds run one at a time on a dedicated thread, scans keep running on the previous snapshot until the new one is
+ * swapped in.
+ */
+@Service
+public class BlacklistReloadService {
+    private static final Logger log = LoggerFactory.getLogger(BlacklistReloadService.class);
+
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String APPLIED_SUFFIX = ".applied";
+    private static final String REJECTED_SUFFIX = ".rejected";
+
+    // Give writers a moment to finish the file before it is read
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    private final IBANValidator ibanValidator;
+
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blacklist-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${blacklisted.ibans.external-file:}")
+    private String externalBlacklistedIBANsFile;
+
+    @Value("${blacklisted.ibans.watch:true}")
+    private boolean watch;
+
+    private WatchService watchService;
+
+    public BlacklistReloadService(IBANValidator ibanValidator) {
+        this.ibanValidator = ibanValidator;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!watch || externalBlacklistedIBANsFile == null || externalBlacklistedIBANsFile.isBlank()) {
+            return;
+        }
+
+        Path file = Path.of(externalBlacklistedIBANsFile).toAbsolutePath();
+        Path directory = file.getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        // Deltas dropped while the application was down
+        try (DirectoryStream<Path> deltas = Files.newDirectoryStream(directory, "*" + DELTA_SUFFIX)) {
+            for (Path delta : deltas) {
+                applyDeltaFileAsync(delta);
+            }
+        }
+
+        Thread watcher = new Thread(() -> watch(directory, file.getFileName()), "blacklist-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        log.info("Watching {} for blacklist changes", directory);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        reloader.shutdownNow();
+    }
+
+    /**
+     * Reloads the full blacklist in the background.
+     *
+     * @return The snapshot that was swapped in.
+     */
+    public CompletableFuture<BlacklistSnapshot> reloadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ibanValidator.reload();
+                return ibanValidator.snapshot();
+            } catch (IOException e) {
+                log.error("Failed to reload the blacklist: {}", e.getMessage(), e);
+                throw new UncheckedIOException(e);
+            }
+        }, reloader);
+    }
+
+    /**
+     * Reloads the blacklist of one country in the background, see {@link IBANValidator#reload(String)}.
+     *
+     * @param country Two-letter country code.
+     * @return The snapshot that was swapped in.
+     */
+    public CompletableFuture<BlacklistSnapshot> reloadAsync(String country) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ibanValidator.reload(country);
+                return ibanValidator.snapshot();
+            } catch (IOException e) {
+                log.error("Failed to reload the blacklist of {}: {}", country, e.getMessage(), e);
+                throw new UncheckedIOException(e);
+            }
+        }, reloader);
+    }
+
+    /**
+     * Applies delta lines to the blacklist in the background, see {@link IBANValidator#applyDelta(Reader)}.
+     *
+     * @param delta The delta lines.
+     * @return The snapshot that was swapped in, completed with an {@link IllegalArgumentException} if the delta was
+     *         rejected or an {@link UncheckedIOException} if the journal could not be written.
+     */
+    public CompletableFuture<BlacklistSnapshot> applyDeltaAsync(String delta) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ibanValidator.applyDelta(new StringReader(delta));
+                return ibanValidator.snapshot();
+            } catch (IllegalArgumentException e) {
+                log.warn("Rejected blacklist delta: {}", e.getMessage());
+                throw e;
+            } catch (IOException e) {
+                log.error("Failed to apply blacklist delta: {}", e.getMessage(), e);
+                throw new UncheckedIOException(e);
+            }
+        }, reloader);
+    }
+
+    private void applyDeltaFileAsync(Path delta) {
+        reloader.execute(() -> {
+            try {
+                if (!Files.exists(delta)) {
+                    return; // Already applied, e.g. reported by a create and a modify event
+                }
+                try (Reader reader = Files.newBufferedReader(delta)) {
+                    ibanValidator.applyDelta(reader);
+                }
+                Files.move(delta, delta.resolveSibling(delta.getFileName() + APPLIED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IllegalArgumentException e) {
+                log.error("Rejected blacklist delta {}: {}", delta, e.getMessage());
+                rename(delta, REJECTED_SUFFIX);
+            } catch (IOException e) {
+                log.error("Failed to apply blacklist delta {}: {}", delta, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Moves a delta file out of the way, so that it is not picked up again.
+     */
+    private static void rename(Path delta, String suffix) {
+        try {
+            Files.move(delta, delta.resolveSibling(delta.getFileName() + suffix), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Failed to rename blacklist delta {}: {}", delta, e.getMessage(), e);
+        }
+    }
+
+    private void watch(Path directory, Path fileName) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Thread.sleep(DEBOUNCE_MILLIS);
+
+                // Collapse the burst of events a single write usually produces
+                Set<Path> changed = new LinkedHashSet<>();
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path path) {
+                            changed.add(path);
+                        }
+                    }
+                    key.reset();
+                } while ((key = watchService.poll()) != null);
+
+                for (Path path : changed) {
+                    if (path.equals(fileName)) {
+                        reloadAsync();
+                    } else if (path.toString().endsWith(DELTA_SUFFIX)) {
+                        applyDeltaFileAsync(directory.resolve(path));
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching {} for blacklist changes", directory);
+        }
+    }
+}
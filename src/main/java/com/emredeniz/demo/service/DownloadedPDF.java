@@ -0,0 +1,113 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.MemoryMode;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A downloaded PDF, held in memory when it is small and spooled to a temporary file otherwise.
+ * Closing it deletes the temporary file.
+ */
+public final class DownloadedPDF implements Closeable {
+
+    private final byte[] bytes;
+    private final Path file;
+    private final long size;
+    private final String sha256;
+    private final MemoryMode memoryMode;
+    private final long maxMainMemoryBytes;
+
+    private DownloadedPDF(byte[] bytes, Path file, long size, String sha256, MemoryMode memoryMode, long maxMainMemoryBytes) {
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+        this.sha256 = sha256;
+        this.memoryMode = memoryMode;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+    }
+
+    static DownloadedPDF inMemory(byte[] bytes, String sha256, MemoryMode memoryMode, long maxMainMemoryBytes) {
+        return new DownloadedPDF(bytes, null, bytes.length, sha256, memoryMode, maxMainMemoryBytes);
+    }
+
+    static DownloadedPDF spooled(Path file, long size, String sha256, MemoryMode memoryMode, long maxMainMemoryBytes) {
+        return new DownloadedPDF(null, file, size, sha256, memoryMode, maxMainMemoryBytes);
+    }
+
+    /**
+     * Parses the PDF according to its memory mode. May be called more than once, every call returns an independent
+     * document.
+     *
+     * @return The parsed document, to be closed by the caller.
+     * @throws IOException If the PDF cannot be parsed.
+     */
+    public PDDocument load() throws IOException {
+        MemoryUsageSetting setting = switch (memoryMode) {
+            case MIXED -> MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+            case TEMP_FILE -> MemoryUsageSetting.setupTempFileOnly();
+            default -> MemoryUsageSetting.setupMainMemoryOnly();
+        };
+        // A spooled file is read on demand by PDFBox instead of being copied onto the heap
+        return file != null ? PDDocument.load(file.toFile(), setting) : PDDocument.load(bytes, "", null, null, setting);
+    }
+
+    public InputStream openStream() throws IOException {
+        return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(bytes);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return The SHA-256 hash of the PDF bytes as lower case hex, computed while downloading.
+     */
+    public String sha256() {
+        return sha256;
+    }
+
+    public boolean isSpooled() {
+        return file != null;
+    }
+
+    /**
+     * @return The number of PDF bytes a parse keeps on the heap: all of them if the PDF is held in memory, otherwise
+     * what its memory mode lets PDFBox buffer in main memory.
+     */
+    public long heapBytes() {
+        if (file == null) {
+            return size;
+        }
+        return switch (memoryMode) {
+            case MIXED -> Math.min(size, maxMainMemoryBytes);
+            case TEMP_FILE -> 0;
+            default -> size;
+        };
+    }
+
+    /**
+     * @return The memory mode the PDF is loaded with, never {@link MemoryMode#AUTO}.
+     */
+    public MemoryMode memoryMode() {
+        return memoryMode;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Still opened by a document on a platform that does not allow deleting open files
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+}
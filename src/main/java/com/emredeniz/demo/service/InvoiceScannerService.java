@@ -1,11 +1,21 @@
 package com.emredeniz.demo.service;
 
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.service.ScanTrace.Stage;
+import com.emredeniz.demo.util.BlacklistMatcher;
 import com.emredeniz.demo.util.IBANValidator;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Map;
 import java.util.Set;
 
 @Service
@@ -13,23 +23,237 @@ public class InvoiceScannerService {
 
     private final PDFDownloaderService pdfDownloaderService;
     private final IBANValidator ibanValidator;
+    private final ParallelPageScanner parallelPageScanner;
+    private final ScanResultCache scanResultCache;
+    private final ScanMetrics scanMetrics;
+    private final LabeledRegionScanner labeledRegionScanner;
+    private final SharedFontCache sharedFontCache;
+    private final StageLimiter stageLimiter;
+    private final OcrFallback ocrFallback;
 
-    public InvoiceScannerService(PDFDownloaderService pdfDownloaderService, IBANValidator ibanValidator) {
+    @Value("${invoice.scanner.extraction-mode:FULL_TEXT}")
+    private ExtractionMode extractionMode = ExtractionMode.FULL_TEXT;
+
+    @Value("${invoice.scanner.cache.enabled:false}")
+    private boolean cacheEnabled;
+
+    // Whether pages that cannot contain text are skipped before extraction
+    @Value("${invoice.scanner.classify-pages:true}")
+    private boolean classifyPages = true;
+
+    public InvoiceScannerService(PDFDownloaderService pdfDownloaderService, IBANValidator ibanValidator,
+                                 ParallelPageScanner parallelPageScanner, ScanResultCache scanResultCache,
+                                 ScanMetrics scanMetrics, LabeledRegionScanner labeledRegionScanner,
+                                 SharedFontCache sharedFontCache, StageLimiter stageLimiter, OcrFallback ocrFallback) {
         this.pdfDownloaderService = pdfDownloaderService;
         this.ibanValidator = ibanValidator;
+        this.parallelPageScanner = parallelPageScanner;
+        this.scanResultCache = scanResultCache;
+        this.scanMetrics = scanMetrics;
+        this.labeledRegionScanner = labeledRegionScanner;
+        this.sharedFontCache = sharedFontCache;
+        this.stageLimiter = stageLimiter;
+        this.ocrFallback = ocrFallback;
     }
 
     public Set<String> scanInvoiceForBlacklistedIBANs(String url) throws IOException {
-        try (PDDocument document = pdfDownloaderService.downloadPDF(url)) {
+        return scanInvoice(url, new ScanOptions(extractionMode, false)).blacklistedIbans();
+    }
+
+    public ScanResult scanInvoice(String url, ScanOptions options) throws IOException {
+        return scanInvoice(url, options, new ScanTrace());
+    }
+
+    /**
+     * Scans an invoice for blacklisted IBANs. The download and the parse each wait for a permit of the
+     * {@link StageLimiter} first.
+     *
+     * @param url     URL of the PDF file or a {@code classpath:} path.
+     * @param options How to extract the text, the configured default mode is used when it has none,
+     *                whether to stop at the first hit and where to keep the document, picked from its size when
+     *                it has no memory mode.
+     * @param trace   Receives the time spent per stage; it is published to the metrics once the scan is done.
+     * @return The blacklisted IBANs found, per page when the text was extracted page by page, and with their
+     *         location in {@link ExtractionMode#REGIONS} mode, along with the pages OCR could not recognize.
+     * @throws IOException If the PDF cannot be downloaded or parsed.
+     * @throws com.emredeniz.demo.exception.ScanCapacityException If no permit became free in time.
+     */
+    public ScanResult scanInvoice(String url, ScanOptions options, ScanTrace trace) throws IOException {
+        MemoryMode memoryMode = memoryMode(options);
+        return traced(trace, () -> {
+            try (DownloadedPDF pdf = transfer(Stage.DOWNLOAD, trace, () -> pdfDownloaderService.download(url, memoryMode))) {
+                return scan(pdf, "URL: " + url, options, trace);
+            }
+        });
+    }
+
+    /**
+     * Scans an invoice uploaded as a request body, which is streamed into memory or a temporary file as it arrives.
+     *
+     * @param body          The request body, read to its end but not closed.
+     * @param contentLength The size announced by the client, or -1 if it is unknown.
+     * @param options       The options of the scan, see {@link #scanInvoice(String, ScanOptions, ScanTrace)}.
+     * @param trace         Receives the time spent per stage; it is published to the metrics once the scan is done.
+     * @return The blacklisted IBANs found, per page when the text was extracted page by page.
+     * @throws IOException If the body cannot be read, exceeds {@code invoice.upload.max-size} or cannot be parsed.
+     */
+    public ScanResult scanUpload(InputStream body, long contentLength, ScanOptions options, ScanTrace trace) throws IOException {
+        MemoryMode memoryMode = memoryMode(options);
+        return scanUpload(() -> pdfDownloaderService.receive(body, contentLength, memoryMode), options, trace);
+    }
+
+    /**
+     * Scans an invoice uploaded as a multipart file. A file the servlet container already stored on disk is taken
+     * over rather than copied.
+     *
+     * @param file    The uploaded file.
+     * @param options The options of the scan, see {@link #scanInvoice(String, ScanOptions, ScanTrace)}.
+     * @param trace   Receives the time spent per stage; it is published to the metrics once the scan is done.
+     * @return The blacklisted IBANs found, per page when the text was extracted page by page.
+     * @throws IOException If the file cannot be read, exceeds {@code invoice.upload.max-size} or cannot be parsed.
+     */
+    public ScanResult scanUpload(MultipartFile file, ScanOptions options, ScanTrace trace) throws IOException {
+        MemoryMode memoryMode = memoryMode(options);
+        return scanUpload(() -> pdfDownloaderService.receive(file, memoryMode), options, trace);
+    }
+
+    private ScanResult scanUpload(ScanTrace.StageAction<DownloadedPDF> receive, ScanOptions options, ScanTrace trace) throws IOException {
+        return traced(trace, () -> {
+            try (DownloadedPDF pdf = transfer(Stage.UPLOAD, trace, receive)) {
+                return scan(pdf, "upload", options, trace);
+            }
+        });
+    }
+
+    private static MemoryMode memoryMode(ScanOptions options) {
+        return options.memoryMode() != null ? options.memoryMode() : MemoryMode.AUTO;
+    }
+
+    /**
+     * Downloads or receives a PDF holding a transfer permit, which is released as soon as the PDF is complete.
+     */
+    private DownloadedPDF transfer(Stage stage, ScanTrace trace, ScanTrace.StageAction<DownloadedPDF> transfer) throws IOException {
+        try (StageLimiter.Permit permit = stageLimiter.transfer(trace)) {
+            return trace.time(stage, transfer);
+        }
+    }
+
+    private ScanResult traced(ScanTrace trace, ScanTrace.StageAction<ScanResult> scan) throws IOException {
+        try {
+            ScanResult result = scan.run();
+            trace.finish(result.blacklistedIbans().size());
+            // The hits are only complete for the pages that had text or were recognized
+            return trace.pagesNotRecognized() > 0 ? result.withPagesNotRecognized((int) trace.pagesNotRecognized()) : result;
+        } catch (IOException | RuntimeException e) {
+            trace.fail(e);
+            throw e;
+        } finally {
+            scanMetrics.record(trace);
+        }
+    }
+
+    private ScanResult scan(DownloadedPDF pdf, String source, ScanOptions options, ScanTrace trace) throws IOException {
+        ExtractionMode mode = options.mode() != null ? options.mode() : extractionMode;
+        trace.downloaded(pdf.size());
+        // Cached candidates have no positions, a region scan always parses the document
+        if (cacheEnabled && mode != ExtractionMode.REGIONS) {
+            return scanCached(pdf, mode, options.stopAtFirstHit(), trace);
+        }
+        if (mode == ExtractionMode.PARALLEL) {
+            // Every worker parses its own copy of the document
+            return parallelPageScanner.scan(pdf, options.stopAtFirstHit(), trace);
+        }
+
+        try (StageLimiter.Permit permit = stageLimiter.parse(trace, pdf); PDDocument document = load(pdf, permit, trace)) {
             if (document == null) {
-                throw new IOException("Failed to load PDF document from URL: " + url);
+                throw new IOException("Failed to load PDF document from " + source);
+            }
+
+            if (mode == ExtractionMode.REGIONS) {
+                return labeledRegionScanner.scan(document, options.stopAtFirstHit(), trace);
+            }
+            if (mode == ExtractionMode.STREAMING || options.stopAtFirstHit()) {
+                return scanPageByPage(document, options.stopAtFirstHit(), trace);
             }
 
             // Extract text from the PDF
-            String text = new PDFTextStripper().getText(document);
+            ScanTextStripper stripper = new ScanTextStripper(trace);
+            stripper.setClassifyPages(classifyPages);
+            stripper.setOcr(ocrFallback.session(document, trace));
+            StringWriter text = new StringWriter();
+            stripper.extract(document, text);
+            trace.pagesParsed(document.getNumberOfPages() - stripper.pagesSkipped());
 
             // Find all IBANs in the text and filter for blacklisted ones
-            return ibanValidator.findBlacklistedIBANs(text);
+            Set<String> blacklistedIBANs = trace.time(Stage.MATCH,
+                    () -> ibanValidator.findBlacklistedIBANs(text.toString(), trace::candidatesFound));
+            return new ScanResult(blacklistedIBANs, Map.of(), document.getNumberOfPages());
+        }
+    }
+
+    /**
+     * Matches the cached IBANs of a PDF against the current blacklist, extracting and caching them first if the PDF
+     * has not been seen before. A first scan that stops at its first hit does not see all IBANs and is not cached.
+     */
+    private ScanResult scanCached(DownloadedPDF pdf, ExtractionMode mode, boolean stopAtFirstHit, ScanTrace trace) throws IOException {
+        ScanResultCache.Candidates candidates = trace.time(Stage.CACHE, () -> scanResultCache.get(pdf.sha256()));
+        if (candidates == null) {
+            if (stopAtFirstHit) {
+                if (mode == ExtractionMode.PARALLEL) {
+                    return parallelPageScanner.scan(pdf, true, trace);
+                }
+                try (StageLimiter.Permit permit = stageLimiter.parse(trace, pdf); PDDocument document = load(pdf, permit, trace)) {
+                    return scanPageByPage(document, true, trace);
+                }
+            }
+
+            ScanResult all;
+            if (mode == ExtractionMode.PARALLEL) {
+                all = parallelPageScanner.collectIBANs(pdf, trace);
+            } else {
+                // Candidates are kept per page, so even FULL_TEXT is extracted page by page here
+                try (StageLimiter.Permit permit = stageLimiter.parse(trace, pdf); PDDocument document = load(pdf, permit, trace)) {
+                    BlacklistMatcher matcher = BlacklistMatcher.allIBANs();
+                    extractPages(document, matcher, trace);
+                    trace.pagesParsed(matcher.pagesScanned());
+                    trace.candidatesFound(matcher.candidates());
+                    all = new ScanResult(matcher.hits(), matcher.hitsByPage(), matcher.pagesScanned());
+                }
+            }
+            candidates = new ScanResultCache.Candidates(all.pageHits(), all.pagesScanned());
+            // Pages OCR could not recognize this time may well be recognized by the next scan
+            if (trace.pagesNotRecognized() == 0) {
+                scanResultCache.put(pdf.sha256(), candidates);
+            }
         }
+        ScanResultCache.Candidates cached = candidates;
+        return trace.time(Stage.MATCH, () -> cached.match(ibanValidator.snapshot(), stopAtFirstHit));
+    }
+
+    /**
+     * Loads the PDF and refines the heap reserved by its parse permit with the page count.
+     */
+    private PDDocument load(DownloadedPDF pdf, StageLimiter.Permit permit, ScanTrace trace) throws IOException {
+        PDDocument document = trace.time(Stage.LOAD, pdf::load);
+        if (document != null) {
+            sharedFontCache.attach(document);
+            permit.pagesLoaded(document.getNumberOfPages());
+        }
+        return document;
+    }
+
+    private ScanResult scanPageByPage(PDDocument document, boolean stopAtFirstHit, ScanTrace trace) throws IOException {
+        BlacklistMatcher matcher = ibanValidator.newMatcher(stopAtFirstHit);
+        extractPages(document, matcher, trace);
+        trace.pagesParsed(matcher.pagesScanned());
+        trace.candidatesFound(matcher.candidates());
+        return new ScanResult(matcher.hits(), matcher.hitsByPage(), matcher.pagesScanned());
+    }
+
+    private void extractPages(PDDocument document, BlacklistMatcher matcher, ScanTrace trace) throws IOException {
+        PageTextStripper stripper = new PageTextStripper(matcher::feedPage, trace);
+        stripper.setClassifyPages(classifyPages);
+        stripper.setOcr(ocrFallback.session(document, trace));
+        stripper.extract(document);
     }
 }
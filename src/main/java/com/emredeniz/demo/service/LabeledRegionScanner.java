@@ -0,0 +1,230 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.IBANLocation;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.service.LayoutTextStripper.PageLayout;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANScanner;
+import com.emredeniz.demo.util.IBANValidator;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Scans a PDF for blacklisted IBANs using the position of its text.
+ * <p>
+ * On every page the labels that introduce bank details ("IBAN", "Bankverbindung", "Account") are located, and only the
+ * region to the right of and below each label is matched: the rest of the label's line plus a few lines underneath.
+ * Reference, order and customer numbers elsewhere on the page are only looked at when the regions hold no blacklisted
+ * IBAN: a page without labels, or without a hit in its regions, is matched as a whole. Every hit is reported with its
+ * page and bounding box. Unlike page-by-page matching, an IBAN wrapped across a page break is
+ * not found.
+ */
+@Service
+public class LabeledRegionScanner {
+
+    private final IBANValidator ibanValidator;
+
+    // Case-insensitive words that introduce bank details
+    @Value("${invoice.scanner.regions.labels:IBAN,Bankverbindung,Account}")
+    private List<String> labels = List.of("IBAN", "Bankverbindung", "Account");
+
+    // Lines below a label that still belong to its region
+    @Value("${invoice.scanner.regions.lines-below:2}")
+    private int linesBelow = 2;
+
+    // Whether pages that cannot contain text are skipped before extraction
+    @Value("${invoice.scanner.classify-pages:true}")
+    private boolean classifyPages = true;
+
+    public LabeledRegionScanner(IBANValidator ibanValidator) {
+        this.ibanValidator = ibanValidator;
+    }
+
+    /**
+     * Scans a document for blacklisted IBANs, labeled regions first.
+     *
+     * @param document       The document to scan.
+     * @param stopAtFirstHit Whether to stop at the first blacklisted IBAN.
+     * @param trace          Receives the time spent extracting and matching.
+     * @return The blacklisted IBANs found, with their pages and locations.
+     * @throws IOException If the document cannot be parsed.
+     */
+    public ScanResult scan(PDDocument document, boolean stopAtFirstHit, ScanTrace trace) throws IOException {
+        PageMatcher matcher = new PageMatcher(ibanValidator.snapshot(), stopAtFirstHit);
+        LayoutTextStripper stripper = new LayoutTextStripper(matcher::accept, trace);
+        stripper.setClassifyPages(classifyPages);
+        stripper.extract(document);
+        trace.pagesParsed(matcher.pagesScanned);
+        trace.candidatesFound(matcher.candidates);
+        return new ScanResult(matcher.hits, matcher.pageHits, matcher.pagesScanned, matcher.locations);
+    }
+
+    /**
+     * Matches the pages of one document, collecting the hits.
+     */
+    private final class PageMatcher {
+
+        private final BlacklistSnapshot blacklist;
+        private final boolean stopAtFirstHit;
+        private final IBANScanner scanner = new IBANScanner();
+
+        private final Set<String> hits = new LinkedHashSet<>();
+        private final Map<Integer, Set<String>> pageHits = new TreeMap<>();
+        private final List<IBANLocation> locations = new ArrayList<>();
+        private int pagesScanned;
+        private int candidates;
+
+        // Text of the labeled regions of the current page and, per character, its index in the page text
+        private final StringBuilder regionText = new StringBuilder();
+        private int[] pageIndex = new int[1024];
+
+        PageMatcher(BlacklistSnapshot blacklist, boolean stopAtFirstHit) {
+            this.blacklist = blacklist;
+            this.stopAtFirstHit = stopAtFirstHit;
+        }
+
+        boolean accept(int page, PageLayout layout) {
+            pagesScanned++;
+            List<float[]> regions = findRegions(layout);
+            if (!regions.isEmpty()) {
+                collectRegionText(layout, regions);
+                int hitsBefore = locations.size();
+                boolean proceed = scanner.scan(regionText, (iban, length, start, end) ->
+                        match(page, layout, iban, length, start, end, true));
+                if (locations.size() > hitsBefore || !proceed) {
+                    return proceed;
+                }
+            }
+
+            // No labels or no blacklisted IBAN next to them, fall back to the whole page: a clean IBAN under one label
+            // must not hide a blacklisted one elsewhere
+            regionText.setLength(0);
+            return scanner.scan(layout.text(), (iban, length, start, end) ->
+                    match(page, layout, iban, length, start, end, false));
+        }
+
+        /**
+         * @return Per label found on the page, the left, top and bottom edge of its region.
+         */
+        private List<float[]> findRegions(PageLayout layout) {
+            List<float[]> regions = new ArrayList<>();
+            CharSequence text = layout.text();
+            for (int i = 0; i < text.length(); i++) {
+                if (i > 0 && Character.isLetterOrDigit(text.charAt(i - 1))) {
+                    continue;
+                }
+                for (String label : labels) {
+                    int end = i + label.length();
+                    if (end > text.length() || (end < text.length() && Character.isLetter(text.charAt(end)))
+                            || !regionMatches(text, i, label) || !layout.hasBox(i) || !layout.hasBox(end - 1)) {
+                        continue;
+                    }
+                    float top = layout.top(i);
+                    float bottom = layout.bottom(i);
+                    for (int j = i + 1; j < end; j++) {
+                        top = Math.min(top, layout.top(j));
+                        bottom = Math.max(bottom, layout.bottom(j));
+                    }
+                    // Glyph boxes are about the cap height, the line pitch is roughly twice that
+                    float lineHeight = Math.max(1, bottom - top);
+                    regions.add(new float[]{layout.left(i) - lineHeight, top - lineHeight / 2,
+                            bottom + linesBelow * 2 * lineHeight});
+                }
+            }
+            return regions;
+        }
+
+        private static boolean regionMatches(CharSequence text, int offset, String label) {
+            for (int i = 0; i < label.length(); i++) {
+                if (Character.toUpperCase(text.charAt(offset + i)) != Character.toUpperCase(label.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Collects the characters inside any region in text order. Characters outside are replaced by a single line
+         * break, so text on either side of them is never joined into one IBAN.
+         */
+        private void collectRegionText(PageLayout layout, List<float[]> regions) {
+            regionText.setLength(0);
+            if (pageIndex.length < layout.length()) {
+                pageIndex = new int[Math.max(layout.length(), pageIndex.length * 2)];
+            }
+            CharSequence text = layout.text();
+            boolean inside = false;
+            for (int i = 0; i < text.length(); i++) {
+                if (layout.hasBox(i)) {
+                    inside = isInside(layout, i, regions);
+                    if (!inside) {
+                        appendBreak('\n', i);
+                        continue;
+                    }
+                    pageIndex[regionText.length()] = i;
+                    regionText.append(text.charAt(i));
+                } else if (inside) {
+                    appendBreak(text.charAt(i), i);
+                }
+            }
+        }
+
+        private void appendBreak(char separator, int index) {
+            int last = regionText.length() - 1;
+            if (last >= 0 && Character.isWhitespace(regionText.charAt(last))) {
+                return;
+            }
+            pageIndex[regionText.length()] = index;
+            regionText.append(separator);
+        }
+
+        private static boolean isInside(PageLayout layout, int index, List<float[]> regions) {
+            float x = (layout.left(index) + layout.right(index)) / 2;
+            float y = (layout.top(index) + layout.bottom(index)) / 2;
+            for (float[] region : regions) {
+                if (x >= region[0] && y >= region[1] && y <= region[2]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean match(int page, PageLayout layout, char[] iban, int length, int start, int end, boolean labeled) {
+            candidates++;
+            if (!blacklist.contains(iban, length)) {
+                return true;
+            }
+            String hit = new String(iban, 0, length);
+            hits.add(hit);
+            pageHits.computeIfAbsent(page, key -> new LinkedHashSet<>()).add(hit);
+            locations.add(locate(hit, page, layout, start, end, labeled));
+            return !stopAtFirstHit;
+        }
+
+        private IBANLocation locate(String iban, int page, PageLayout layout, int start, int end, boolean labeled) {
+            float left = Float.MAX_VALUE;
+            float top = Float.MAX_VALUE;
+            float right = -Float.MAX_VALUE;
+            float bottom = -Float.MAX_VALUE;
+            for (int i = start; i < end; i++) {
+                int index = labeled ? pageIndex[i] : i;
+                if (layout.hasBox(index)) {
+                    left = Math.min(left, layout.left(index));
+                    top = Math.min(top, layout.top(index));
+                    right = Math.max(right, layout.right(index));
+                    bottom = Math.max(bottom, layout.bottom(index));
+                }
+            }
+            return new IBANLocation(iban, page, left, top, right - left, bottom - top, labeled);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Text stripper that keeps the position of every character and hands each page to a consumer as a {@link PageLayout}
+ * once the page is done. Text is sorted by position, so the characters of a line are adjacent even when the content
+ * stream draws them in another order. Time spent in the consumer is recorded as the {@link ScanTrace.Stage#MATCH}
+ * stage and excluded from {@link ScanTrace.Stage#EXTRACT}.
+ */
+class LayoutTextStripper extends ScanTextStripper {
+
+    /**
+     * Receives the layout of each page.
+     */
+    @FunctionalInterface
+    interface PageConsumer {
+
+        /**
+         * @param pageNumber The 1-based page number.
+         * @param layout     The text and character boxes of the page, only valid for the duration of the call.
+         * @return {@code true} to continue with the next page, {@code false} to skip the remaining pages.
+         */
+        boolean accept(int pageNumber, PageLayout layout);
+    }
+
+    private final PageLayout layout = new PageLayout();
+    private final PageConsumer consumer;
+
+    LayoutTextStripper(PageConsumer consumer, ScanTrace trace) throws IOException {
+        super(trace);
+        this.consumer = consumer;
+        setSortByPosition(true);
+    }
+
+    /**
+     * Extracts the layout of all pages in order, or until the consumer asks to stop.
+     *
+     * @param document The document to extract.
+     * @throws IOException If the document cannot be parsed.
+     */
+    void extract(PDDocument document) throws IOException {
+        // The text goes into the layout, nothing is written out
+        extract(document, Writer.nullWriter());
+    }
+
+    @Override
+    protected void startPage(PDPage pdPage) throws IOException {
+        super.startPage(pdPage);
+        layout.clear();
+    }
+
+    @Override
+    protected void writeString(String text, List<TextPosition> textPositions) {
+        for (TextPosition position : textPositions) {
+            layout.append(position);
+        }
+    }
+
+    @Override
+    protected void writeWordSeparator() {
+        layout.separator(' ');
+    }
+
+    @Override
+    protected void writeLineSeparator() {
+        layout.separator('\n');
+    }
+
+    @Override
+    protected void endPage(PDPage pdPage) throws IOException {
+        super.endPage(pdPage);
+        long start = System.nanoTime();
+        stopped = !consumer.accept(getCurrentPageNo(), layout);
+        addNested(ScanTrace.Stage.MATCH, System.nanoTime() - start);
+    }
+
+    /**
+     * The text of one page with the box of every character, in PDF points from the top left corner of the page.
+     * Separators inserted between words and lines have no box. The buffers are reused from page to page.
+     */
+    static final class PageLayout {
+
+        private final StringBuilder text = new StringBuilder(4096);
+        // Per character: left, top, right and bottom; NaN for separators
+        private float[] boxes = new float[4096 * 4];
+
+        void clear() {
+            text.setLength(0);
+        }
+
+        void append(TextPosition position) {
+            float left = position.getXDirAdj();
+            float bottom = position.getYDirAdj();
+            float top = bottom - position.getHeightDir();
+            float right = left + position.getWidthDirAdj();
+            // A glyph may map to several characters, e.g. a ligature, which then share its box
+            String unicode = position.getUnicode();
+            for (int i = 0; i < unicode.length(); i++) {
+                add(unicode.charAt(i), left, top, right, bottom);
+            }
+        }
+
+        void separator(char c) {
+            add(c, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+        }
+
+        private void add(char c, float left, float top, float right, float bottom) {
+            int index = text.length() * 4;
+            if (index + 4 > boxes.length) {
+                boxes = Arrays.copyOf(boxes, boxes.length * 2);
+            }
+            boxes[index] = left;
+            boxes[index + 1] = top;
+            boxes[index + 2] = right;
+            boxes[index + 3] = bottom;
+            text.append(c);
+        }
+
+        CharSequence text() {
+            return text;
+        }
+
+        int length() {
+            return text.length();
+        }
+
+        boolean hasBox(int index) {
+            return !Float.isNaN(boxes[index * 4]);
+        }
+
+        float left(int index) {
+            return boxes[index * 4];
+        }
+
+        float top(int index) {
+            return boxes[index * 4 + 1];
+        }
+
+        float right(int index) {
+            return boxes[index * 4 + 2];
+        }
+
+        float bottom(int index) {
+            return boxes[index * 4 + 3];
+        }
+    }
+}
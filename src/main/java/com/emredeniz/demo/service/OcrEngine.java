@@ -0,0 +1,18 @@
+package com.emredeniz.demo.service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Recognizes the text of a rendered page for the {@link OcrFallback}. Called from its OCR threads, by several at once
+ * if it runs more than one.
+ */
+public interface OcrEngine {
+
+    /**
+     * @param image The page, rendered in gray scale.
+     * @return The recognized text, empty if there is none.
+     * @throws IOException If the engine fails or is interrupted.
+     */
+    String recognize(BufferedImage image) throws IOException;
+}
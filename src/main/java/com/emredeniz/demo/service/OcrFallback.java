@@ -0,0 +1,272 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.util.IBANScanner;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes the text of pages that yield none, such as scanned invoices, so that they are matched like any other
+ * page instead of silently reporting no IBANs.
+ * <p>
+ * The scan's own thread, which owns the document, renders such a page in gray scale at {@code invoice.scanner.ocr.dpi}.
+ * The rendered image, one byte per pixel or about 8.7 MB for an A4 page at 300 DPI, is reserved against the parse heap
+ * budget of the {@link StageLimiter} until it is recognized. The {@link OcrEngine} then recognizes it on a separate
+ * pool of {@code invoice.scanner.ocr.threads} threads with a queue of {@code queue-capacity} pages. OCR takes seconds
+ * per page, and the bounded pool keeps it from taking the processors away from documents with text. A page whose image
+ * does not fit into the budget, that finds the queue full, fails, or is not recognized within {@code timeout} of
+ * starting, however long it waited in the queue, is left without text and counted in {@link ScanTrace#pagesNotRecognized()}, which is reported in the
+ * scan's result and keeps the scan out of the {@link ScanResultCache}. Recognized text is cached by the SHA-256 hash of the rendered image, so a page seen
+ * before is not recognized again even when the cache of whole documents is off. The IBANs in it are corrected for the
+ * characters OCR confuses, see {@link IBANScanner#ocrTolerant()}, before it is matched.
+ */
+@Service
+public class OcrFallback implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(OcrFallback.class);
+
+    private static final List<String> OUTCOMES = List.of("recognized", "cached", "rejected", "timeout", "failed");
+
+    @Value("${invoice.scanner.ocr.enabled:false}")
+    private boolean enabled;
+
+    @Value("${invoice.scanner.ocr.dpi:300}")
+    private int dpi = 300;
+
+    @Value("${invoice.scanner.ocr.threads:1}")
+    private int threads = 1;
+
+    @Value("${invoice.scanner.ocr.queue-capacity:32}")
+    private int queueCapacity = 32;
+
+    @Value("${invoice.scanner.ocr.timeout:30s}")
+    private Duration timeout = Duration.ofSeconds(30);
+
+    @Value("${invoice.scanner.ocr.cache.max-entries:10000}")
+    private long cacheMaxEntries = 10_000;
+
+    private final OcrEngine ocrEngine;
+    private final StageLimiter stageLimiter;
+    private final Map<String, Counter> pages = new HashMap<>();
+
+    private ThreadPoolExecutor executor;
+    private Cache<String, String> cache;
+
+    public OcrFallback(OcrEngine ocrEngine, StageLimiter stageLimiter) {
+        this.ocrEngine = ocrEngine;
+        this.stageLimiter = stageLimiter;
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxEntries)
+                .recordStats()
+                .build();
+        if (enabled) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                Thread thread = new Thread(runnable, "ocr-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            // Pages still queued are cancelled, so that their scans stop waiting for them
+            executor.shutdownNow().forEach(task -> ((Future<?>) task).cancel(false));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (String outcome : OUTCOMES) {
+            pages.put(outcome, Counter.builder("invoice.scan.ocr.pages")
+                    .description("Pages without text handed to OCR, by outcome")
+                    .tag("outcome", outcome)
+                    .register(registry));
+        }
+        CaffeineCacheMetrics.monitor(registry, cache, "ocr-pages");
+    }
+
+    /**
+     * Starts recognizing pages of a document.
+     *
+     * @param document The document, only used by the calling thread.
+     * @param trace    Counts the pages that could not be recognized.
+     * @return The session, or {@code null} if OCR is disabled.
+     */
+    Session session(PDDocument document, ScanTrace trace) {
+        return enabled ? new Session(document, trace) : null;
+    }
+
+    /**
+     * Replaces every IBAN in recognized text with its corrected form.
+     *
+     * @param text Text recognized from a page image.
+     * @return The text with each IBAN in compact, corrected form.
+     */
+    static String correctIBANs(CharSequence text) {
+        StringBuilder corrected = new StringBuilder(text.length());
+        int[] copied = {0};
+        IBANScanner.ocrTolerant().scan(text, (iban, length, start, end) -> {
+            corrected.append(text, copied[0], start).append(iban, 0, length);
+            copied[0] = end;
+            return true;
+        });
+        return corrected.append(text, copied[0], text.length()).toString();
+    }
+
+    // Returns null if the page could not be recognized
+    private String recognize(BufferedImage image) throws IOException {
+        String key = hash(image);
+        String text = cache.getIfPresent(key);
+        if (text != null) {
+            count("cached");
+            return text;
+        }
+
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> future;
+        try {
+            future = executor.submit(() -> {
+                started.countDown();
+                return ocrEngine.recognize(image);
+            });
+        } catch (RejectedExecutionException e) {
+            count("rejected");
+            return null;
+        }
+        try {
+            // The time spent in the queue does not count, every page ahead of this one is bounded by the timeout
+            while (!started.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                if (future.isDone()) {
+                    break;
+                }
+            }
+            text = correctIBANs(future.get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            count("timeout");
+            return null;
+        } catch (CancellationException e) {
+            count("rejected");
+            return null;
+        } catch (ExecutionException e) {
+            count("failed");
+            log.warn("OCR of a page failed: {}", e.getCause().toString());
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for OCR");
+        }
+        count("recognized");
+        cache.put(key, text);
+        return text;
+    }
+
+    private void count(String outcome) {
+        Counter counter = pages.get(outcome);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private static String hash(BufferedImage image) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        digest.update(ByteBuffer.allocate(8).putInt(image.getWidth()).putInt(image.getHeight()).flip());
+        digest.update(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Renders and recognizes pages of one document. Not thread-safe, it belongs to the thread that owns the document.
+     */
+    final class Session {
+
+        private final PDDocument document;
+        private final PDFRenderer renderer;
+        private final ScanTrace trace;
+
+        private Session(PDDocument document, ScanTrace trace) {
+            this.document = document;
+            this.renderer = new PDFRenderer(document);
+            this.trace = trace;
+        }
+
+        /**
+         * @param pageIndex The 0-based index of the page.
+         * @return The recognized text with corrected IBANs, empty if the page could not be recognized.
+         * @throws IOException If the page cannot be rendered or the thread is interrupted while waiting.
+         */
+        String recognize(int pageIndex) throws IOException {
+            String text;
+            try (StageLimiter.Permit reserved = stageLimiter.tryReserve(imageBytes(pageIndex))) {
+                if (reserved == null) {
+                    count("rejected");
+                    text = null;
+                } else {
+                    text = OcrFallback.this.recognize(renderer.renderImageWithDPI(pageIndex, dpi, ImageType.GRAY));
+                }
+            }
+            if (text == null) {
+                trace.pageNotRecognized();
+                return "";
+            }
+            return text;
+        }
+
+        // The size of the gray image the page is rendered to, one byte per pixel
+        private long imageBytes(int pageIndex) {
+            PDRectangle cropBox = document.getPage(pageIndex).getCropBox();
+            float scale = dpi / 72f;
+            return (long) Math.ceil(cropBox.getWidth() * scale) * (long) Math.ceil(cropBox.getHeight() * scale);
+        }
+    }
+}
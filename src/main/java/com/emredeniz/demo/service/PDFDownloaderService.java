@@ -1,35 +1,439 @@
 package com.emredeniz.demo.service;
 
+import com.emredeniz.demo.exception.PDFDownloadException;
+import com.emredeniz.demo.exception.PDFDownloadException.Reason;
+import com.emredeniz.demo.model.MemoryMode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class PDFDownloaderService {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${invoice.downloader.connect-timeout:5s}")
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    // Time until the response headers have arrived
+    @Value("${invoice.downloader.read-timeout:30s}")
+    private Duration readTimeout = Duration.ofSeconds(30);
+
+    // Time for the whole transfer, a stalled body is aborted after this
+    @Value("${invoice.downloader.transfer-timeout:2m}")
+    private Duration transferTimeout = Duration.ofMinutes(2);
+
+    @Value("${invoice.downloader.max-size:100MB}")
+    private DataSize maxSize = DataSize.ofMegabytes(100);
+
+    // PDFs up to this size stay in memory, larger ones are spooled to a temporary file
+    @Value("${invoice.downloader.memory-threshold:8MB}")
+    private DataSize memoryThreshold = DataSize.ofMegabytes(8);
+
+    // In AUTO memory mode, PDFs up to this size are parsed in MIXED mode and larger ones from a temporary file
+    @Value("${invoice.downloader.mixed-threshold:32MB}")
+    private DataSize mixedThreshold = DataSize.ofMegabytes(32);
+
+    // Heap that a document parsed in MIXED mode may use before PDFBox moves its streams to a scratch file
+    @Value("${invoice.downloader.mixed-max-main-memory:16MB}")
+    private DataSize mixedMaxMainMemory = DataSize.ofMegabytes(16);
+
+    // Largest PDF accepted as a request body
+    @Value("${invoice.upload.max-size:100MB}")
+    private DataSize uploadMaxSize = DataSize.ofMegabytes(100);
+
+    @Value("${invoice.downloader.max-concurrent-per-host:8}")
+    private int maxConcurrentPerHost = 8;
+
+    // How long a download waits for a free slot of its host before it is rejected
+    @Value("${invoice.downloader.host-acquire-timeout:10s}")
+    private Duration hostAcquireTimeout = Duration.ofSeconds(10);
+
+    // Whether requests are served on virtual threads, the download client then runs its tasks on them too
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Only hosts with a download in progress or waiting have an entry, so the map does not grow with every host seen
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+
+    // Shared client, keeps connections alive and reuses them across downloads
+    private HttpClient httpClient;
+
+    private ScheduledExecutorService watchdog;
+
+    @PostConstruct
+    public void init() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (virtualThreads) {
+            // The default executor is a cached pool that grows a platform thread per concurrent download
+            builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        httpClient = builder.build();
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-download-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
     public PDDocument downloadPDF(String url) throws IOException {
+        return downloadPDF(url, MemoryMode.AUTO);
+    }
+
+    /**
+     * Downloads and parses a PDF with the given memory mode.
+     *
+     * @param url        URL of the PDF file or a {@code classpath:} path.
+     * @param memoryMode Where to keep the document while it is parsed.
+     * @return The parsed document, to be closed by the caller.
+     * @throws IOException If the PDF cannot be downloaded or parsed.
+     */
+    public PDDocument downloadPDF(String url, MemoryMode memoryMode) throws IOException {
+        try (DownloadedPDF pdf = download(url, memoryMode)) {
+            return pdf.load();
+        }
+    }
+
+    public DownloadedPDF download(String url) throws IOException {
+        return download(url, MemoryMode.AUTO);
+    }
+
+    /**
+     * Downloads a PDF, keeping it in memory up to {@code invoice.downloader.memory-threshold} and spooling it to a
+     * temporary file beyond that. Remote downloads are limited in size, time and concurrency per host.
+     * In {@link MemoryMode#AUTO} the memory mode is picked from the size of the PDF.
+     *
+     * @param url        URL of the PDF file or a {@code classpath:} path.
+     * @param memoryMode Where to keep the document once it is parsed.
+     * @return The downloaded PDF, to be closed by the caller.
+     * @throws IOException If the PDF cannot be downloaded or exceeds {@code invoice.downloader.max-size}.
+     */
+    public DownloadedPDF download(String url, MemoryMode memoryMode) throws IOException {
         if (url.startsWith("classpath:")) {
             // Load from classpath (resources folder)
             String resourcePath = url.substring("classpath:".length());
             ClassPathResource resource = new ClassPathResource(resourcePath);
             if (!resource.exists()) {
-                throw new IOException("File not found in classpath: " + resourcePath);
+                throw new PDFDownloadException(Reason.NOT_FOUND, "File not found in classpath: " + resourcePath);
             }
             try (InputStream inputStream = resource.getInputStream()) {
-                return PDDocument.load(inputStream);
+                return spool(inputStream, "PDF at URL " + url, resource.contentLength(), maxSize, memoryMode);
+            }
+        }
+
+        // Load from external URL
+        URI uri = URI.create(url);
+        String host = uri.getHost() + ":" + uri.getPort();
+        HostPermits permits = hostPermits.compute(host, (key, held) -> {
+            HostPermits entry = held != null ? held : new HostPermits(maxConcurrentPerHost);
+            entry.users++;
+            return entry;
+        });
+        try {
+            try {
+                if (!permits.semaphore.tryAcquire(hostAcquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new PDFDownloadException(Reason.TOO_MANY_REQUESTS, "Too many concurrent downloads from host: " + uri.getHost());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PDFDownloadException(Reason.INTERRUPTED, "Interrupted while waiting to download PDF from URL: " + url, e);
+            }
+            try {
+                return fetch(uri, url, memoryMode);
+            } finally {
+                permits.semaphore.release();
+            }
+        } finally {
+            hostPermits.computeIfPresent(host, (key, held) -> --held.users == 0 ? null : held);
+        }
+    }
+
+    /**
+     * Receives a PDF uploaded as a request body. It is kept in memory or spooled to a temporary file just like a
+     * download, so it is never held as a whole in more than one buffer.
+     *
+     * @param inputStream   The request body, read to its end but not closed.
+     * @param contentLength The size announced by the client, or -1 if it is unknown.
+     * @param memoryMode    Where to keep the document once it is parsed.
+     * @return The received PDF, to be closed by the caller.
+     * @throws IOException If the body cannot be read or exceeds {@code invoice.upload.max-size}.
+     */
+    public DownloadedPDF receive(InputStream inputStream, long contentLength, MemoryMode memoryMode) throws IOException {
+        if (contentLength > uploadMaxSize.toBytes()) {
+            throw new PDFDownloadException(Reason.TOO_LARGE, "Uploaded PDF exceeds the maximum size of " + uploadMaxSize.toMegabytes() + " MB");
+        }
+        return spool(inputStream, "Uploaded PDF", contentLength, uploadMaxSize, memoryMode);
+    }
+
+    /**
+     * Receives a PDF uploaded as a multipart file. A file the servlet container kept in memory is copied like a
+     * request body; one it stored on disk, see {@code spring.servlet.multipart.file-size-threshold}, is moved to the
+     * temporary file of the PDF instead of being written a second time, and only read to compute its hash.
+     *
+     * @param file       The uploaded file.
+     * @param memoryMode Where to keep the document once it is parsed.
+     * @return The received PDF, to be closed by the caller.
+     * @throws IOException If the file cannot be read or exceeds {@code invoice.upload.max-size}.
+     */
+    public DownloadedPDF receive(MultipartFile file, MemoryMode memoryMode) throws IOException {
+        long size = file.getSize();
+        if (size > uploadMaxSize.toBytes()) {
+            throw new PDFDownloadException(Reason.TOO_LARGE, "Uploaded PDF exceeds the maximum size of " + uploadMaxSize.toMegabytes() + " MB");
+        }
+        if (size <= threshold(memoryMode, size, uploadMaxSize.toBytes())) {
+            try (InputStream inputStream = file.getInputStream()) {
+                return spool(inputStream, "Uploaded PDF", size, uploadMaxSize, memoryMode);
+            }
+        }
+
+        Path target = Files.createTempFile("invoice-", ".pdf");
+        try {
+            // Renames the container's file when it is on disk
+            file.transferTo(target);
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream inputStream = Files.newInputStream(target)) {
+                for (int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                }
             }
-        } else {
-            // Load from external URL
-            URI uri = URI.create(url);
-            URL urlObj = uri.toURL();
-            try (InputStream inputStream = urlObj.openStream()) {
-                return PDDocument.load(inputStream);
+            return DownloadedPDF.spooled(target, size, HexFormat.of().formatHex(digest.digest()),
+                    resolve(memoryMode, size), mixedMaxMainMemory.toBytes());
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
             }
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the size of a PDF without downloading it, from the classpath or a {@code HEAD} request.
+     *
+     * @param url URL of the PDF file or a {@code classpath:} path.
+     * @return The size in bytes, or -1 if it is unknown.
+     */
+    public long contentLength(String url) {
+        try {
+            if (url.startsWith("classpath:")) {
+                ClassPathResource resource = new ClassPathResource(url.substring("classpath:".length()));
+                return resource.exists() ? resource.contentLength() : -1;
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(connectTimeout)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2 ? response.headers().firstValueAsLong("Content-Length").orElse(-1) : -1;
+        } catch (IOException | IllegalArgumentException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private DownloadedPDF fetch(URI uri, String url, MemoryMode memoryMode) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(readTimeout).GET().build();
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (HttpTimeoutException e) {
+            throw new PDFDownloadException(Reason.TIMEOUT, "Timed out connecting to URL: " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PDFDownloadException(Reason.INTERRUPTED, "Interrupted while downloading PDF from URL: " + url, e);
+        }
+
+        try (InputStream body = response.body()) {
+            if (response.statusCode() / 100 != 2) {
+                throw new PDFDownloadException(Reason.HTTP_ERROR, "Failed to download PDF from URL: " + url + " (HTTP " + response.statusCode() + ")");
+            }
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (contentLength > maxSize.toBytes()) {
+                throw new PDFDownloadException(Reason.TOO_LARGE, "PDF at URL " + url + " exceeds the maximum size of " + maxSize.toMegabytes() + " MB");
+            }
+
+            // Closing the body from the watchdog ends a read that is stuck on a stalled connection
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> abort = watchdog.schedule(() -> {
+                timedOut.set(true);
+                body.close();
+                return null;
+            }, transferTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            DownloadedPDF pdf;
+            try {
+                pdf = spool(body, "PDF at URL " + url, contentLength, maxSize, memoryMode);
+            } catch (IOException e) {
+                throw timedOut.get() ? new PDFDownloadException(Reason.TIMEOUT, "Timed out downloading PDF from URL: " + url, e) : e;
+            } finally {
+                abort.cancel(false);
+            }
+            // A closed body may look like a regular end of stream, so a truncated download is only detected here
+            if (timedOut.get()) {
+                pdf.close();
+                throw new PDFDownloadException(Reason.TIMEOUT, "Timed out downloading PDF from URL: " + url);
+            }
+            return pdf;
+        }
+    }
+
+    /**
+     * Copies the stream into memory, switching over to a temporary file once it grows past the memory threshold.
+     * A PDF that is known to be large from its content length, or that is to be parsed from a temporary file anyway,
+     * goes to the file right away. The SHA-256 hash of the PDF is computed on the way.
+     *
+     * @param description Names the PDF in error messages.
+     */
+    private DownloadedPDF spool(InputStream inputStream, String description, long contentLength, DataSize maxSize,
+                                MemoryMode memoryMode) throws IOException {
+        long limit = maxSize.toBytes();
+        long threshold = threshold(memoryMode, contentLength, limit);
+        MessageDigest digest = sha256();
+
+        // Sized from the content length when it is known, so the bytes are neither copied to grow nor to trim the buffer.
+        // The length is only announced, so no more than the memory threshold is allocated before the bytes arrive;
+        // a larger body in MAIN_MEMORY mode grows the buffer as it is read.
+        SpoolBuffer memory = new SpoolBuffer(contentLength > 0 && contentLength <= threshold
+                ? (int) Math.min(contentLength, memoryThreshold.toBytes()) : BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        Path file = null;
+        OutputStream out = memory;
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                size += read;
+                if (size > limit) {
+                    throw new PDFDownloadException(Reason.TOO_LARGE, description + " exceeds the maximum size of " + maxSize.toMegabytes() + " MB");
+                }
+                if (file == null && size > threshold) {
+                    file = Files.createTempFile("invoice-", ".pdf");
+                    out = Files.newOutputStream(file);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+            }
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            // Also on a runtime failure of the stream, the partial file must not be left behind
+            try {
+                out.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        MemoryMode resolved = resolve(memoryMode, size);
+        long maxMainMemory = mixedMaxMainMemory.toBytes();
+        return file != null
+                ? DownloadedPDF.spooled(file, size, sha256, resolved, maxMainMemory)
+                : DownloadedPDF.inMemory(memory.bytes(), sha256, resolved, maxMainMemory);
+    }
+
+    /**
+     * @return The size up to which a PDF stays in memory while it is received, -1 if it goes to a file right away.
+     */
+    private long threshold(MemoryMode memoryMode, long contentLength, long limit) {
+        return switch (memoryMode) {
+            case MAIN_MEMORY -> limit;
+            case TEMP_FILE -> -1;
+            default -> contentLength > memoryThreshold.toBytes() ? -1 : memoryThreshold.toBytes();
+        };
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private MemoryMode resolve(MemoryMode memoryMode, long size) {
+        if (memoryMode != MemoryMode.AUTO) {
+            return memoryMode;
+        }
+        if (size <= memoryThreshold.toBytes()) {
+            return MemoryMode.MAIN_MEMORY;
+        }
+        return size <= mixedThreshold.toBytes() ? MemoryMode.MIXED : MemoryMode.TEMP_FILE;
+    }
+
+    /**
+     * Download slots of one host. The downloads holding or waiting for a slot are counted, always inside
+     * {@code compute} of the map, so the entry is removed once the last of them is done.
+     */
+    private static final class HostPermits {
+
+        final Semaphore semaphore;
+        int users;
+
+        HostPermits(int permits) {
+            semaphore = new Semaphore(permits);
+        }
+    }
+
+    /**
+     * Hands out its backing array without a copy when it is filled exactly, as it is when sized from the content length.
+     */
+    private static final class SpoolBuffer extends ByteArrayOutputStream {
+
+        SpoolBuffer(int size) {
+            super(size);
+        }
+
+        byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
         }
     }
 }
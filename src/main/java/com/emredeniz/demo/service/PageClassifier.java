@@ -0,0 +1,85 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+import java.io.IOException;
+
+/**
+ * Tells the pages that may contain text from those that cannot, such as scanned attachments and full-page images,
+ * before PDFBox processes them. Only the page resources are looked at, plus the content stream of pages that have
+ * both fonts and images, up to its first text object. This costs a fraction of extracting the page.
+ */
+final class PageClassifier {
+
+    // Nesting of form XObjects followed when looking for fonts; deeper forms are assumed to show text
+    private static final int MAX_FORM_DEPTH = 4;
+
+    private PageClassifier() {
+    }
+
+    /**
+     * @param page The page to classify.
+     * @return {@code false} if the page cannot show text: it has no font, or it has images but no text object.
+     */
+    static boolean mayHaveText(PDPage page) {
+        try {
+            PDResources resources = page.getResources();
+            if (resources == null) {
+                return false;
+            }
+            boolean images = false;
+            for (COSName name : resources.getXObjectNames()) {
+                if (resources.isImageXObject(name)) {
+                    images = true;
+                } else if (mayShowText(resources.getXObject(name), 1)) {
+                    // Text drawn by a form is not in the page content, so there is nothing more to look for
+                    return true;
+                }
+            }
+            if (!resources.getFontNames().iterator().hasNext()) {
+                return false; // Text cannot be shown without a font
+            }
+            // Scanned pages often inherit a font resource shared by all pages that they never use
+            return !images || hasTextObject(page);
+        } catch (IOException e) {
+            return true; // Leave broken resources to the text stripper, which is lenient about them
+        }
+    }
+
+    private static boolean mayShowText(PDXObject xObject, int depth) throws IOException {
+        if (!(xObject instanceof PDFormXObject form)) {
+            return false;
+        }
+        PDResources resources = form.getResources();
+        if (resources == null || depth >= MAX_FORM_DEPTH || resources.getFontNames().iterator().hasNext()) {
+            // Without resources of its own the form uses those of the page, which may have fonts
+            return true;
+        }
+        for (COSName name : resources.getXObjectNames()) {
+            if (!resources.isImageXObject(name) && mayShowText(resources.getXObject(name), depth + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasTextObject(PDPage page) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(page);
+        try {
+            for (Object token = parser.parseNextToken(); token != null; token = parser.parseNextToken()) {
+                if (token instanceof Operator operator && "BT".equals(operator.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Text stripper that hands the text of each page to a consumer as soon as the page is done,
+ * instead of collecting the whole document into one String. Time spent in the consumer is recorded as the
+ * {@link ScanTrace.Stage#MATCH} stage and excluded from {@link ScanTrace.Stage#EXTRACT}.
+ */
+class PageTextStripper extends ScanTextStripper {
+
+    /**
+     * Receives the text of each page.
+     */
+    @FunctionalInterface
+    interface PageConsumer {
+
+        /**
+         * @param pageNumber The 1-based page number.
+         * @param text       The text of the page, only valid for the duration of the call.
+         * @return {@code true} to continue with the next page, {@code false} to skip the remaining pages.
+         */
+        boolean accept(int pageNumber, CharSequence text);
+    }
+
+    // Receives the text of the current page only, reset after every page
+    private final StringWriter page = new StringWriter();
+    private final PageConsumer consumer;
+
+    PageTextStripper(PageConsumer consumer, ScanTrace trace) throws IOException {
+        super(trace);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Extracts the text of all pages in order, or until the consumer asks to stop.
+     *
+     * @param document The document to extract.
+     * @throws IOException If the document cannot be parsed.
+     */
+    void extract(PDDocument document) throws IOException {
+        extract(document, page);
+    }
+
+    @Override
+    protected void endPage(PDPage pdPage) throws IOException {
+        super.endPage(pdPage);
+        output.flush();
+        long start = System.nanoTime();
+        stopped = !consumer.accept(getCurrentPageNo(), page.getBuffer());
+        addNested(ScanTrace.Stage.MATCH, System.nanoTime() - start);
+        page.getBuffer().setLength(0);
+    }
+}
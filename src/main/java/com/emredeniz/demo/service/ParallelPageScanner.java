@@ -0,0 +1,286 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.util.BlacklistMatcher;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANScanner;
+import com.emredeniz.demo.util.IBANValidator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans large PDFs by splitting their pages into contiguous ranges that are extracted and matched concurrently.
+ * <p>
+ * A {@link PDDocument} must not be shared between threads, so every worker parses its own copy of the downloaded
+ * document; the calling thread works on the first range itself. IBANs wrapping across the border of two
+ * ranges are found by matching the tail of one range against the head of the next. Extraction is CPU bound, which
+ * is why the workers are a fixed pool of platform threads sized to the cores rather than virtual threads. Each copy
+ * reserves its estimated heap with the {@link StageLimiter}: the calling thread waits for the first one, further
+ * workers are only started for the copies that fit right away, so a busy server scans with fewer workers.
+ */
+@Service
+public class ParallelPageScanner {
+
+    private final IBANValidator ibanValidator;
+    private final SharedFontCache sharedFontCache;
+    private final StageLimiter stageLimiter;
+    private final OcrFallback ocrFallback;
+
+    // Number of threads extracting one document, 0 means one per available processor
+    @Value("${invoice.scanner.parallel.workers:0}")
+    private int workers;
+
+    // Documents are only split into ranges of at least this many pages
+    @Value("${invoice.scanner.parallel.min-pages-per-worker:8}")
+    private int minPagesPerWorker = 8;
+
+    // Whether pages that cannot contain text are skipped before extraction
+    @Value("${invoice.scanner.classify-pages:true}")
+    private boolean classifyPages = true;
+
+    private ExecutorService executor;
+
+    public ParallelPageScanner(IBANValidator ibanValidator, SharedFontCache sharedFontCache, StageLimiter stageLimiter,
+                               OcrFallback ocrFallback) {
+        this.ibanValidator = ibanValidator;
+        this.sharedFontCache = sharedFontCache;
+        this.stageLimiter = stageLimiter;
+        this.ocrFallback = ocrFallback;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, workers - 1), runnable -> {
+            Thread thread = new Thread(runnable, "pdf-extract-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Scans a PDF for blacklisted IBANs using up to the configured number of workers.
+     *
+     * @param pdf            The downloaded PDF.
+     * @param stopAtFirstHit Whether all workers should stop once a blacklisted IBAN is found.
+     * @param trace          Receives the time spent by all workers per stage.
+     * @return The blacklisted IBANs found, merged in page order.
+     * @throws IOException If the PDF cannot be parsed.
+     */
+    public ScanResult scan(DownloadedPDF pdf, boolean stopAtFirstHit, ScanTrace trace) throws IOException {
+        BlacklistSnapshot blacklist = ibanValidator.snapshot();
+        return scan(pdf, blacklist::contains, stopAtFirstHit, trace);
+    }
+
+    /**
+     * Collects every valid IBAN of a PDF regardless of the blacklist, using up to the configured number of workers.
+     *
+     * @param pdf   The downloaded PDF.
+     * @param trace Receives the time spent by all workers per stage.
+     * @return All valid IBANs found, by the page they start on.
+     * @throws IOException If the PDF cannot be parsed.
+     */
+    public ScanResult collectIBANs(DownloadedPDF pdf, ScanTrace trace) throws IOException {
+        return scan(pdf, (iban, length) -> true, false, trace);
+    }
+
+    private ScanResult scan(DownloadedPDF pdf, BlacklistMatcher.Filter filter, boolean stopAtFirstHit,
+                            ScanTrace trace) throws IOException {
+        AtomicBoolean stop = new AtomicBoolean();
+
+        try (StageLimiter.Permit permit = stageLimiter.parse(trace, pdf); PDDocument document = load(pdf, trace)) {
+            int pages = document.getNumberOfPages();
+            permit.pagesLoaded(pages);
+            int count = Math.max(1, Math.min(workers, pages / Math.max(1, minPagesPerWorker)));
+            count = 1 + permit.tryGrow(count - 1);
+
+            List<RangeWorker> ranges = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int startPage = 1 + (int) ((long) pages * i / count);
+                int endPage = (int) ((long) pages * (i + 1) / count);
+                ranges.add(new RangeWorker(filter, startPage, endPage, stopAtFirstHit, stop, trace));
+            }
+
+            List<Future<?>> futures = new ArrayList<>(count - 1);
+            for (RangeWorker range : ranges.subList(1, count)) {
+                futures.add(executor.submit(() -> {
+                    if (stop.get()) {
+                        return null; // The scan failed before this worker started
+                    }
+                    try (PDDocument copy = load(pdf, trace)) {
+                        range.extract(copy, ocrFallback.session(copy, trace), classifyPages);
+                    }
+                    return null;
+                }));
+            }
+            boolean extracted = false;
+            try {
+                ranges.get(0).extract(document, ocrFallback.session(document, trace), classifyPages);
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                extracted = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting PDF pages", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException("Failed to extract PDF pages", e.getCause());
+            } finally {
+                if (!extracted) {
+                    // PDFBox ignores interrupts, so the workers are stopped at their next page instead. Their copies
+                    // are covered by the parse permit, which must not be released before they are closed.
+                    stop.set(true);
+                    awaitAll(futures);
+                }
+            }
+
+            return merge(filter, ranges, stopAtFirstHit, trace);
+        }
+    }
+
+    /**
+     * Waits until every worker is done, whether it failed or not; an interrupt is kept for after the wait.
+     */
+    private static void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PDDocument load(DownloadedPDF pdf, ScanTrace trace) throws IOException {
+        PDDocument document = trace.time(ScanTrace.Stage.LOAD, pdf::load);
+        sharedFontCache.attach(document);
+        return document;
+    }
+
+    private static ScanResult merge(BlacklistMatcher.Filter filter, List<RangeWorker> ranges, boolean stopAtFirstHit,
+                                    ScanTrace trace) {
+        Map<Integer, Set<String>> pageHits = new TreeMap<>();
+        int pagesScanned = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            RangeWorker range = ranges.get(i);
+            addAll(pageHits, range.matcher.hitsByPage());
+            pagesScanned += range.matcher.pagesScanned();
+            trace.candidatesFound(range.matcher.candidates());
+
+            // IBANs wrapping from the last page of this range onto the first page of the next one
+            if (i + 1 < ranges.size() && range.matcher.tail().length() > 0 && ranges.get(i + 1).head != null) {
+                RangeWorker next = ranges.get(i + 1);
+                BlacklistMatcher border = new BlacklistMatcher(filter, false);
+                border.feedPage(range.matcher.tailPage(), range.matcher.tail());
+                border.feedPage(next.headPage, next.head);
+                addAll(pageHits, border.hitsByPage());
+                trace.candidatesFound(border.candidates());
+            }
+        }
+
+        if (stopAtFirstHit && !pageHits.isEmpty()) {
+            // Several workers may have hit at the same time, keep the first hit in page order
+            Map.Entry<Integer, Set<String>> first = pageHits.entrySet().iterator().next();
+            pageHits = Map.of(first.getKey(), Set.of(first.getValue().iterator().next()));
+        }
+
+        Set<String> hits = new LinkedHashSet<>();
+        pageHits.values().forEach(hits::addAll);
+        trace.pagesParsed(pagesScanned);
+        return new ScanResult(hits, pageHits, pagesScanned);
+    }
+
+    private static void addAll(Map<Integer, Set<String>> target, Map<Integer, Set<String>> source) {
+        source.forEach((page, hits) -> target.computeIfAbsent(page, key -> new LinkedHashSet<>()).addAll(hits));
+    }
+
+    /**
+     * Extracts and matches one contiguous range of pages.
+     */
+    private static final class RangeWorker {
+
+        private final BlacklistMatcher matcher;
+        private final int startPage;
+        private final int endPage;
+        private final AtomicBoolean stop;
+        private final ScanTrace trace;
+
+        // Beginning of the first page with text, needed to find IBANs wrapping in from the previous range
+        private int headPage;
+        private String head;
+
+        RangeWorker(BlacklistMatcher.Filter filter, int startPage, int endPage, boolean stopAtFirstHit, AtomicBoolean stop,
+                    ScanTrace trace) {
+            this.matcher = new BlacklistMatcher(filter, stopAtFirstHit);
+            this.startPage = startPage;
+            this.endPage = endPage;
+            this.stop = stop;
+            this.trace = trace;
+        }
+
+        void extract(PDDocument document, OcrFallback.Session ocr, boolean classifyPages) throws IOException {
+            PageTextStripper stripper = new PageTextStripper(this::accept, trace);
+            stripper.setClassifyPages(classifyPages);
+            stripper.setOcr(ocr);
+            stripper.setStartPage(startPage);
+            stripper.setEndPage(endPage);
+            stripper.extract(document);
+        }
+
+        private boolean accept(int page, CharSequence text) {
+            if (stop.get()) {
+                return false;
+            }
+            if (head == null) {
+                int start = 0;
+                while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                    start++;
+                }
+                if (start < text.length()) {
+                    headPage = page;
+                    head = text.subSequence(start, Math.min(text.length(), start + IBANScanner.MAX_IBAN_SPAN)).toString();
+                }
+            }
+            if (!matcher.feedPage(page, text)) {
+                stop.set(true);
+                return false;
+            }
+            return true;
+        }
+    }
+}
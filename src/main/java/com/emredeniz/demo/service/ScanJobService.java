@@ -0,0 +1,447 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.JobQueueFullException;
+import com.emredeniz.demo.model.JobLane;
+import com.emredeniz.demo.model.JobStatus;
+import com.emredeniz.demo.model.ScanJob;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs scans as asynchronous jobs: a submitted job is persisted, queued and picked up by a fixed pool of workers,
+ * while the client polls for the result or is called back once it is done.
+ * <p>
+ * Jobs wait in one of two bounded lanes chosen from the size of the PDF. Workers serve the small lane first and run at
+ * most {@code invoice.scanner.jobs.max-large-workers} large jobs at a time, so a few large invoices never occupy all
+ * workers; a large job that has waited longer than {@code invoice.scanner.jobs.large-max-wait} is served before small
+ * ones, so a steady stream of small invoices cannot starve it either.
+ * <p>
+ * The size is not known when a job is submitted: it is queued in the large lane, and moved to the small lane once a
+ * {@code HEAD} request in the background finds it small, unless a worker took it first. A submission is thus rejected
+ * when the large lane is full, with an estimate of when it is worth retrying, before any request leaves the service.
+ * <p>
+ * Only queued and running jobs are kept in memory. Finished jobs, results included, are read back from the
+ * {@link ScanJobStore} when they are polled.
+ */
+@Service
+public class ScanJobService implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(ScanJobService.class);
+
+    // Weight of the latest job in the moving average of the job duration per lane
+    private static final double DURATION_SMOOTHING = 0.2;
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+
+    private final InvoiceScannerService invoiceScannerService;
+    private final PDFDownloaderService pdfDownloaderService;
+    private final ScanJobStore scanJobStore;
+    private final ObjectMapper objectMapper;
+
+    // Number of jobs scanned at the same time, 0 means one per available processor
+    @Value("${invoice.scanner.jobs.workers:0}")
+    private int workers;
+
+    // Large jobs scanned at the same time, 0 means all workers but one
+    @Value("${invoice.scanner.jobs.max-large-workers:0}")
+    private int maxLargeWorkers;
+
+    // Jobs waiting per lane before submissions are rejected
+    @Value("${invoice.scanner.jobs.queue-capacity:1000}")
+    private int queueCapacity = 1000;
+
+    @Value("${invoice.scanner.jobs.small-threshold:4MB}")
+    private DataSize smallThreshold = DataSize.ofMegabytes(4);
+
+    @Value("${invoice.scanner.jobs.large-max-wait:30s}")
+    private Duration largeMaxWait = Duration.ofSeconds(30);
+
+    // Finished jobs can be polled for this long before they are deleted
+    @Value("${invoice.scanner.jobs.retention:24h}")
+    private Duration retention = Duration.ofHours(24);
+
+    @Value("${invoice.scanner.jobs.callback-timeout:10s}")
+    private Duration callbackTimeout = Duration.ofSeconds(10);
+
+    // Workers wait for downloads and parse permits most of the time, so they run on virtual threads when requests do
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Queued and running jobs, bounded by the lanes and the workers
+    private final Map<String, ScanJob> jobs = new ConcurrentHashMap<>();
+
+    // Guards the lanes, the number of running large jobs and the duration averages
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Map<JobLane, Deque<ScanJob>> lanes = new EnumMap<>(JobLane.class);
+    private final Map<JobLane, Double> averageSeconds = new EnumMap<>(JobLane.class);
+    private int runningLarge;
+
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private volatile boolean stopped;
+    private ScheduledExecutorService cleaner;
+    private ExecutorService classifier;
+    private HttpClient callbackClient;
+    private Counter rejected;
+
+    public ScanJobService(InvoiceScannerService invoiceScannerService, PDFDownloaderService pdfDownloaderService,
+                          ScanJobStore scanJobStore, ObjectMapper objectMapper) {
+        this.invoiceScannerService = invoiceScannerService;
+        this.pdfDownloaderService = pdfDownloaderService;
+        this.scanJobStore = scanJobStore;
+        this.objectMapper = objectMapper;
+        for (JobLane lane : JobLane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+            averageSeconds.put(lane, 1.0);
+        }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        if (maxLargeWorkers <= 0) {
+            maxLargeWorkers = Math.max(1, workers - 1);
+        }
+        callbackClient = HttpClient.newBuilder().connectTimeout(callbackTimeout).build();
+
+        // Jobs that were queued or running when the application stopped are queued again in submission order
+        List<ScanJob> stored = new ArrayList<>(scanJobStore.loadAll());
+        stored.sort(Comparator.comparing(ScanJob::submittedAt));
+        int resumed = 0;
+        for (ScanJob job : stored) {
+            if (!job.finished()) {
+                job = job.requeued();
+                scanJobStore.save(job);
+                lanes.get(job.lane()).add(job);
+                jobs.put(job.id(), job);
+                resumed++;
+            }
+        }
+        if (resumed > 0) {
+            log.info("Resumed {} queued scan jobs", resumed);
+        }
+
+        Thread.Builder builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        for (int i = 1; i <= workers; i++) {
+            workerThreads.add(builder.name("scan-job-" + i).start(this::work));
+        }
+        // HEAD requests mostly wait, as many run as there are workers to keep up with them
+        ThreadFactory classifierThreads = (virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon())
+                .name("scan-job-classifier-", 1).factory();
+        classifier = Executors.newFixedThreadPool(workers, classifierThreads);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scan-job-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.min(retention.toMillis(), Duration.ofHours(1).toMillis());
+        cleaner.scheduleWithFixedDelay(this::deleteExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the workers. Jobs they were scanning stay {@link JobStatus#RUNNING} in the store and are queued again on
+     * the next start.
+     */
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        workerThreads.forEach(Thread::interrupt);
+        classifier.shutdownNow();
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * Persists and queues a scan job in the large lane; the lane is corrected in the background once the size of the
+     * PDF is known.
+     *
+     * @param url         URL of the PDF file or a {@code classpath:} path.
+     * @param options     The options of the scan.
+     * @param callbackUrl Optional {@code http(s)} URL the finished job is posted to as JSON.
+     * @return The queued job.
+     * @throws JobQueueFullException If the large lane is full.
+     * @throws IOException           If the job cannot be persisted.
+     */
+    public ScanJob submit(String url, ScanOptions options, String callbackUrl) throws IOException {
+        if (callbackUrl != null && !callbackUrl.startsWith("http://") && !callbackUrl.startsWith("https://")) {
+            throw new IllegalArgumentException("The callback URL must be an http or https URL");
+        }
+        ScanJob job = ScanJob.queued(UUID.randomUUID().toString(), url, options, JobLane.LARGE, callbackUrl);
+
+        // Persisted before it is queued, so a job is never visible to a worker before it is stored, and without the
+        // lock, so concurrent submissions and the workers do not wait for the disk
+        scanJobStore.save(job);
+        Duration retryAfter = null;
+        lock.lock();
+        try {
+            Deque<ScanJob> queue = lanes.get(JobLane.LARGE);
+            if (queue.size() >= queueCapacity) {
+                retryAfter = retryAfter(JobLane.LARGE);
+            } else {
+                jobs.put(job.id(), job);
+                queue.add(job);
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (retryAfter != null) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            try {
+                scanJobStore.delete(job.id());
+            } catch (IOException e) {
+                log.warn("Failed to delete rejected scan job {}: {}", job.id(), e.getMessage());
+            }
+            throw new JobQueueFullException(JobLane.LARGE, retryAfter);
+        }
+        classifier.execute(() -> classify(job));
+        return job;
+    }
+
+    /**
+     * @return The latest state of the job, or {@code null} if it is unknown or expired.
+     */
+    public ScanJob get(String id) {
+        ScanJob job = jobs.get(id);
+        if (job != null) {
+            return job;
+        }
+        try {
+            // Only ids this service generated name a file of the store
+            UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // A job is stored finished before it leaves memory
+        return scanJobStore.load(id);
+    }
+
+    /**
+     * Moves a job that is still queued in the large lane to the small lane if its PDF is small and there is room.
+     */
+    private void classify(ScanJob job) {
+        long size = pdfDownloaderService.contentLength(job.url());
+        if (size < 0 || size > smallThreshold.toBytes()) {
+            return;
+        }
+        lock.lock();
+        try {
+            Deque<ScanJob> small = lanes.get(JobLane.SMALL);
+            if (small.size() >= queueCapacity || !lanes.get(JobLane.LARGE).remove(job)) {
+                return; // Taken by a worker already, or no room: it runs as a large job
+            }
+            ScanJob moved = job.inLane(JobLane.SMALL);
+            try {
+                scanJobStore.save(moved);
+            } catch (IOException e) {
+                log.warn("Failed to persist the lane of scan job {}: {}", job.id(), e.getMessage());
+            }
+            jobs.put(moved.id(), moved);
+            small.add(moved);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimates when the lane has room again from the number of queued jobs, their average duration and the number of
+     * workers that can serve the lane.
+     */
+    private Duration retryAfter(JobLane lane) {
+        int servers = lane == JobLane.SMALL ? workers : maxLargeWorkers;
+        double seconds = lanes.get(lane).size() * averageSeconds.get(lane) / servers;
+        return Duration.ofSeconds(Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(seconds))));
+    }
+
+    private void work() {
+        while (!stopped) {
+            ScanJob job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                run(job);
+            } finally {
+                release(job.lane(), (System.nanoTime() - start) / 1e9);
+            }
+        }
+    }
+
+    private ScanJob take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Deque<ScanJob> small = lanes.get(JobLane.SMALL);
+                Deque<ScanJob> large = lanes.get(JobLane.LARGE);
+                boolean largeAllowed = !large.isEmpty() && runningLarge < maxLargeWorkers;
+                if (largeAllowed && (small.isEmpty() || waitedTooLong(large.peek()))) {
+                    runningLarge++;
+                    return large.poll();
+                }
+                if (!small.isEmpty()) {
+                    return small.poll();
+                }
+                available.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean waitedTooLong(ScanJob job) {
+        return job.submittedAt().plus(largeMaxWait).isBefore(Instant.now());
+    }
+
+    private void release(JobLane lane, double seconds) {
+        lock.lock();
+        try {
+            averageSeconds.merge(lane, seconds, (average, latest) ->
+                    average + DURATION_SMOOTHING * (latest - average));
+            if (lane == JobLane.LARGE) {
+                runningLarge--;
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run(ScanJob job) {
+        ScanJob finished;
+        try {
+            ScanJob running = job.started();
+            update(running);
+            try {
+                ScanResult result = invoiceScannerService.scanInvoice(job.url(), job.options());
+                finished = running.done(result);
+            } catch (Exception e) {
+                if (stopped) {
+                    return; // Interrupted by the shutdown, the job is resumed on the next start
+                }
+                log.warn("Scan job {} for {} failed: {}", job.id(), job.url(), e.getMessage());
+                finished = running.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            }
+            update(finished);
+        } catch (UncheckedIOException e) {
+            log.error("Failed to persist scan job {}: {}", job.id(), e.getMessage(), e);
+            return;
+        }
+        if (finished.callbackUrl() != null) {
+            callback(finished);
+        }
+    }
+
+    private void update(ScanJob job) {
+        try {
+            scanJobStore.save(job);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (job.finished()) {
+            jobs.remove(job.id());
+        } else {
+            jobs.put(job.id(), job);
+        }
+    }
+
+    /**
+     * Posts the finished job to its callback URL. Delivery is best effort, the result can still be polled.
+     */
+    private void callback(ScanJob job) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(job.callbackUrl()))
+                    .timeout(callbackTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(job)))
+                    .build();
+            callbackClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null) {
+                    log.warn("Callback of scan job {} to {} failed: {}", job.id(), job.callbackUrl(), error.getMessage());
+                } else if (response.statusCode() / 100 != 2) {
+                    log.warn("Callback of scan job {} to {} returned HTTP {}", job.id(), job.callbackUrl(), response.statusCode());
+                }
+            });
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Callback of scan job {} to {} failed: {}", job.id(), job.callbackUrl(), e.getMessage());
+        }
+    }
+
+    // A finished job is last written when it finishes, and every job that is not in memory is finished
+    private void deleteExpired() {
+        try {
+            for (String id : scanJobStore.idsWrittenBefore(Instant.now().minus(retention))) {
+                if (!jobs.containsKey(id)) {
+                    scanJobStore.delete(id);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete expired scan jobs: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (JobLane lane : JobLane.values()) {
+            Gauge.builder("invoice.jobs.queued", this, service -> service.queued(lane))
+                    .description("Scan jobs waiting for a worker")
+                    .tag("lane", lane.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+        }
+        rejected = Counter.builder("invoice.jobs.rejected").description("Scan jobs rejected because their lane was full")
+                .register(registry);
+    }
+
+    private int queued(JobLane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.ScanJob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps scan jobs on the local file system, one JSON file per job, so that queued work survives a restart.
+ * <p>
+ * A job is written to a temporary file that is synced and then atomically renamed over the previous state, so a crash
+ * leaves either the old or the new state behind, never a torn file.
+ */
+@Component
+public class ScanJobStore {
+    private static final Logger log = LoggerFactory.getLogger(ScanJobStore.class);
+
+    private static final String SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${invoice.scanner.jobs.directory:data/jobs}")
+    private Path directory = Path.of("data", "jobs");
+
+    public ScanJobStore(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+    }
+
+    public void save(ScanJob job) throws IOException {
+        Path file = directory.resolve(job.id() + SUFFIX);
+        Path temp = directory.resolve(job.id() + SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(objectMapper.writeValueAsBytes(job));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return All stored jobs; files that cannot be read are logged and skipped.
+     */
+    public List<ScanJob> loadAll() throws IOException {
+        List<ScanJob> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    jobs.add(objectMapper.readValue(file.toFile(), ScanJob.class));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable scan job {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return The stored job, or {@code null} if there is none or it cannot be read.
+     */
+    public ScanJob load(String id) {
+        Path file = directory.resolve(id + SUFFIX);
+        try {
+            return objectMapper.readValue(file.toFile(), ScanJob.class);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Skipping unreadable scan job {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The ids of the jobs whose state was last written before the cutoff.
+     */
+    public List<String> idsWrittenBefore(Instant cutoff) throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoff)) {
+                    String name = file.getFileName().toString();
+                    ids.add(name.substring(0, name.length() - SUFFIX.length()));
+                }
+            }
+        }
+        return ids;
+    }
+
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(directory.resolve(id + SUFFIX));
+    }
+}
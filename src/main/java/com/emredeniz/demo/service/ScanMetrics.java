@@ -0,0 +1,88 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.PDFDownloadException;
+import com.emredeniz.demo.service.ScanTrace.Stage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the {@link ScanTrace} of every scan to Micrometer: a latency histogram per pipeline stage and for the
+ * whole scan, counters for what was downloaded, parsed and found, and failures by stage and cause.
+ */
+@Component
+public class ScanMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Timer successTimer;
+    private final Timer failureTimer;
+    private final Counter bytesDownloaded;
+    private final Counter pagesParsed;
+    private final Counter pagesSkipped;
+    private final Counter candidates;
+    private final Counter hits;
+
+    public ScanMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("invoice.scan.stage")
+                    .description("Time spent in one stage of an invoice scan")
+                    .tag("stage", stage.tag())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        successTimer = scanTimer("success");
+        failureTimer = scanTimer("failure");
+        bytesDownloaded = Counter.builder("invoice.download.bytes").baseUnit("bytes")
+                .description("Bytes of PDF downloaded or uploaded").register(registry);
+        pagesParsed = Counter.builder("invoice.pages.parsed").description("PDF pages extracted").register(registry);
+        pagesSkipped = Counter.builder("invoice.pages.skipped")
+                .description("PDF pages skipped because they cannot contain text").register(registry);
+        candidates = Counter.builder("invoice.iban.candidates").description("Valid IBANs found in invoices").register(registry);
+        hits = Counter.builder("invoice.iban.blacklist.hits").description("Blacklisted IBANs found in invoices").register(registry);
+    }
+
+    private Timer scanTimer(String outcome) {
+        return Timer.builder("invoice.scan")
+                .description("Duration of a whole invoice scan")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Records a finished scan.
+     *
+     * @param trace The trace of the scan.
+     */
+    public void record(ScanTrace trace) {
+        for (Stage stage : Stage.values()) {
+            if (trace.isRecorded(stage)) {
+                stageTimers.get(stage).record(trace.nanos(stage), TimeUnit.NANOSECONDS);
+            }
+        }
+        bytesDownloaded.increment(trace.bytesDownloaded());
+        pagesParsed.increment(trace.pagesParsed());
+        pagesSkipped.increment(trace.pagesSkipped());
+        candidates.increment(trace.candidates());
+
+        Throwable failure = trace.failure();
+        if (failure == null) {
+            hits.increment(trace.hits());
+            successTimer.record(trace.totalNanos(), TimeUnit.NANOSECONDS);
+            return;
+        }
+        failureTimer.record(trace.totalNanos(), TimeUnit.NANOSECONDS);
+        Stage stage = trace.failedStage();
+        registry.counter("invoice.scan.failures",
+                "stage", stage != null ? stage.tag() : "none",
+                "cause", failure instanceof PDFDownloadException download ? download.reason().tag() : failure.getClass().getSimpleName()
+        ).increment();
+    }
+}
@@ -0,0 +1,126 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.CacheStatus;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Caches the IBANs found in a PDF by the SHA-256 hash of its bytes.
+ * <p>
+ * The cache holds every valid IBAN of a document rather than the blacklisted ones, so a cached document is matched
+ * against the current blacklist on every lookup and a blacklist update never requires parsing it again. Entries are
+ * bounded by their estimated size on the heap and expire after a fixed time; eviction is Caffeine's W-TinyLFU, which
+ * keeps invoices that are re-submitted often over one-off scans. Hit, miss and eviction counts are published to
+ * Micrometer as the {@code scan-results} cache.
+ */
+@Service
+public class ScanResultCache implements MeterBinder {
+
+    // Rough heap cost of a map entry, a set and a String header
+    private static final int ENTRY_OVERHEAD = 64;
+
+    @Value("${invoice.scanner.cache.max-size:64MB}")
+    private DataSize maxSize = DataSize.ofMegabytes(64);
+
+    @Value("${invoice.scanner.cache.ttl:24h}")
+    private Duration ttl = Duration.ofHours(24);
+
+    private Cache<String, Candidates> cache;
+
+    /**
+     * All valid IBANs of a document by the page they start on.
+     */
+    public record Candidates(Map<Integer, Set<String>> ibansByPage, int pagesScanned) {
+
+        public Candidates {
+            ibansByPage = new TreeMap<>(ibansByPage); // Matched in page order
+        }
+
+        /**
+         * Matches the candidates against a blacklist.
+         *
+         * @param blacklist      The blacklist to match against.
+         * @param stopAtFirstHit Whether only the first blacklisted IBAN in page order should be reported.
+         * @return The blacklisted IBANs by the page they start on.
+         */
+        public ScanResult match(BlacklistSnapshot blacklist, boolean stopAtFirstHit) {
+            Set<String> hits = new LinkedHashSet<>();
+            Map<Integer, Set<String>> pageHits = new TreeMap<>();
+            for (Map.Entry<Integer, Set<String>> page : ibansByPage.entrySet()) {
+                for (String iban : page.getValue()) {
+                    if (blacklist.contains(iban.toCharArray(), iban.length())) {
+                        hits.add(iban);
+                        pageHits.computeIfAbsent(page.getKey(), key -> new LinkedHashSet<>()).add(iban);
+                        if (stopAtFirstHit) {
+                            return new ScanResult(hits, pageHits, page.getKey());
+                        }
+                    }
+                }
+            }
+            return new ScanResult(hits, pageHits, pagesScanned);
+        }
+
+        int weight() {
+            int weight = ENTRY_OVERHEAD;
+            for (Set<String> ibans : ibansByPage.values()) {
+                weight += ENTRY_OVERHEAD;
+                for (String iban : ibans) {
+                    weight += ENTRY_OVERHEAD + iban.length();
+                }
+            }
+            return weight;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String sha256, Candidates candidates) -> candidates.weight())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param sha256 The SHA-256 hash of the PDF.
+     * @return The cached candidates, or {@code null} if the PDF is not cached.
+     */
+    public Candidates get(String sha256) {
+        return cache.getIfPresent(sha256);
+    }
+
+    public void put(String sha256, Candidates candidates) {
+        cache.put(sha256, candidates);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "scan-results");
+    }
+
+    public CacheStatus status() {
+        CacheStats stats = cache.stats();
+        return new CacheStatus(cache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+}
@@ -0,0 +1,143 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Text stripper all scans extract with. Pages that cannot contain text are skipped before PDFBox processes them, see
+ * {@link PageClassifier}, unless classification is turned off, and the fonts a document borrowed from the {@link SharedFontCache} are returned once it has
+ * been extracted. With an {@link OcrFallback.Session}, skipped pages and pages that yield no text are recognized
+ * instead, and their text is written in place of the page's. Time spent classifying and recognizing pages, and in
+ * nested stages recorded by subclasses, is excluded from {@link ScanTrace.Stage#EXTRACT}.
+ */
+class ScanTextStripper extends PDFTextStripper {
+
+    protected final ScanTrace trace;
+    // Set by subclasses to skip the remaining pages
+    protected boolean stopped;
+    private long nestedNanos;
+    private int pagesSkipped;
+    private boolean classifyPages = true;
+    private OcrFallback.Session ocr;
+
+    ScanTextStripper(ScanTrace trace) throws IOException {
+        this.trace = trace;
+    }
+
+    /**
+     * Extracts the text of all pages in order, or until the stripper is stopped. The fonts the document borrowed are
+     * returned afterwards, also when the extraction fails.
+     *
+     * @param document The document to extract.
+     * @param output   Receives the text.
+     * @throws IOException If the document cannot be parsed.
+     */
+    void extract(PDDocument document, Writer output) throws IOException {
+        long nestedBefore = nestedNanos;
+        try {
+            trace.time(ScanTrace.Stage.EXTRACT, () -> {
+                writeText(document, output);
+                return null;
+            });
+        } finally {
+            SharedFontCache.release(document);
+        }
+        trace.add(ScanTrace.Stage.EXTRACT, nestedBefore - nestedNanos);
+    }
+
+    /**
+     * Records time spent during extraction in a nested stage.
+     */
+    protected void addNested(ScanTrace.Stage stage, long nanos) {
+        nestedNanos += nanos;
+        trace.add(stage, nanos);
+    }
+
+    /**
+     * @param classifyPages Whether pages that cannot contain text are told apart before PDFBox processes them, see
+     *                      {@code invoice.scanner.classify-pages}; {@code true} by default.
+     */
+    void setClassifyPages(boolean classifyPages) {
+        this.classifyPages = classifyPages;
+    }
+
+    /**
+     * @param ocr Recognizes the pages without text, {@code null} to skip them.
+     */
+    void setOcr(OcrFallback.Session ocr) {
+        this.ocr = ocr;
+    }
+
+    /**
+     * @return The pages skipped because they cannot contain text.
+     */
+    int pagesSkipped() {
+        return pagesSkipped;
+    }
+
+    @Override
+    public void processPage(PDPage pdPage) throws IOException {
+        if (stopped) {
+            return;
+        }
+        // Pages outside the range are passed on for PDFTextStripper to ignore
+        if (classifyPages && getCurrentPageNo() >= getStartPage() && getCurrentPageNo() <= getEndPage()) {
+            long start = System.nanoTime();
+            boolean mayHaveText = PageClassifier.mayHaveText(pdPage);
+            addNested(ScanTrace.Stage.CLASSIFY, System.nanoTime() - start);
+            if (!mayHaveText && ocr != null) {
+                // Same sequence as a page PDFBox extracts, so subclasses see the recognized text like any other
+                startPage(pdPage);
+                writeRecognizedPage();
+                endPage(pdPage);
+                return;
+            }
+            if (!mayHaveText) {
+                pagesSkipped++;
+                return;
+            }
+        }
+        super.processPage(pdPage);
+    }
+
+    @Override
+    protected void writePage() throws IOException {
+        if (ocr != null && !hasText()) {
+            writeRecognizedPage();
+        } else {
+            super.writePage();
+        }
+    }
+
+    private boolean hasText() {
+        for (List<TextPosition> article : charactersByArticle) {
+            for (TextPosition position : article) {
+                if (!position.getUnicode().isBlank()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeRecognizedPage() throws IOException {
+        long start = System.nanoTime();
+        String text = ocr.recognize(getCurrentPageNo() - 1);
+        addNested(ScanTrace.Stage.OCR, System.nanoTime() - start);
+        writePageStart();
+        writeString(text);
+        writePageEnd();
+    }
+
+    @Override
+    protected void endDocument(PDDocument document) throws IOException {
+        super.endDocument(document);
+        trace.pagesSkipped(pagesSkipped);
+    }
+}
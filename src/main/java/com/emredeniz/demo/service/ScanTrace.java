@@ -0,0 +1,190 @@
+package com.emredeniz.demo.service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each stage of a single scan, plus what the scan downloaded and found.
+ * <p>
+ * Stages may be recorded from several threads at once. In PARALLEL mode the time of a stage is summed over all
+ * workers and can therefore exceed the duration of the whole scan. A trace is reported to {@link ScanMetrics} once
+ * the scan is done and can be returned to the client as a timing breakdown.
+ */
+public final class ScanTrace {
+
+    public enum Stage {
+        QUEUE,
+        UPLOAD,
+        DOWNLOAD,
+        CACHE,
+        LOAD,
+        CLASSIFY,
+        OCR,
+        EXTRACT,
+        MATCH;
+
+        public String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Work done within one stage.
+     */
+    @FunctionalInterface
+    public interface StageAction<T> {
+        T run() throws IOException;
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    // Bit per stage that was entered at least once
+    private final AtomicInteger recordedStages = new AtomicInteger();
+
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong pagesParsed = new AtomicLong();
+    private final AtomicLong pagesSkipped = new AtomicLong();
+    private final AtomicLong pagesNotRecognized = new AtomicLong();
+    private final AtomicLong candidates = new AtomicLong();
+
+    private volatile long totalNanos = -1;
+    private volatile int hits;
+    private volatile Stage failedStage;
+    private volatile Throwable failure;
+
+    /**
+     * Runs an action and adds its duration to a stage. If it fails, the stage is remembered as the one the scan
+     * failed in.
+     */
+    public <T> T time(Stage stage, StageAction<T> action) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return action.run();
+        } catch (IOException | RuntimeException e) {
+            if (failedStage == null) {
+                failedStage = stage;
+            }
+            throw e;
+        } finally {
+            add(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds time to a stage; a negative value moves time recorded for an enclosing stage to a nested one.
+     */
+    public void add(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+        recordedStages.getAndUpdate(bits -> bits | 1 << stage.ordinal());
+    }
+
+    public void downloaded(long bytes) {
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    public void pagesParsed(int pages) {
+        pagesParsed.addAndGet(pages);
+    }
+
+    /**
+     * Counts pages that were not extracted because they cannot contain text.
+     */
+    public void pagesSkipped(int pages) {
+        pagesSkipped.addAndGet(pages);
+    }
+
+    /**
+     * Counts pages without text that OCR could not recognize, so the scan did not see all of the document.
+     */
+    public void pageNotRecognized() {
+        pagesNotRecognized.incrementAndGet();
+    }
+
+    public void candidatesFound(int count) {
+        candidates.addAndGet(count);
+    }
+
+    void finish(int hits) {
+        this.hits = hits;
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    void fail(Throwable failure) {
+        this.failure = failure;
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public boolean isRecorded(Stage stage) {
+        return (recordedStages.get() & 1 << stage.ordinal()) != 0;
+    }
+
+    public long nanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    /**
+     * @return The duration of the whole scan, or the time elapsed so far if it is still running.
+     */
+    public long totalNanos() {
+        long total = totalNanos;
+        return total >= 0 ? total : System.nanoTime() - startNanos;
+    }
+
+    public long bytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    public long pagesParsed() {
+        return pagesParsed.get();
+    }
+
+    public long pagesSkipped() {
+        return pagesSkipped.get();
+    }
+
+    public long pagesNotRecognized() {
+        return pagesNotRecognized.get();
+    }
+
+    public long candidates() {
+        return candidates.get();
+    }
+
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * @return The stage the scan failed in, or {@code null} if it did not fail within a stage.
+     */
+    public Stage failedStage() {
+        return failedStage;
+    }
+
+    public Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * @return Milliseconds per recorded stage in pipeline order, followed by the {@code total}.
+     */
+    public Map<String, Double> timingsMillis() {
+        Map<String, Double> timings = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            if (isRecorded(stage)) {
+                timings.put(stage.tag(), millis(nanos(stage)));
+            }
+        }
+        timings.put("total", millis(totalNanos()));
+        return timings;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
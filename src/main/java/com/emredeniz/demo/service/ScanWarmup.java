@@ -0,0 +1,48 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.ScanOptions;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Scans a sample invoice once while the application starts, so that the download, PDFBox and matching code is loaded
+ * before the first request rather than while serving it. The application only accepts requests once the scan is done.
+ * The Docker build enables it for the training run that records the class data sharing archive, which therefore
+ * includes the PDFBox classes. The scan is published to the metrics like any other.
+ */
+@Component
+public class ScanWarmup {
+    private static final Logger log = LoggerFactory.getLogger(ScanWarmup.class);
+
+    private final InvoiceScannerService invoiceScannerService;
+
+    @Value("${invoice.scanner.warmup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${invoice.scanner.warmup.url:classpath:samples/example_invoice.pdf}")
+    private String url = "classpath:samples/example_invoice.pdf";
+
+    public ScanWarmup(InvoiceScannerService invoiceScannerService) {
+        this.invoiceScannerService = invoiceScannerService;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            invoiceScannerService.scanInvoice(url, new ScanOptions(null, false));
+            log.info("Warm-up scan of {} took {} ms", url, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            // A failed warm-up only means the first request is slower
+            log.warn("Warm-up scan of {} failed: {}", url, e.getMessage());
+        }
+    }
+}
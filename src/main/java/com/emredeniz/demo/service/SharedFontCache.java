@@ -0,0 +1,264 @@
+package com.emredeniz.demo.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the fonts parsed by PDFBox across scans, so invoices produced by the same generator do not parse the same
+ * embedded fonts again and again.
+ * <p>
+ * PDFBox caches resources per document only, by the object that references them. Here fonts are keyed by a SHA-256
+ * fingerprint of their content instead: the font dictionary with everything it references, including the raw bytes
+ * of the font program. Parsed fonts keep internal caches that are not thread-safe, so a document borrows a font
+ * exclusively and returns it, together with the fonts it parsed itself, once it has been extracted. Two documents
+ * needing the same font at the same time each get their own. Type 3 fonts draw their glyphs from content streams of
+ * the document and are never shared. The cache is bounded by the estimated size of the fonts and published to
+ * Micrometer as the {@code pdf-fonts} cache.
+ */
+@Service
+public class SharedFontCache implements MeterBinder {
+
+    // Rough heap cost of a parsed font per byte of its compressed font program, plus its fixed cost
+    private static final int WEIGHT_PER_STREAM_BYTE = 4;
+    private static final int ENTRY_OVERHEAD = 4096;
+    // A font, its descendant, descriptor and font program nest a few levels deep at most
+    private static final int MAX_DEPTH = 8;
+
+    @Value("${invoice.scanner.font-cache.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${invoice.scanner.font-cache.max-size:32MB}")
+    private DataSize maxSize = DataSize.ofMegabytes(32);
+
+    private Cache<String, SharedFont> cache;
+
+    private record SharedFont(PDFont font, int weight) {}
+
+    private record Fingerprint(String key, int weight) {}
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String key, SharedFont font) -> font.weight())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Lets a freshly loaded document borrow fonts from the cache. Must be called before its pages are accessed.
+     *
+     * @param document The document.
+     */
+    public void attach(PDDocument document) {
+        if (enabled) {
+            document.setResourceCache(new Lease());
+        }
+    }
+
+    /**
+     * Returns the fonts borrowed and parsed by a document to the cache. Fonts the document needs afterwards are
+     * parsed again.
+     *
+     * @param document The document, with or without fonts from the cache.
+     */
+    public static void release(PDDocument document) {
+        if (document.getResourceCache() instanceof Lease lease) {
+            lease.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "pdf-fonts");
+    }
+
+    /**
+     * Resource cache of one document: fonts that can be shared are borrowed from and returned to the shared cache,
+     * all other resources are cached per document as PDFBox does by default.
+     */
+    private final class Lease extends DefaultResourceCache {
+
+        // Null for fonts that are not shared
+        private final Map<COSObject, Fingerprint> fingerprints = new HashMap<>();
+        private final Map<String, SharedFont> fonts = new HashMap<>();
+        private boolean released;
+
+        @Override
+        public PDFont getFont(COSObject indirect) throws IOException {
+            Fingerprint fingerprint = released ? null : fingerprint(indirect);
+            if (fingerprint == null) {
+                return super.getFont(indirect);
+            }
+            SharedFont font = fonts.get(fingerprint.key());
+            if (font == null) {
+                font = cache.getIfPresent(fingerprint.key());
+                // Another document may have borrowed it in the meantime
+                if (font == null || !cache.asMap().remove(fingerprint.key(), font)) {
+                    return null;
+                }
+                fonts.put(fingerprint.key(), font);
+            }
+            return font.font();
+        }
+
+        @Override
+        public void put(COSObject indirect, PDFont font) throws IOException {
+            Fingerprint fingerprint = released ? null : fingerprints.get(indirect);
+            if (fingerprint == null || font == null || font instanceof PDType3Font) {
+                super.put(indirect, font);
+                return;
+            }
+            fonts.put(fingerprint.key(), new SharedFont(font, fingerprint.weight()));
+        }
+
+        void release() {
+            released = true;
+            fonts.forEach(cache::put);
+            fonts.clear();
+            fingerprints.clear();
+        }
+
+        private Fingerprint fingerprint(COSObject indirect) throws IOException {
+            if (fingerprints.containsKey(indirect)) {
+                return fingerprints.get(indirect);
+            }
+            Fingerprint fingerprint = null;
+            if (indirect.getObject() instanceof COSDictionary font
+                    && !COSName.TYPE3.equals(font.getCOSName(COSName.SUBTYPE))) {
+                fingerprint = new Fingerprinter().fingerprint(font);
+            }
+            fingerprints.put(indirect, fingerprint);
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Digests a COS object graph, so that two graphs with the same content have the same fingerprint no matter which
+     * document they come from or in which order their dictionary entries are stored.
+     */
+    private static final class Fingerprinter {
+
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[8192];
+        private final ByteBuffer scalar = ByteBuffer.allocate(Character.BYTES + Long.BYTES);
+        private long streamBytes;
+
+        Fingerprinter() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        /**
+         * @return The fingerprint of the font, or {@code null} if it nests too deep to be shared.
+         */
+        Fingerprint fingerprint(COSDictionary font) throws IOException {
+            if (!add(font, 0)) {
+                return null;
+            }
+            long weight = ENTRY_OVERHEAD + streamBytes * WEIGHT_PER_STREAM_BYTE;
+            return new Fingerprint(HexFormat.of().formatHex(digest.digest()), (int) Math.min(Integer.MAX_VALUE, weight));
+        }
+
+        private boolean add(COSBase base, int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                return false;
+            }
+            if (base instanceof COSObject object) {
+                return add(object.getObject(), depth);
+            }
+            if (base instanceof COSDictionary dictionary) {
+                tag(dictionary instanceof COSStream ? 'S' : 'D', dictionary.size());
+                List<COSName> keys = new ArrayList<>(dictionary.keySet());
+                keys.sort(Comparator.comparing(COSName::getName));
+                for (COSName key : keys) {
+                    add(key, depth);
+                    if (!add(dictionary.getItem(key), depth + 1)) {
+                        return false;
+                    }
+                }
+                if (dictionary instanceof COSStream stream) {
+                    addRawData(stream);
+                }
+            } else if (base instanceof COSArray array) {
+                tag('A', array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    if (!add(array.get(i), depth + 1)) {
+                        return false;
+                    }
+                }
+            } else if (base instanceof COSName name) {
+                addBytes('N', name.getName().getBytes(StandardCharsets.UTF_8));
+            } else if (base instanceof COSString string) {
+                addBytes('T', string.getBytes());
+            } else if (base instanceof COSInteger integer) {
+                tag('I', integer.longValue());
+            } else if (base instanceof COSFloat number) {
+                tag('F', Float.floatToIntBits(number.floatValue()));
+            } else if (base instanceof COSBoolean bool) {
+                tag('B', bool.getValue() ? 1 : 0);
+            } else {
+                tag('0', 0); // Null or a missing object
+            }
+            return true;
+        }
+
+        private void addRawData(COSStream stream) throws IOException {
+            // The encoded bytes and the filters already digested identify the decoded content
+            tag('R', stream.getLength());
+            try (InputStream data = stream.createRawInputStream()) {
+                for (int read = data.read(buffer); read != -1; read = data.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                    streamBytes += read;
+                }
+            }
+        }
+
+        private void addBytes(char type, byte[] bytes) {
+            tag(type, bytes.length);
+            digest.update(bytes);
+        }
+
+        private void tag(char type, long value) {
+            scalar.clear();
+            digest.update(scalar.putChar(type).putLong(value).array());
+        }
+    }
+}
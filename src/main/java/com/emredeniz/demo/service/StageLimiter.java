@@ -0,0 +1,314 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.ScanCapacityException;
+import com.emredeniz.demo.service.ScanTrace.Stage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Bounds the scans in the memory hungry stages of the pipeline, so that serving requests on virtual threads cannot
+ * start an unbounded number of downloads and parses at once and run out of heap.
+ * <p>
+ * A transfer, a download or an upload, holds up to {@code invoice.downloader.memory-threshold} on the heap before it
+ * spills to a temporary file, so transfers are limited by count; unless set explicitly, the transfer permits are sized
+ * to a quarter of the maximum heap.
+ * <p>
+ * Parses are limited by memory instead: every open document reserves its estimated heap, see
+ * {@link #parseEstimate(DownloadedPDF, int)}, against a budget of {@code invoice.scanner.limits.parse-heap-share} of
+ * the maximum heap, and releases it when it is closed. The estimate is made from the size of the PDF before it is
+ * loaded and refined with its page count once it is; a document larger than the whole budget waits until it can be
+ * parsed alone. Waiting parses are admitted in order, so small documents cannot starve a large one.
+ * <p>
+ * A scan waits for its permit up to {@code invoice.scanner.limits.acquire-timeout}, recorded as the {@code queue}
+ * stage, and is rejected with a {@link ScanCapacityException} after that.
+ */
+@Component
+public class StageLimiter implements MeterBinder {
+
+    // Concurrent downloads and uploads, 0 means sized to the heap
+    @Value("${invoice.scanner.limits.max-concurrent-transfers:0}")
+    private int maxConcurrentTransfers;
+
+    // Share of the maximum heap that open documents may reserve together
+    @Value("${invoice.scanner.limits.parse-heap-share:0.5}")
+    private double parseHeapShare = 0.5;
+
+    // Estimated heap of a parse: a fixed part, a multiple of the PDF bytes parsed from the heap and a part per page
+    @Value("${invoice.scanner.limits.parse-heap-base:4MB}")
+    private DataSize parseHeapBase = DataSize.ofMegabytes(4);
+
+    @Value("${invoice.scanner.limits.parse-heap-per-pdf-byte:3}")
+    private double parseHeapPerPdfByte = 3;
+
+    @Value("${invoice.scanner.limits.parse-heap-per-page:8KB}")
+    private DataSize parseHeapPerPage = DataSize.ofKilobytes(8);
+
+    @Value("${invoice.downloader.memory-threshold:8MB}")
+    private DataSize memoryThreshold = DataSize.ofMegabytes(8);
+
+    @Value("${invoice.scanner.limits.acquire-timeout:30s}")
+    private Duration acquireTimeout = Duration.ofSeconds(30);
+
+    private Limit transfers;
+    // Permits of one KB each
+    private Limit parses;
+    private Counter overcommitted;
+
+    @PostConstruct
+    public void init() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        transfers = new Limit("transfer", maxConcurrentTransfers > 0
+                ? maxConcurrentTransfers : permits(maxHeap / 4, memoryThreshold), false);
+        long parseBudget = Math.round(maxHeap * parseHeapShare) >> 10;
+        parses = new Limit("parse", (int) Math.max(1, Math.min(Integer.MAX_VALUE, parseBudget)), true);
+    }
+
+    private static int permits(long heap, DataSize perPermit) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, heap / Math.max(1, perPermit.toBytes())));
+    }
+
+    /**
+     * Waits for a slot to download or receive a PDF.
+     *
+     * @param trace Receives the time spent waiting.
+     * @return The permit, to be closed once the PDF is in memory or in its temporary file.
+     * @throws ScanCapacityException If no slot became free within the acquire timeout.
+     * @throws IOException           If the thread is interrupted while waiting.
+     */
+    public Permit transfer(ScanTrace trace) throws IOException {
+        return transfers.acquire(trace, 1, null);
+    }
+
+    /**
+     * Waits until the estimated heap of parsing a PDF can be reserved. The page count is not known yet, pass it to
+     * {@link Permit#pagesLoaded(int)} once the document is loaded.
+     *
+     * @param trace Receives the time spent waiting.
+     * @param pdf   The PDF about to be parsed.
+     * @return The permit, to be closed once the document is closed.
+     * @throws ScanCapacityException If the heap could not be reserved within the acquire timeout.
+     * @throws IOException           If the thread is interrupted while waiting.
+     */
+    public Permit parse(ScanTrace trace, DownloadedPDF pdf) throws IOException {
+        return parses.acquire(trace, kilobytes(parseEstimate(pdf, 0)), pages -> kilobytes(parseEstimate(pdf, pages)));
+    }
+
+    /**
+     * Reserves heap against the parse budget for memory a parse holds besides its document, such as a page rendered
+     * for OCR, if it is free right away. Never waits, since the scan already holds its parse permit.
+     *
+     * @param bytes The heap to reserve.
+     * @return The reservation, to be closed once the memory is no longer held, or {@code null} if not enough is free.
+     */
+    public Permit tryReserve(long bytes) {
+        int permits = kilobytes(bytes);
+        return parses.semaphore.tryAcquire(permits) ? new Permit(parses, permits, null, false) : null;
+    }
+
+    /**
+     * Estimates the heap a parse of a PDF holds until the document is closed: the document structure, the shared
+     * parts of the text extraction, the PDF bytes parsed from the heap (all of them for a PDF held in memory, up to
+     * the main memory share of {@code MIXED} and nothing for {@code TEMP_FILE} if it is spooled) and the objects of
+     * its pages.
+     *
+     * @param pdf   The PDF.
+     * @param pages Its number of pages, 0 if not known yet.
+     * @return The estimate in bytes.
+     */
+    long parseEstimate(DownloadedPDF pdf, int pages) {
+        return parseHeapBase.toBytes() + (long) (pdf.heapBytes() * parseHeapPerPdfByte) + pages * parseHeapPerPage.toBytes();
+    }
+
+    // A document larger than the whole budget waits until it can be parsed alone
+    private int kilobytes(long bytes) {
+        return (int) Math.max(1, Math.min(parses.max, (bytes + 1023) >> 10));
+    }
+
+    public int maxConcurrentTransfers() {
+        return transfers.max;
+    }
+
+    /**
+     * @return The heap open documents may reserve together, in bytes.
+     */
+    public long parseBudget() {
+        return (long) parses.max << 10;
+    }
+
+    /**
+     * @return The heap currently reserved by open documents, in bytes.
+     */
+    public long parseReserved() {
+        return (long) (parses.max - parses.semaphore.availablePermits()) << 10;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Limit limit : List.of(transfers, parses)) {
+            Gauge.builder("invoice.scan.permits.active", limit.active, AtomicInteger::get)
+                    .description("Scans holding a permit of the stage")
+                    .tag("stage", limit.stage)
+                    .register(registry);
+            Gauge.builder("invoice.scan.permits.waiting", limit.waiting, AtomicInteger::get)
+                    .description("Scans waiting for a permit of the stage")
+                    .tag("stage", limit.stage)
+                    .register(registry);
+            limit.rejected = Counter.builder("invoice.scan.permits.rejected")
+                    .description("Scans rejected because no permit of the stage became free in time")
+                    .tag("stage", limit.stage)
+                    .register(registry);
+        }
+        Gauge.builder("invoice.scan.permits.max", transfers, l -> l.max)
+                .description("Permits of the stage")
+                .tag("stage", transfers.stage)
+                .register(registry);
+        Gauge.builder("invoice.scan.memory.reserved", this, StageLimiter::parseReserved)
+                .description("Estimated heap reserved by open documents")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("invoice.scan.memory.budget", this, StageLimiter::parseBudget)
+                .description("Heap open documents may reserve together")
+                .baseUnit("bytes")
+                .register(registry);
+        overcommitted = Counter.builder("invoice.scan.memory.overcommitted")
+                .description("Scans whose estimate grew with their page count beyond what was free, and went ahead")
+                .register(registry);
+    }
+
+    /**
+     * Permits of one stage.
+     */
+    private final class Limit {
+
+        private final String stage;
+        private final int max;
+        private final Semaphore semaphore;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private Counter rejected;
+
+        Limit(String stage, int max, boolean fair) {
+            this.stage = stage;
+            this.max = max;
+            this.semaphore = new Semaphore(max, fair);
+        }
+
+        Permit acquire(ScanTrace trace, int permits, IntUnaryOperator permitsForPages) throws IOException {
+            return trace.time(Stage.QUEUE, () -> {
+                try {
+                    // Unlike tryAcquire(), a timed attempt does not jump ahead of waiting scans on a fair semaphore
+                    if (!semaphore.tryAcquire(permits, 0, TimeUnit.MILLISECONDS)) {
+                        waiting.incrementAndGet();
+                        try {
+                            if (!semaphore.tryAcquire(permits, acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                                if (rejected != null) {
+                                    rejected.increment();
+                                }
+                                throw new ScanCapacityException(stage, acquireTimeout.compareTo(Duration.ofSeconds(1)) < 0
+                                        ? Duration.ofSeconds(1) : acquireTimeout);
+                            }
+                        } finally {
+                            waiting.decrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a " + stage + " permit");
+                }
+                active.incrementAndGet();
+                return new Permit(this, permits, permitsForPages, true);
+            });
+        }
+
+        void overcommitted() {
+            if (overcommitted != null) {
+                overcommitted.increment();
+            }
+        }
+    }
+
+    /**
+     * Permits held by one scan, released together when it is closed. A scan may hold several copies of its document,
+     * each holding the same number of permits. Not thread-safe, it belongs to the thread that acquired it.
+     */
+    public static final class Permit implements AutoCloseable {
+
+        private final Limit limit;
+        // Permits per copy for a page count, null if they do not depend on it
+        private final IntUnaryOperator permitsForPages;
+        // Whether it counts as a scan in the stage, a reservation of a scan that already does is not
+        private final boolean active;
+        private int permits;
+        private int copies = 1;
+
+        private Permit(Limit limit, int permits, IntUnaryOperator permitsForPages, boolean active) {
+            this.limit = limit;
+            this.permits = permits;
+            this.permitsForPages = permitsForPages;
+            this.active = active;
+        }
+
+        /**
+         * Refines the reservation with the page count of the loaded document. A smaller estimate releases the surplus,
+         * a larger one takes the difference if it is free right away; otherwise the scan goes ahead on its first
+         * estimate, since it already holds the document, and is counted as overcommitted.
+         *
+         * @param pages The number of pages of the document.
+         */
+        public void pagesLoaded(int pages) {
+            if (permitsForPages == null || copies == 0) {
+                return;
+            }
+            int refined = permitsForPages.applyAsInt(pages);
+            if (refined < permits) {
+                limit.semaphore.release((permits - refined) * copies);
+            } else if (refined > permits && !limit.semaphore.tryAcquire((refined - permits) * copies)) {
+                limit.overcommitted();
+                return;
+            }
+            permits = refined;
+        }
+
+        /**
+         * Takes permits for more copies of the document if they are free right away, for a scan that wants to parse
+         * several copies. Never waits, so a scan already holding a permit cannot deadlock with another.
+         *
+         * @param wanted The number of additional copies wanted.
+         * @return The number of additional copies taken, between 0 and {@code wanted}.
+         */
+        public int tryGrow(int wanted) {
+            int taken = 0;
+            while (taken < wanted && limit.semaphore.tryAcquire(permits)) {
+                taken++;
+            }
+            copies += taken;
+            return taken;
+        }
+
+        @Override
+        public void close() {
+            if (copies > 0) {
+                limit.semaphore.release(permits * copies);
+                if (active) {
+                    limit.active.decrementAndGet();
+                }
+                copies = 0;
+            }
+        }
+    }
+}
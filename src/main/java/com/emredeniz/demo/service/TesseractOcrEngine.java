@@ -0,0 +1,66 @@
+package com.emredeniz.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@code tesseract} command line tool of a local Tesseract installation on each page, e.g. from the
+ * {@code tesseract-ocr} package. The image is piped to it as PNG and the text is read back from a temporary file, so
+ * the process can be killed when it runs longer than {@code invoice.scanner.ocr.timeout}.
+ */
+@Component
+public class TesseractOcrEngine implements OcrEngine {
+
+    @Value("${invoice.scanner.ocr.tesseract.command:tesseract}")
+    private String command = "tesseract";
+
+    @Value("${invoice.scanner.ocr.tesseract.language:eng}")
+    private String language = "eng";
+
+    @Value("${invoice.scanner.ocr.timeout:30s}")
+    private Duration timeout = Duration.ofSeconds(30);
+
+    @Override
+    public String recognize(BufferedImage image) throws IOException {
+        Path output = Files.createTempFile("ocr-", "");
+        // Tesseract appends the extension to the output base it is given
+        Path text = Path.of(output + ".txt");
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command, "stdin", output.toString(), "-l", language)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try (OutputStream stdin = process.getOutputStream()) {
+                ImageIO.write(image, "png", stdin);
+            }
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("tesseract did not finish within " + timeout);
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("tesseract exited with " + process.exitValue());
+            }
+            return Files.readString(text, StandardCharsets.UTF_8);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for tesseract");
+        } finally {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(text);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.emredeniz.demo.util;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Incremental blacklist matcher that is fed one page of text at a time.
+ * <p>
+ * Only a short tail of the previous page is kept in a reusable buffer, just long enough to find IBANs that wrap
+ * across a page break, so memory stays bounded by the size of a single page. Every hit is reported for the page
+ * it starts on. Not thread-safe, create one per scan via {@link IBANValidator#newMatcher(boolean)}.
+ */
+public final class BlacklistMatcher {
+
+    /**
+     * Decides which valid IBANs count as hits.
+     */
+    @FunctionalInterface
+    public interface Filter {
+
+        /**
+         * @param iban   Buffer holding the normalized IBAN.
+         * @param length Number of valid characters in the buffer.
+         * @return {@code true} if the IBAN is a hit.
+         */
+        boolean accept(char[] iban, int length);
+    }
+
+    private final Filter filter;
+    private final boolean stopAtFirstHit;
+    private final IBANScanner scanner = new IBANScanner();
+
+    // Tail of the previous page followed by the current page
+    private final StringBuilder window = new StringBuilder();
+
+    private final Set<String> hits = new LinkedHashSet<>();
+    private final Map<Integer, Set<String>> hitsByPage = new TreeMap<>();
+
+    private int carryPage;
+    private int pagesScanned;
+    private int candidates;
+    private boolean stopped;
+
+    public BlacklistMatcher(Filter filter, boolean stopAtFirstHit) {
+        this.filter = filter;
+        this.stopAtFirstHit = stopAtFirstHit;
+    }
+
+    /**
+     * Creates a matcher that reports every valid IBAN, e.g. to collect the candidates of a document independently of
+     * the blacklist.
+     *
+     * @return A new matcher that never stops early.
+     */
+    public static BlacklistMatcher allIBANs() {
+        return new BlacklistMatcher((iban, length) -> true, false);
+    }
+
+    /**
+     * Scans the text of the next page.
+     *
+     * @param page The 1-based page number.
+     * @param text The text of the page; it is not retained after the call.
+     * @return {@code false} once the matcher stopped at its first hit and no more pages are needed.
+     */
+    public boolean feedPage(int page, CharSequence text) {
+        if (stopped) {
+            return false;
+        }
+        pagesScanned++;
+
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        if (start == text.length()) {
+            return true; // Nothing to scan, keep the carry for the next page
+        }
+
+        // Join the tail of the previous page with a single space, as if the page break were a line break
+        int carry = window.length();
+        if (carry > 0) {
+            window.append(' ');
+        }
+        int pageStart = window.length();
+        window.append(text, start, text.length());
+
+        scanner.scan(window, (iban, length, from, to) -> {
+            if (to <= carry) {
+                return true; // Entirely within the tail, already reported with the previous page
+            }
+            candidates++;
+            if (filter.accept(iban, length)) {
+                String hit = new String(iban, 0, length);
+                hits.add(hit);
+                hitsByPage.computeIfAbsent(from < pageStart ? carryPage : page, key -> new LinkedHashSet<>()).add(hit);
+                if (stopAtFirstHit) {
+                    stopped = true;
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        // Keep only what could be the beginning of an IBAN continued on the next page
+        int end = window.length();
+        while (end > pageStart && Character.isWhitespace(window.charAt(end - 1))) {
+            end--;
+        }
+        window.setLength(end);
+        window.delete(0, Math.max(pageStart, end - IBANScanner.MAX_IBAN_SPAN));
+        carryPage = page;
+        return !stopped;
+    }
+
+    /**
+     * @return All blacklisted IBANs found so far, in order of appearance.
+     */
+    public Set<String> hits() {
+        return hits;
+    }
+
+    /**
+     * @return The blacklisted IBANs found so far by the page they start on, ordered by page number.
+     */
+    public Map<Integer, Set<String>> hitsByPage() {
+        return hitsByPage;
+    }
+
+    /**
+     * @return The end of the text seen so far that could still be the start of an IBAN continued on a later page.
+     */
+    public CharSequence tail() {
+        return window;
+    }
+
+    /**
+     * @return The page the {@link #tail()} was taken from.
+     */
+    public int tailPage() {
+        return carryPage;
+    }
+
+    /**
+     * @return The number of valid IBANs seen so far, blacklisted or not.
+     */
+    public int candidates() {
+        return candidates;
+    }
+
+    public int pagesScanned() {
+        return pagesScanned;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,137 @@
+package com.emredeniz.demo.util;
+
+import java.time.Instant;
+
+/**
+ * Immutable view of the blacklist at one point in time.
+ * <p>
+ * A snapshot consists of a large base index, sharded by country, plus two small overlays holding the IBANs added and
+ * removed by delta updates since the base was built. Applying a delta only merges it into the overlays; the base is rebuilt by a
+ * linear merge once the overlays grow past a fraction of it. Scans read one snapshot and keep using it, so a swap
+ * never affects a scan in flight.
+ */
+public final class BlacklistSnapshot {
+
+    // Overlays smaller than this are never compacted into the base
+    private static final int MIN_COMPACTION_SIZE = 10_000;
+
+    private static final BlacklistSnapshot EMPTY =
+            new BlacklistSnapshot(ShardedBlacklist.empty(), IBANBlacklist.empty(), IBANBlacklist.empty(), 0, Instant.EPOCH);
+
+    private final ShardedBlacklist base;
+    private final IBANBlacklist added;
+    private final IBANBlacklist removed;
+    private final long version;
+    private final Instant createdAt;
+
+    private BlacklistSnapshot(ShardedBlacklist base, IBANBlacklist added, IBANBlacklist removed, long version, Instant createdAt) {
+        this.base = base;
+        this.added = added;
+        this.removed = removed;
+        this.version = version;
+        this.createdAt = createdAt;
+    }
+
+    public static BlacklistSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates the snapshot replacing this one after a full reload.
+     *
+     * @param base The freshly loaded blacklist.
+     * @return A snapshot with the next version and no overlays.
+     */
+    public BlacklistSnapshot replace(IBANBlacklist base) {
+        return replace(ShardedBlacklist.of(base));
+    }
+
+    /**
+     * Creates the snapshot replacing this one after the blacklist of one country was reloaded. The IBANs of that
+     * country added or removed by deltas since are dropped, like a full reload drops all of them; the
+     * {@link IBANValidator} applies its journal of deltas again on top.
+     *
+     * @param country Two-letter country code.
+     * @param shard   The freshly loaded IBANs of the country; IBANs of other countries are ignored.
+     * @return A snapshot with the next version.
+     */
+    public BlacklistSnapshot replaceCountry(String country, IBANBlacklist shard) {
+        return new BlacklistSnapshot(base.withShard(country, shard), added.difference(added.country(country)),
+                removed.difference(removed.country(country)), version + 1, Instant.now());
+    }
+
+    private BlacklistSnapshot replace(ShardedBlacklist base) {
+        return new BlacklistSnapshot(base, IBANBlacklist.empty(), IBANBlacklist.empty(), version + 1, Instant.now());
+    }
+
+    /**
+     * Creates the snapshot replacing this one after a delta update.
+     *
+     * @param additions IBANs to add.
+     * @param removals  IBANs to remove; an IBAN in both sets ends up removed.
+     * @return A snapshot with the next version.
+     */
+    public BlacklistSnapshot withDelta(IBANBlacklist additions, IBANBlacklist removals) {
+        // Keep the overlays disjoint from each other, additions out of the base and removals within it,
+        // so lookups and the size stay exact
+        IBANBlacklist effectiveAdditions = additions.with(IBANBlacklist.empty(), removals);
+        IBANBlacklist newAdded = added.with(additions, removals).difference(base);
+        IBANBlacklist newRemoved = removed.with(removals, effectiveAdditions).intersection(base);
+
+        if (newAdded.size() + newRemoved.size() > Math.max(MIN_COMPACTION_SIZE, base.size() / 16)) {
+            return replace(base.with(newAdded, newRemoved));
+        }
+        return new BlacklistSnapshot(base, newAdded, newRemoved, version + 1, Instant.now());
+    }
+
+    /**
+     * Checks whether a normalized IBAN is blacklisted in this snapshot.
+     *
+     * @param iban   Buffer holding the normalized IBAN.
+     * @param length Number of valid characters in the buffer.
+     * @return {@code true} if the IBAN is blacklisted.
+     */
+    public boolean contains(char[] iban, int length) {
+        return base.contains(iban, length) ? !removed.contains(iban, length) : added.contains(iban, length);
+    }
+
+    /**
+     * Creates a matcher for scanning a document page by page against this snapshot.
+     *
+     * @param stopAtFirstHit Whether the matcher should stop at the first blacklisted IBAN.
+     * @return A new matcher.
+     */
+    public BlacklistMatcher newMatcher(boolean stopAtFirstHit) {
+        return new BlacklistMatcher(this::contains, stopAtFirstHit);
+    }
+
+    /**
+     * @return The number of blacklisted IBANs, counting the overlays.
+     */
+    public int size() {
+        return base.size() + added.size() - removed.size();
+    }
+
+    /**
+     * @return The number of countries with IBANs in the base index.
+     */
+    public int countries() {
+        return base.countries();
+    }
+
+    public int addedSize() {
+        return added.size();
+    }
+
+    public int removedSize() {
+        return removed.size();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public Instant createdAt() {
+        return createdAt;
+    }
+}
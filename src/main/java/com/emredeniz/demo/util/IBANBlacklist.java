@@ -0,0 +1,413 @@
+package com.emredeniz.demo.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, memory-compact set of IBANs.
+ * <p>
+ * Every IBAN is packed into {@value #WORDS} longs, twelve base-37 digits per long (0 is padding, 1-10 are the digits
+ * and 11-36 the letters), and all entries are kept sorted in a single {@code long[]}. That costs 24 bytes per IBAN
+ * instead of a String, its byte array and a hash table node, and lookups are a binary search that never allocates.
+ * Because padding sorts before every character, the order of the packed entries is the lexicographic order of the
+ * IBANs, and the entries of one country are adjacent.
+ */
+public final class IBANBlacklist {
+
+    /** Number of longs used to store one IBAN. */
+    static final int WORDS = 3;
+
+    private static final int CHARS_PER_WORD = 12;
+    private static final int RADIX = 37;
+    // RADIX^10, the weight of the second character in the first word
+    private static final long SECOND_CHAR_WEIGHT = 4808584372417849L;
+
+    private static final IBANBlacklist EMPTY = new IBANBlacklist(new long[0]);
+
+    // Packed IBANs, WORDS longs per entry, sorted and free of duplicates
+    private final long[] entries;
+
+    private IBANBlacklist(long[] entries) {
+        this.entries = entries;
+    }
+
+    public static IBANBlacklist empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Wraps packed entries read back from {@link #entries()}, checking that they are sorted and free of duplicates
+     * so that a corrupt file cannot break the binary search.
+     *
+     * @param entries Packed IBANs, {@value #WORDS} longs per entry.
+     * @return The blacklist, which takes ownership of the array.
+     * @throws IllegalArgumentException If the entries are not sorted.
+     */
+    static IBANBlacklist ofSorted(long[] entries) {
+        if (entries.length % WORDS != 0) {
+            throw new IllegalArgumentException("Entries are not a multiple of " + WORDS + " longs");
+        }
+        for (int offset = WORDS; offset < entries.length; offset += WORDS) {
+            if (compare(entries, offset - WORDS, entries[offset], entries[offset + 1], entries[offset + 2]) >= 0) {
+                throw new IllegalArgumentException("Entries are not sorted at " + offset / WORDS);
+            }
+        }
+        return entries.length == 0 ? EMPTY : new IBANBlacklist(entries);
+    }
+
+    /**
+     * @return The packed, sorted entries, not to be modified.
+     */
+    long[] entries() {
+        return entries;
+    }
+
+    /**
+     * @return The number of IBANs in the blacklist.
+     */
+    public int size() {
+        return entries.length / WORDS;
+    }
+
+    /**
+     * @return The approximate number of heap bytes used by the packed entries.
+     */
+    public long sizeInBytes() {
+        return 16L + (long) entries.length * Long.BYTES;
+    }
+
+    /**
+     * Checks whether a normalized IBAN is blacklisted.
+     *
+     * @param iban   Buffer holding the normalized IBAN.
+     * @param length Number of valid characters in the buffer.
+     * @return {@code true} if the IBAN is in the blacklist.
+     */
+    public boolean contains(char[] iban, int length) {
+        if (length > IBANScanner.MAX_IBAN_LENGTH || entries.length == 0) {
+            return false;
+        }
+        return contains(pack(iban, length, 0), pack(iban, length, 1), pack(iban, length, 2));
+    }
+
+    /**
+     * Convenience lookup for a normalized IBAN string.
+     *
+     * @param iban The normalized IBAN.
+     * @return {@code true} if the IBAN is in the blacklist.
+     */
+    public boolean contains(String iban) {
+        return contains(iban.toCharArray(), iban.length());
+    }
+
+    /**
+     * Creates a new blacklist with the additions merged in and the removals taken out.
+     * This is a single linear merge of the sorted arrays, nothing is parsed or sorted again.
+     *
+     * @param additions IBANs to add.
+     * @param removals  IBANs to remove, applied after the additions.
+     * @return The merged blacklist; this instance is left unchanged.
+     */
+    public IBANBlacklist with(IBANBlacklist additions, IBANBlacklist removals) {
+        if (additions.size() == 0 && removals.size() == 0) {
+            return this;
+        }
+        long[] a = entries;
+        long[] b = additions.entries;
+        long[] r = removals.entries;
+        long[] merged = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0, out = 0;
+        while (i < a.length || j < b.length) {
+            long[] source;
+            int offset;
+            if (j >= b.length || (i < a.length && compare(a, i, b[j], b[j + 1], b[j + 2]) <= 0)) {
+                // Skip an addition that is already present
+                if (j < b.length && compare(a, i, b[j], b[j + 1], b[j + 2]) == 0) {
+                    j += WORDS;
+                }
+                source = a;
+                offset = i;
+                i += WORDS;
+            } else {
+                source = b;
+                offset = j;
+                j += WORDS;
+            }
+            while (k < r.length && compare(r, k, source[offset], source[offset + 1], source[offset + 2]) < 0) {
+                k += WORDS;
+            }
+            if (k < r.length && compare(r, k, source[offset], source[offset + 1], source[offset + 2]) == 0) {
+                continue;
+            }
+            System.arraycopy(source, offset, merged, out, WORDS);
+            out += WORDS;
+        }
+        return out == 0 ? EMPTY : new IBANBlacklist(Arrays.copyOf(merged, out));
+    }
+
+    /**
+     * Keeps the entries of this blacklist that are also in the other one. Each entry is looked up in the other
+     * blacklist, so this is cheap when this blacklist is small, whatever the size of the other.
+     *
+     * @param other The blacklist to intersect with.
+     * @return The entries of this blacklist that are in the other one.
+     */
+    public IBANBlacklist intersection(IBANBlacklist other) {
+        return filter(other::contains, true);
+    }
+
+    /**
+     * Same as {@link #intersection(IBANBlacklist)}, against a sharded blacklist.
+     */
+    public IBANBlacklist intersection(ShardedBlacklist other) {
+        return filter(other::contains, true);
+    }
+
+    /**
+     * Keeps the entries of this blacklist that are not in the other one, see {@link #intersection(IBANBlacklist)}
+     * for the cost.
+     *
+     * @param other The blacklist to subtract.
+     * @return The entries of this blacklist that are not in the other one.
+     */
+    public IBANBlacklist difference(IBANBlacklist other) {
+        return filter(other::contains, false);
+    }
+
+    /**
+     * Same as {@link #difference(IBANBlacklist)}, against a sharded blacklist.
+     */
+    public IBANBlacklist difference(ShardedBlacklist other) {
+        return filter(other::contains, false);
+    }
+
+    /**
+     * @param country Two-letter country code.
+     * @return The entries of the given country.
+     */
+    public IBANBlacklist country(String country) {
+        int index = ShardedBlacklist.countryIndex(country);
+        return range(countryStart(index), countryStart(index + 1));
+    }
+
+    /**
+     * @param country Country index, see {@link ShardedBlacklist#countryIndex(String)}; 26 * 26 for the end.
+     * @return The index of the first entry of the given country or a later one.
+     */
+    int countryStart(int country) {
+        // The smallest possible first word of the country: its two letters followed by padding
+        long first = ((country / 26 + 11) * RADIX + country % 26 + 11) * SECOND_CHAR_WEIGHT;
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid * WORDS] < first) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The entries from index {@code from} inclusive to {@code to} exclusive.
+     */
+    IBANBlacklist range(int from, int to) {
+        if (from == 0 && to == size()) {
+            return this;
+        }
+        return from >= to ? EMPTY : new IBANBlacklist(Arrays.copyOfRange(entries, from * WORDS, to * WORDS));
+    }
+
+    /**
+     * @return The country index of a packed IBAN, see {@link ShardedBlacklist#countryIndex(String)}, or -1 if it does
+     * not start with two letters.
+     */
+    static int countryIndex(long w0) {
+        int first = (int) (w0 / SECOND_CHAR_WEIGHT / RADIX) - 11;
+        int second = (int) (w0 / SECOND_CHAR_WEIGHT % RADIX) - 11;
+        return first < 0 || second < 0 ? -1 : first * 26 + second;
+    }
+
+    private IBANBlacklist filter(PackedLookup other, boolean present) {
+        long[] kept = new long[entries.length];
+        int out = 0;
+        for (int i = 0; i < entries.length; i += WORDS) {
+            if (other.contains(entries[i], entries[i + 1], entries[i + 2]) == present) {
+                System.arraycopy(entries, i, kept, out, WORDS);
+                out += WORDS;
+            }
+        }
+        if (out == entries.length) {
+            return this;
+        }
+        return out == 0 ? EMPTY : new IBANBlacklist(Arrays.copyOf(kept, out));
+    }
+
+    boolean contains(long w0, long w1, long w2) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(entries, mid * WORDS, w0, w1, w2);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    interface PackedLookup {
+        boolean contains(long w0, long w1, long w2);
+    }
+
+    /**
+     * Packs the characters of one word of an IBAN into a long.
+     */
+    static long pack(char[] iban, int length, int word) {
+        long value = 0;
+        int offset = word * CHARS_PER_WORD;
+        for (int i = offset; i < offset + CHARS_PER_WORD; i++) {
+            value = value * RADIX + (i < length ? digit(iban[i]) : 0);
+        }
+        return value;
+    }
+
+    private static int digit(char c) {
+        return c <= '9' ? c - '0' + 1 : c - 'A' + 11;
+    }
+
+    private static int compare(long[] entries, int offset, long w0, long w1, long w2) {
+        int cmp = Long.compare(entries[offset], w0);
+        if (cmp == 0) {
+            cmp = Long.compare(entries[offset + 1], w1);
+            if (cmp == 0) {
+                cmp = Long.compare(entries[offset + 2], w2);
+            }
+        }
+        return cmp;
+    }
+
+    /**
+     * Collects normalized IBANs and packs them into an {@link IBANBlacklist}.
+     * Only the packed longs are kept while loading, no String per entry.
+     */
+    public static final class Builder {
+
+        private long[] entries = new long[16 * WORDS];
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a normalized IBAN, e.g. straight from the buffer of an {@link IBANScanner}.
+         *
+         * @param iban   Buffer holding the normalized IBAN.
+         * @param length Number of valid characters in the buffer.
+         * @return This builder.
+         */
+        public Builder add(char[] iban, int length) {
+            if (length > IBANScanner.MAX_IBAN_LENGTH) {
+                throw new IllegalArgumentException("IBAN is longer than " + IBANScanner.MAX_IBAN_LENGTH + " characters");
+            }
+            if ((size + 1) * WORDS > entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            int offset = size * WORDS;
+            for (int word = 0; word < WORDS; word++) {
+                entries[offset + word] = pack(iban, length, word);
+            }
+            size++;
+            return this;
+        }
+
+        public Builder add(String iban) {
+            return add(iban.toCharArray(), iban.length());
+        }
+
+        public IBANBlacklist build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            sort(entries, 0, size - 1);
+
+            // Drop duplicates in place, they are adjacent after sorting
+            int unique = 1;
+            for (int i = 1; i < size; i++) {
+                int offset = i * WORDS;
+                if (compare(entries, (unique - 1) * WORDS, entries[offset], entries[offset + 1], entries[offset + 2]) != 0) {
+                    System.arraycopy(entries, offset, entries, unique * WORDS, WORDS);
+                    unique++;
+                }
+            }
+            return new IBANBlacklist(Arrays.copyOf(entries, unique * WORDS));
+        }
+
+        /**
+         * Sorts the packed entries in place. Recurses into the smaller partition only, which keeps the stack
+         * depth logarithmic even for millions of entries.
+         */
+        private static void sort(long[] a, int low, int high) {
+            while (high - low > 16) {
+                // Median of three as pivot, copied out because the partitioning moves entries around
+                int mid = (low + high) >>> 1;
+                if (compareEntries(a, mid, low) < 0) swap(a, mid, low);
+                if (compareEntries(a, high, low) < 0) swap(a, high, low);
+                if (compareEntries(a, high, mid) < 0) swap(a, high, mid);
+                int pivot = mid * WORDS;
+                long p0 = a[pivot];
+                long p1 = a[pivot + 1];
+                long p2 = a[pivot + 2];
+
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(a, i * WORDS, p0, p1, p2) < 0) i++;
+                    while (compare(a, j * WORDS, p0, p1, p2) > 0) j--;
+                    if (i <= j) {
+                        swap(a, i++, j--);
+                    }
+                }
+
+                if (j - low < high - i) {
+                    sort(a, low, j);
+                    low = i;
+                } else {
+                    sort(a, i, high);
+                    high = j;
+                }
+            }
+            // Insertion sort for small ranges
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compareEntries(a, j, j - 1) < 0; j--) {
+                    swap(a, j, j - 1);
+                }
+            }
+        }
+
+        private static int compareEntries(long[] a, int i, int j) {
+            int offset = j * WORDS;
+            return compare(a, i * WORDS, a[offset], a[offset + 1], a[offset + 2]);
+        }
+
+        private static void swap(long[] a, int i, int j) {
+            int x = i * WORDS;
+            int y = j * WORDS;
+            for (int word = 0; word < WORDS; word++) {
+                long tmp = a[x + word];
+                a[x + word] = a[y + word];
+                a[y + word] = tmp;
+            }
+        }
+    }
+}
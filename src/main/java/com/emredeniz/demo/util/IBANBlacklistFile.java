@@ -0,0 +1,141 @@
+package com.emredeniz.demo.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of an {@link IBANBlacklist}: its packed, sorted entries as they are held in memory, so loading it
+ * is a single read with no parsing, normalizing or sorting.
+ * <p>
+ * The header records the size and modification time of the text file the snapshot was built from, and a CRC-32C of
+ * the entries follows them. A snapshot whose source stamp does not match, or that is truncated or corrupt, is not
+ * loaded. Snapshots are written to a temporary file that is moved into place, so a reader never sees half a file.
+ */
+final class IBANBlacklistFile {
+
+    private static final int MAGIC = 0x49424C42; // "IBLB"
+    private static final int FORMAT_VERSION = 1;
+    // Magic, format version, words per entry, entry count, source length and source modification time
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private IBANBlacklistFile() {
+    }
+
+    /**
+     * Reads a snapshot if it was built from the given source.
+     *
+     * @param file           The snapshot file.
+     * @param sourceLength   Size of the text source in bytes, or -1 if it is unknown.
+     * @param sourceModified Modification time of the text source in milliseconds, or 0 if it is unknown.
+     * @return The blacklist, or {@code null} if the file does not exist or was built from another source.
+     * @throws IOException If the file cannot be read or is corrupt.
+     */
+    static IBANBlacklist read(Path file, long sourceLength, long sourceModified) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || header.getInt() != IBANBlacklist.WORDS) {
+                throw new IOException("Not a blacklist snapshot of this version: " + file);
+            }
+            int count = header.getInt();
+            if (header.getLong() != sourceLength || header.getLong() != sourceModified) {
+                return null;
+            }
+            if (count < 0 || (long) count * IBANBlacklist.WORDS > Integer.MAX_VALUE - 8
+                    || channel.size() != HEADER_BYTES + (long) count * IBANBlacklist.WORDS * Long.BYTES + Integer.BYTES) {
+                throw new IOException("Truncated blacklist snapshot: " + file);
+            }
+
+            long[] entries = new long[count * IBANBlacklist.WORDS];
+            CRC32C crc = new CRC32C();
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+            int read = 0;
+            while (read < entries.length) {
+                chunk.clear().limit(Math.min(CHUNK_BYTES, (entries.length - read) * Long.BYTES));
+                readFully(channel, chunk);
+                chunk.flip();
+                crc.update(chunk.duplicate());
+                int longs = chunk.remaining() / Long.BYTES;
+                chunk.asLongBuffer().get(entries, read, longs);
+                read += longs;
+            }
+            ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, checksum);
+            if (checksum.flip().getInt() != (int) crc.getValue()) {
+                throw new IOException("Corrupt blacklist snapshot, checksum mismatch: " + file);
+            }
+            try {
+                return IBANBlacklist.ofSorted(entries);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt blacklist snapshot: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot, replacing the file atomically.
+     *
+     * @param file           The snapshot file; its directory is created if needed.
+     * @param blacklist      The blacklist to write.
+     * @param sourceLength   Size of the text source in bytes, or -1 if it is unknown.
+     * @param sourceModified Modification time of the text source in milliseconds, or 0 if it is unknown.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(Path file, IBANBlacklist blacklist, long sourceLength, long sourceModified) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long[] entries = blacklist.entries();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .putInt(MAGIC).putInt(FORMAT_VERSION).putInt(IBANBlacklist.WORDS).putInt(blacklist.size())
+                        .putLong(sourceLength).putLong(sourceModified);
+                writeFully(channel, header.flip());
+
+                CRC32C crc = new CRC32C();
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+                for (int written = 0; written < entries.length; ) {
+                    int longs = Math.min(CHUNK_BYTES / Long.BYTES, entries.length - written);
+                    chunk.clear();
+                    chunk.asLongBuffer().put(entries, written, longs);
+                    chunk.limit(longs * Long.BYTES);
+                    crc.update(chunk.duplicate());
+                    writeFully(channel, chunk);
+                    written += longs;
+                }
+                writeFully(channel, ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip());
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of blacklist snapshot");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
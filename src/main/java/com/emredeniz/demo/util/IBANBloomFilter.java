@@ -0,0 +1,82 @@
+package com.emredeniz.demo.util;
+
+/**
+ * Blocked Bloom filter over packed IBANs, built once from the entries of an {@link IBANBlacklist}.
+ * <p>
+ * Each IBAN hashes to one block of 512 bits, a single cache line, and sets {@value #HASHES} bits within it. A lookup
+ * therefore reads one cache line, and an IBAN that is not in the set is rejected there in all but about 1% of the
+ * cases, without touching the sorted entries. With {@value #BITS_PER_ENTRY} bits per entry the filter costs about
+ * 1.25 bytes per IBAN on top of the 24 of the entries.
+ */
+final class IBANBloomFilter {
+
+    static final int BITS_PER_ENTRY = 10;
+
+    private static final int HASHES = 7;
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_BITS = BLOCK_WORDS * Long.SIZE;
+
+    private final long[] bits;
+    private final long blocks;
+
+    /**
+     * @param entries Packed IBANs, {@value IBANBlacklist#WORDS} longs per entry.
+     */
+    IBANBloomFilter(long[] entries) {
+        int count = entries.length / IBANBlacklist.WORDS;
+        blocks = Math.max(1, ((long) count * BITS_PER_ENTRY + BLOCK_BITS - 1) / BLOCK_BITS);
+        bits = new long[Math.toIntExact(blocks * BLOCK_WORDS)];
+        for (int offset = 0; offset < entries.length; offset += IBANBlacklist.WORDS) {
+            long hash = hash(entries[offset], entries[offset + 1], entries[offset + 2]);
+            int block = block(hash);
+            long positions = positions(hash);
+            for (int i = 0; i < HASHES; i++, positions >>>= 9) {
+                int bit = (int) positions & (BLOCK_BITS - 1);
+                bits[block + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the IBAN is definitely not in the set, {@code true} if it may be.
+     */
+    boolean mightContain(long w0, long w1, long w2) {
+        long hash = hash(w0, w1, w2);
+        int block = block(hash);
+        long positions = positions(hash);
+        for (int i = 0; i < HASHES; i++, positions >>>= 9) {
+            int bit = (int) positions & (BLOCK_BITS - 1);
+            if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of heap bytes used by the filter.
+     */
+    long sizeInBytes() {
+        return 16L + (long) bits.length * Long.BYTES;
+    }
+
+    // Multiply-shift maps the upper half of the hash onto the blocks without a modulo
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    // Seven 9-bit bit positions within the block, taken from a remix of the hash
+    private static long positions(long hash) {
+        return mix(hash ^ 0x9E3779B97F4A7C15L);
+    }
+
+    private static long hash(long w0, long w1, long w2) {
+        return mix(mix(w0 * 0x9E3779B97F4A7C15L + w1) * 0xC2B2AE3D27D4EB4FL + w2);
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
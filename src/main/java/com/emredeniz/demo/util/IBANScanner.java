@@ -0,0 +1,365 @@
+package com.emredeniz.demo.util;
+
+/**
+ * Single-pass IBAN scanner that walks a {@link CharSequence} without regular expressions.
+ * <p>
+ * Candidates are normalized in place into a reusable buffer (whitespace between groups is dropped),
+ * checked against the ISO 13616 length of their country and validated with the mod-97 checksum.
+ * No objects are allocated while scanning; callers decide whether a confirmed IBAN is worth a {@link String}.
+ * <p>
+ * Instances keep a scratch buffer and are therefore not thread-safe. They are cheap to create, so use one per scan.
+ * <p>
+ * Text recognized from page images is scanned with {@link #ocrTolerant()}, which accepts the characters OCR engines
+ * most often confuse: {@code O} and {@code 0}, {@code I} and {@code 1}. They are read as the BBAN format of the country
+ * requires: as letters in the country code and where the format only allows letters, as digits in the check digits
+ * and where it only allows digits, and as digits where it allows both unless only the letter gives a valid checksum.
+ */
+public final class IBANScanner {
+
+    /** The longest IBAN defined by ISO 13616 (Saint Lucia, Russia). */
+    public static final int MAX_IBAN_LENGTH = 34;
+
+    /**
+     * Upper bound of characters a formatted IBAN can span in text: every character may be followed by one
+     * whitespace character.
+     */
+    public static final int MAX_IBAN_SPAN = MAX_IBAN_LENGTH * 2 - 1;
+
+    // IBAN length per country code, indexed by (first - 'A') * 26 + (second - 'A'); 0 means unknown country
+    private static final byte[] COUNTRY_LENGTHS = new byte[26 * 26];
+
+    static {
+        String[] registry = {
+                "AD24", "AE23", "AL28", "AT20", "AZ28", "BA20", "BE16", "BG22", "BH22", "BI27", "BR29", "BY28",
+                "CH21", "CR22", "CY28", "CZ24", "DE22", "DJ27", "DK18", "DO28", "EE20", "EG29", "ES24", "FI18",
+                "FK18", "FO18", "FR27", "GB22", "GE22", "GI23", "GL18", "GR27", "GT28", "HR21", "HU28", "IE22",
+                "IL23", "IQ23", "IS26", "IT27", "JO30", "KW30", "KZ20", "LB28", "LC32", "LI21", "LT20", "LU20",
+                "LV21", "LY25", "MC27", "MD24", "ME22", "MK19", "MN20", "MR27", "MT31", "MU30", "NI28", "NL18",
+                "NO15", "OM23", "PK24", "PL28", "PS29", "PT25", "QA29", "RO24", "RS22", "RU33", "SA24", "SC31",
+                "SD18", "SE24", "SI19", "SK24", "SM27", "SO23", "ST25", "SV28", "TL23", "TN24", "TR26", "UA29",
+                "VA22", "VG24", "XK20", "YE30"
+        };
+        for (String entry : registry) {
+            COUNTRY_LENGTHS[countryIndex(entry.charAt(0), entry.charAt(1))] = Byte.parseByte(entry.substring(2));
+        }
+    }
+
+    // IBAN positions where the BBAN format of a country allows letters, one bit per position, indexed like the lengths.
+    // Countries whose BBAN is all digits have none.
+    private static final long[] LETTER_POSITIONS = new long[26 * 26];
+    // Positions where it allows only letters
+    private static final long[] LETTER_ONLY_POSITIONS = new long[26 * 26];
+
+    static {
+        // BBAN formats of the ISO 13616 registry: n digits, a upper case letters, c both
+        String[] formats = {
+                "AD4n4n12c", "AL8n16c", "AZ4a20c", "BG4a4n2n8c", "BH4a14c", "BR8n5n10n1a1c", "BY4c4n16c", "CH5n12c",
+                "CY3n5n16c", "DO4c20n", "FK2a12n", "FR5n5n11c2n", "GB4a6n8n", "GE2a16n", "GI4a15c", "GR3n4n16c",
+                "GT4c20c", "IE4a6n8n", "IQ4a3n12n", "IT1a5n5n12c", "JO4a4n18c", "KW4a22c", "KZ3n13c", "LB4n20c",
+                "LC4a24c", "LI5n12c", "LU3n13c", "LV4a13c", "MC5n5n11c2n", "MD2c18c", "MK3n10c2n", "MT4a5n18c",
+                "MU4a2n2n12n3n3a", "NI4a20n", "NL4a10n", "OM3n16c", "PK4a16c", "PS4a21c", "QA4a21c", "RO4a16c",
+                "RU9n5n15c", "SA2n18c", "SC4a2n2n16n3a", "SM1a5n5n12c", "SV4a20n", "TR5n1n16c", "UA6n19c", "VG4a16n",
+                "YE4a4n18c"
+        };
+        for (String format : formats) {
+            int country = countryIndex(format.charAt(0), format.charAt(1));
+            int position = 4;
+            int count = 0;
+            for (int i = 2; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    count = count * 10 + (c - '0');
+                    continue;
+                }
+                long positions = (1L << position + count) - (1L << position);
+                if (c != 'n') {
+                    LETTER_POSITIONS[country] |= positions;
+                }
+                if (c == 'a') {
+                    LETTER_ONLY_POSITIONS[country] |= positions;
+                }
+                position += count;
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Receives every valid IBAN found by {@link #scan(CharSequence, CandidateSink)}.
+     */
+    @FunctionalInterface
+    public interface CandidateSink {
+
+        /**
+         * Called for each IBAN that passed the length and checksum validation.
+         * The buffer is reused for the next candidate, so copy it if it needs to outlive the call.
+         *
+         * @param iban   Buffer holding the normalized IBAN in its first {@code length} characters.
+         * @param length Number of valid characters in the buffer.
+         * @param start  Offset of the first IBAN character in the scanned text.
+         * @param end    Offset just after the last IBAN character in the scanned text.
+         * @return {@code true} to keep scanning, {@code false} to stop.
+         */
+        boolean accept(char[] iban, int length, int start, int end);
+    }
+
+    // Confusable characters at positions allowing both a letter and a digit whose letter reading is tried when the
+    // checksum fails, and the most of them read as letters at once. Each reading tried lets about 1 in 97 invalid
+    // candidates pass, so the 3 readings tried at most correct about 3% of them into a wrong IBAN.
+    private static final int MAX_CONFUSABLE = 3;
+    private static final int MAX_SUBSTITUTIONS = 1;
+
+    private final char[] buffer = new char[MAX_IBAN_LENGTH];
+    private final boolean ocrTolerant;
+    private final int[] confusable;
+
+    public IBANScanner() {
+        this(false);
+    }
+
+    private IBANScanner(boolean ocrTolerant) {
+        this.ocrTolerant = ocrTolerant;
+        this.confusable = ocrTolerant ? new int[MAX_CONFUSABLE] : null;
+    }
+
+    /**
+     * Creates a scanner for OCR output that reads confusable characters as the BBAN format of the country requires,
+     * or as whatever makes a valid IBAN where it allows both. The IBANs it reports are corrected, so they may differ
+     * from the scanned text. Unlike {@link #IBANScanner()}, it rejects letters where the format has none.
+     *
+     * @return A new scanner.
+     */
+    public static IBANScanner ocrTolerant() {
+        return new IBANScanner(true);
+    }
+
+    /**
+     * Scans the text for valid IBANs, written either compact or in space separated groups.
+     *
+     * @param text The text to scan.
+     * @param sink Receiver of every valid IBAN, in text order.
+     * @return {@code false} if the sink stopped the scan, {@code true} otherwise.
+     */
+    public boolean scan(CharSequence text, CandidateSink sink) {
+        int length = text.length();
+        int i = 0;
+        while (i + 4 <= length) {
+            int end = ocrTolerant ? matchOcrAt(text, i, length) : matchAt(text, i, length);
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            if (!sink.accept(buffer, COUNTRY_LENGTHS[countryIndex(buffer[0], buffer[1])], i, end)) {
+                return false;
+            }
+            i = end;
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a single IBAN, e.g. a line of the blacklist file.
+     *
+     * @param value A text containing an IBAN, compact or grouped.
+     * @return The first valid IBAN in the text without whitespace, or an empty string if there is none.
+     */
+    public String normalize(CharSequence value) {
+        String[] result = {""};
+        scan(value, (iban, length, start, end) -> {
+            result[0] = new String(iban, 0, length);
+            return false;
+        });
+        return result[0];
+    }
+
+    /**
+     * Tries to read a valid IBAN starting at the given offset into the buffer.
+     *
+     * @return The offset just after the IBAN, or -1 if there is no valid IBAN at this offset.
+     */
+    private int matchAt(CharSequence text, int start, int length) {
+        char first = text.charAt(start);
+        if (!isUpperLetter(first) || (start > 0 && isWordChar(text.charAt(start - 1)))) {
+            return -1;
+        }
+        char second = text.charAt(start + 1);
+        if (!isUpperLetter(second)) {
+            return -1;
+        }
+        int expected = COUNTRY_LENGTHS[countryIndex(first, second)];
+        if (expected == 0) {
+            return -1;
+        }
+
+        buffer[0] = first;
+        buffer[1] = second;
+        int count = 2;
+        int pos = start + 2;
+        while (count < expected && pos < length) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                // A single whitespace character may separate groups, but never two in a row
+                if (pos + 1 >= length || Character.isWhitespace(text.charAt(pos + 1))) {
+                    return -1;
+                }
+                c = text.charAt(++pos);
+            }
+            boolean digit = c >= '0' && c <= '9';
+            if (count < 4 ? !digit : !digit && !isUpperLetter(c)) {
+                return -1;
+            }
+            buffer[count++] = c;
+            pos++;
+        }
+
+        if (count < expected || (pos < length && isWordChar(text.charAt(pos)))) {
+            return -1;
+        }
+        return hasValidChecksum(buffer, expected) ? pos : -1;
+    }
+
+    /**
+     * Like {@link #matchAt(CharSequence, int, int)}, reading confusable characters as the position requires. Kept
+     * apart so that the extra branches do not slow down scanning extracted text.
+     */
+    private int matchOcrAt(CharSequence text, int start, int length) {
+        char first = asLetter(text.charAt(start));
+        if (!isUpperLetter(first) || (start > 0 && isWordChar(text.charAt(start - 1)))) {
+            return -1;
+        }
+        char second = asLetter(text.charAt(start + 1));
+        if (!isUpperLetter(second)) {
+            return -1;
+        }
+        int country = countryIndex(first, second);
+        int expected = COUNTRY_LENGTHS[country];
+        if (expected == 0) {
+            return -1;
+        }
+        long letters = LETTER_POSITIONS[country];
+        long lettersOnly = LETTER_ONLY_POSITIONS[country];
+
+        buffer[0] = first;
+        buffer[1] = second;
+        int count = 2;
+        int pos = start + 2;
+        int confusables = 0;
+        while (count < expected && pos < length) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                // A single whitespace character may separate groups, but never two in a row
+                if (pos + 1 >= length || Character.isWhitespace(text.charAt(pos + 1))) {
+                    return -1;
+                }
+                c = text.charAt(++pos);
+            }
+            long bit = 1L << count;
+            if ((lettersOnly & bit) != 0) {
+                c = asLetter(c);
+                if (!isUpperLetter(c)) {
+                    return -1;
+                }
+            } else {
+                c = asDigit(c);
+                boolean digit = c >= '0' && c <= '9';
+                if ((letters & bit) == 0) {
+                    if (!digit) {
+                        return -1;
+                    }
+                } else if (digit) {
+                    if ((c == '0' || c == '1') && confusables < MAX_CONFUSABLE) {
+                        confusable[confusables++] = count;
+                    }
+                } else if (!isUpperLetter(c)) {
+                    return -1;
+                }
+            }
+            buffer[count++] = c;
+            pos++;
+        }
+
+        if (count < expected || (pos < length && isWordChar(text.charAt(pos)))) {
+            return -1;
+        }
+        if (hasValidChecksum(buffer, expected)) {
+            return pos;
+        }
+        return confusables > 0 && readConfusablesAsLetters(expected, confusables) ? pos : -1;
+    }
+
+    /**
+     * Tries reading the confusable digits in the buffer as letters instead, fewest changes first, until the checksum
+     * is valid. Every reading tried also passes the checksum by chance about once in 97, which is why only positions
+     * that allow letters are tried and only a few readings in all.
+     *
+     * @return {@code true} with the valid reading in the buffer, {@code false} with the buffer unchanged.
+     */
+    private boolean readConfusablesAsLetters(int length, int confusables) {
+        for (int changes = 1; changes <= Math.min(confusables, MAX_SUBSTITUTIONS); changes++) {
+            for (int mask = 1; mask < 1 << confusables; mask++) {
+                if (Integer.bitCount(mask) != changes) {
+                    continue;
+                }
+                swapConfusables(mask, confusables);
+                if (hasValidChecksum(buffer, length)) {
+                    return true;
+                }
+                swapConfusables(mask, confusables);
+            }
+        }
+        return false;
+    }
+
+    private void swapConfusables(int mask, int confusables) {
+        for (int i = 0; i < confusables; i++) {
+            if ((mask & 1 << i) != 0) {
+                int position = confusable[i];
+                buffer[position] = switch (buffer[position]) {
+                    case '0' -> 'O';
+                    case 'O' -> '0';
+                    case '1' -> 'I';
+                    default -> '1';
+                };
+            }
+        }
+    }
+
+    /**
+     * Validates the ISO 7064 mod-97 checksum by moving the first four characters to the end and reducing
+     * the resulting number digit by digit, so no big number is ever materialized.
+     */
+    private static boolean hasValidChecksum(char[] iban, int length) {
+        int remainder = 0;
+        for (int i = 4; i < length + 4; i++) {
+            char c = iban[i < length ? i : i - length];
+            remainder = c <= '9'
+                    ? (remainder * 10 + (c - '0')) % 97
+                    : (remainder * 100 + (c - 'A' + 10)) % 97;
+        }
+        return remainder == 1;
+    }
+
+    static int countryIndex(char first, char second) {
+        return (first - 'A') * 26 + (second - 'A');
+    }
+
+    private static char asLetter(char c) {
+        return c == '0' ? 'O' : c == '1' ? 'I' : c;
+    }
+
+    private static char asDigit(char c) {
+        return switch (c) {
+            case 'O', 'o' -> '0';
+            case 'I', 'l' -> '1';
+            default -> c;
+        };
+    }
+
+    private static boolean isUpperLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
@@ -1,78 +1,393 @@
 package com.emredeniz.demo.util;
 
 import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 @Component
 public class IBANValidator {
+    private static final Logger log = LoggerFactory.getLogger(IBANValidator.class);
 
-    private Set<String> blacklistedIBANs = new HashSet<>();
+    // Header of every delta in the journal, followed by the time it was applied
+    private static final String JOURNAL_ENTRY = "# Applied ";
+
+    // Current blacklist; readers never lock, writers swap in a new snapshot
+    private final AtomicReference<BlacklistSnapshot> snapshot = new AtomicReference<>(BlacklistSnapshot.empty());
 
     @Value("${blacklisted.ibans.file}") // Inject the file path from application.properties
     private String blacklistedIBANsFile;
 
+    // Optional file system path that takes precedence over the classpath file and can be reloaded at runtime
+    @Value("${blacklisted.ibans.external-file:}")
+    private String externalBlacklistedIBANsFile;
+
+    // Optional binary snapshot of the blacklist: loaded at startup instead of parsing the text file when it was built
+    // from the same file, and written whenever the text file is parsed
+    @Value("${blacklisted.ibans.binary-file:}")
+    private String binaryBlacklistFile;
+
+    // Optional file system path of the journal every applied delta is appended to and that is replayed after every
+    // load of the blacklist; defaults to the external file with a .journal suffix
+    @Value("${blacklisted.ibans.delta-journal:}")
+    private String deltaJournalFile;
+
     @PostConstruct
     public void init() throws IOException {
-        // Load the blacklisted IBANs file from the classpath
-        ClassPathResource resource = new ClassPathResource(blacklistedIBANsFile);
+        load(true);
+    }
+
+    /**
+     * Loads the full blacklist from its source and swaps it in, with the deltas of the journal applied on top. Deltas
+     * older than the blacklist file are dropped from the journal. Scans in progress keep the snapshot they started
+     * with. The text file is always parsed, so a reload picks up changes the binary snapshot does not have yet.
+     *
+     * @throws IOException If the blacklist file cannot be read.
+     */
+    public synchronized void reload() throws IOException {
+        load(false);
+    }
+
+    /**
+     * @param fromBinary Whether a binary snapshot built from the current text file may be loaded instead of it.
+     */
+    private synchronized void load(boolean fromBinary) throws IOException {
+        Resource resource = blacklistResource();
         if (!resource.exists()) {
-            throw new IOException("Blacklisted IBANs file not found: " + blacklistedIBANsFile);
+            throw new IOException("Blacklisted IBANs file not found: " + resource.getDescription());
+        }
+        // Identifies the text file a binary snapshot was built from, without reading it
+        long sourceLength = stamp(resource::contentLength, -1);
+        long sourceModified = stamp(resource::lastModified, 0);
+        Path binaryFile = binaryBlacklistFile == null || binaryBlacklistFile.isBlank() ? null : Path.of(binaryBlacklistFile);
+
+        IBANBlacklist blacklist = null;
+        String source = resource.getDescription();
+        if (fromBinary && binaryFile != null) {
+            try {
+                blacklist = IBANBlacklistFile.read(binaryFile, sourceLength, sourceModified);
+                source = "binary snapshot " + binaryFile + " of " + source;
+            } catch (IOException e) {
+                log.warn("Ignoring the blacklist snapshot {}: {}", binaryFile, e.getMessage());
+            }
+        }
+        if (blacklist == null) {
+            source = resource.getDescription();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream()))) {
+                blacklist = load(reader, null);
+            }
+            if (binaryFile != null) {
+                try {
+                    IBANBlacklistFile.write(binaryFile, blacklist, sourceLength, sourceModified);
+                } catch (IOException e) {
+                    log.warn("Failed to write the blacklist snapshot {}: {}", binaryFile, e.getMessage());
+                }
+            }
         }
+        BlacklistSnapshot current = replayJournal(snapshot.get().replace(blacklist), sourceModified, true);
+        snapshot.set(current);
+        log.info("Loaded {} blacklisted IBANs of {} countries from {} (version {})", current.size(), current.countries(),
+                source, current.version());
+    }
 
+    /**
+     * Reloads the blacklisted IBANs of one country from the source and swaps them in, with the deltas of the journal
+     * newer than the blacklist file applied on top; the other countries are kept as they are. Only the lines of that country are normalized and
+     * sorted, so this is much cheaper than a full reload for all but the largest countries. The binary snapshot is left
+     * as it is.
+     *
+     * @param country Two-letter country code.
+     * @throws IOException              If the blacklist file cannot be read.
+     * @throws IllegalArgumentException If the country code is not two letters.
+     */
+    public synchronized void reload(String country) throws IOException {
+        String code = country == null ? null : country.toUpperCase(Locale.ROOT);
+        ShardedBlacklist.countryIndex(code);
+        Resource resource = blacklistResource();
+        if (!resource.exists()) {
+            throw new IOException("Blacklisted IBANs file not found: " + resource.getDescription());
+        }
+
+        IBANBlacklist shard;
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream()))) {
-            blacklistedIBANs = reader.lines()
-                    .map(String::trim)              // Trim whitespace
-                    .map(this::normalizeIBAN)       // Normalize IBANs
-                    .filter(iban -> !iban.isEmpty()) // Remove empty IBANs
-                    .collect(Collectors.toSet());   // Store in a HashSet
+            shard = load(reader, code);
+        }
+        BlacklistSnapshot current = replayJournal(snapshot.get().replaceCountry(code, shard),
+                stamp(resource::lastModified, 0), false);
+        snapshot.set(current);
+        log.info("Loaded {} blacklisted IBANs of {} from {}, {} in total (version {})", shard.size(), code,
+                resource.getDescription(), current.size(), current.version());
+    }
+
+    @FunctionalInterface
+    private interface ResourceStamp {
+        long get() throws IOException;
+    }
+
+    private static long stamp(ResourceStamp stamp, long unknown) {
+        try {
+            return stamp.get();
+        } catch (IOException e) {
+            return unknown;
+        }
+    }
+
+    /**
+     * Applies a delta to the current blacklist and swaps the result in. The delta is appended to the journal first, so
+     * that it is applied again after every later load of the blacklist, including the one at the next start.
+     * Each line holds one IBAN prefixed with {@code +} to add or {@code -} to remove it; lines without a prefix are
+     * added, blank lines and lines starting with {@code #} are ignored. A delta with a line holding no valid IBAN is
+     * rejected as a whole.
+     *
+     * @param delta The delta lines.
+     * @throws IOException              If the delta cannot be read or the journal cannot be written.
+     * @throws IllegalArgumentException If a line of the delta holds no valid IBAN.
+     */
+    public synchronized void applyDelta(Reader delta) throws IOException {
+        Map<String, Boolean> changes = readDelta(new BufferedReader(delta), false);
+        journal(changes);
+        BlacklistSnapshot current = withDelta(snapshot.get(), changes);
+        snapshot.set(current);
+        log.info("Applied blacklist delta, {} blacklisted IBANs (version {}, {} added and {} removed since last full load)",
+                current.size(), current.version(), current.addedSize(), current.removedSize());
+    }
+
+    /**
+     * Reads delta lines into the change of each IBAN, {@code true} to add and {@code false} to remove it.
+     *
+     * @param lastWins Whether a later line for an IBAN replaces an earlier one, as in the journal, or a removal wins.
+     * @throws IllegalArgumentException If a line holds no valid IBAN.
+     */
+    private static Map<String, Boolean> readDelta(BufferedReader reader, boolean lastWins) throws IOException {
+        IBANScanner scanner = new IBANScanner();
+        Map<String, Boolean> changes = new LinkedHashMap<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            boolean add = !line.startsWith("-");
+            boolean[] found = new boolean[1];
+            scanner.scan(line, (iban, length, start, end) -> {
+                String value = new String(iban, 0, length);
+                if (lastWins || !add) {
+                    changes.put(value, add);
+                } else {
+                    changes.putIfAbsent(value, true);
+                }
+                found[0] = true;
+                return false;
+            });
+            if (!found[0]) {
+                throw new IllegalArgumentException("Line " + lineNumber + " of the blacklist delta holds no valid IBAN: " + line);
+            }
+        }
+        return changes;
+    }
+
+    private static BlacklistSnapshot withDelta(BlacklistSnapshot snapshot, Map<String, Boolean> changes) {
+        IBANBlacklist.Builder additions = IBANBlacklist.builder();
+        IBANBlacklist.Builder removals = IBANBlacklist.builder();
+        changes.forEach((iban, add) -> (add ? additions : removals).add(iban));
+        return snapshot.withDelta(additions.build(), removals.build());
+    }
+
+    /**
+     * Appends the changes of a delta to the journal, each IBAN once, so that reading the journal with later lines
+     * winning gives the result of applying its deltas in order.
+     */
+    private void journal(Map<String, Boolean> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Path journal = deltaJournal();
+        if (journal == null) {
+            log.warn("Blacklist delta is not persisted and is lost on the next reload, set blacklisted.ibans.delta-journal");
+            return;
         }
+        StringBuilder entry = new StringBuilder(JOURNAL_ENTRY).append(Instant.now()).append('\n');
+        changes.forEach((iban, add) -> entry.append(add ? '+' : '-').append(iban).append('\n'));
+        Files.writeString(journal, entry, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
     }
 
     /**
-     * Normalizes an IBAN by removing all non-alphanumeric characters.
+     * Applies the deltas of the journal to a freshly loaded blacklist, which has none of them. Deltas applied before the
+     * blacklist file was last modified are skipped: the file was regenerated since and is expected to hold them, or
+     * to have dropped them on purpose.
      *
-     * @param iban The IBAN to normalize.
-     * @return The normalized IBAN.
+     * @param sourceModified When the blacklist file was last modified, 0 if unknown, which keeps every delta.
+     * @param compact        Whether to drop the skipped deltas from the journal, once the whole file was loaded.
      */
-    private String normalizeIBAN(String iban) {
-        // Allow spaces and ensure a valid IBAN format
-        Pattern ibanPattern = Pattern.compile("\\b([A-Z]{2}\\s?[0-9]{2}\\s?(?:[A-Z0-9]{1,4}\\s?){1,6}[A-Z0-9]{1,4})\\b");
-        Matcher matcher = ibanPattern.matcher(iban);
-        if (matcher.find()) {
-            String extractedIBAN = matcher.group(1);
-            return extractedIBAN.replaceAll("\\s+", ""); // Remove spaces to get the final IBAN
+    private BlacklistSnapshot replayJournal(BlacklistSnapshot loaded, long sourceModified, boolean compact) throws IOException {
+        Path journal = deltaJournal();
+        if (journal == null || !Files.exists(journal)) {
+            return loaded;
         }
-        return ""; // Return an empty string if no valid IBAN is found
+        StringBuilder kept = new StringBuilder();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal)) {
+            boolean keep = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(JOURNAL_ENTRY)) {
+                    keep = sourceModified <= 0 || !appliedAt(line).isBefore(Instant.ofEpochMilli(sourceModified));
+                    skipped += keep ? 0 : 1;
+                }
+                if (keep) {
+                    kept.append(line).append('\n');
+                }
+            }
+        }
+        if (skipped > 0 && compact) {
+            // Written next to the journal and moved over it, so a crash leaves either the old or the new journal
+            Path compacted = journal.resolveSibling(journal.getFileName() + ".tmp");
+            try {
+                Files.writeString(compacted, kept, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.SYNC);
+                Files.move(compacted, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Dropped {} deltas applied before the last change of the blacklist file from the journal {}",
+                        skipped, journal);
+            } catch (IOException e) {
+                // They are skipped again on the next load
+                log.warn("Failed to compact the blacklist delta journal {}: {}", journal, e.getMessage());
+            }
+        }
+        Map<String, Boolean> changes = readDelta(new BufferedReader(new StringReader(kept.toString())), true);
+        if (changes.isEmpty()) {
+            return loaded;
+        }
+        BlacklistSnapshot current = withDelta(loaded, changes);
+        log.info("Applied {} changes of the blacklist delta journal {}", changes.size(), journal);
+        return current;
     }
 
+    /**
+     * @return When the journal entry starting at the given line was applied, or the epoch if it cannot be read, so
+     *         that an entry of unknown age does not outlive a regenerated file.
+     */
+    private static Instant appliedAt(String line) {
+        try {
+            return Instant.parse(line.substring(JOURNAL_ENTRY.length()).trim());
+        } catch (DateTimeParseException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private Path deltaJournal() {
+        if (deltaJournalFile != null && !deltaJournalFile.isBlank()) {
+            return Path.of(deltaJournalFile);
+        }
+        if (externalBlacklistedIBANsFile != null && !externalBlacklistedIBANsFile.isBlank()) {
+            return Path.of(externalBlacklistedIBANsFile + ".journal");
+        }
+        return null;
+    }
+
+    /**
+     * @return The blacklist snapshot currently used by scans.
+     */
+    public BlacklistSnapshot snapshot() {
+        return snapshot.get();
+    }
 
     /**
      * Finds all blacklisted IBANs in the given text.
+     * <p>
+     * The text is scanned in a single pass. Only IBANs with a valid country length and checksum are looked up,
+     * and a String is only created for IBANs that are blacklisted.
      *
      * @param text The text to search for IBANs.
      * @return A set of blacklisted IBANs found in the text.
      */
-    public Set<String> findBlacklistedIBANs(String text) {
-        Matcher matcher = IBAN_PATTERN.matcher(text);
-        return matcher.results()
-                .map(match -> match.group(1)) // Extract the IBAN (group 1)
-                .map(this::normalizeIBAN) // Normalize the extracted IBAN
-                .filter(iban -> !iban.isEmpty()) // Filter out invalid IBANs
-                .filter(blacklistedIBANs::contains) // Check if the IBAN is in the blacklisted set
-                .collect(Collectors.toSet());
-    }
-
-    // Updated IBAN pattern to capture only valid IBANs
-    private static final Pattern IBAN_PATTERN = Pattern.compile("\\b([A-Z]{2}\\s?[0-9]{2}\\s?[A-Z0-9\\s]{1,30})\\b");
+    public Set<String> findBlacklistedIBANs(CharSequence text) {
+        return findBlacklistedIBANs(text, candidates -> {});
+    }
+
+    /**
+     * Finds all blacklisted IBANs in the given text, like {@link #findBlacklistedIBANs(CharSequence)}, and counts the
+     * valid IBANs seen on the way.
+     *
+     * @param text            The text to search for IBANs.
+     * @param candidatesFound Receives the number of valid IBANs in the text, blacklisted or not, once it is scanned.
+     * @return A set of blacklisted IBANs found in the text.
+     */
+    public Set<String> findBlacklistedIBANs(CharSequence text, IntConsumer candidatesFound) {
+        BlacklistSnapshot blacklist = snapshot.get();
+        Set<String> result = new HashSet<>();
+        int[] candidates = {0};
+        new IBANScanner().scan(text, (iban, length, start, end) -> {
+            candidates[0]++;
+            if (blacklist.contains(iban, length)) {
+                result.add(new String(iban, 0, length));
+            }
+            return true;
+        });
+        candidatesFound.accept(candidates[0]);
+        return result;
+    }
+
+    /**
+     * Creates a matcher for scanning a document page by page against the current blacklist.
+     *
+     * @param stopAtFirstHit Whether the matcher should stop at the first blacklisted IBAN.
+     * @return A new matcher bound to the current blacklist snapshot.
+     */
+    public BlacklistMatcher newMatcher(boolean stopAtFirstHit) {
+        return snapshot.get().newMatcher(stopAtFirstHit);
+    }
+
+    private Resource blacklistResource() {
+        if (externalBlacklistedIBANsFile != null && !externalBlacklistedIBANsFile.isBlank()) {
+            return new FileSystemResource(externalBlacklistedIBANsFile);
+        }
+        return new ClassPathResource(blacklistedIBANsFile);
+    }
+
+    /**
+     * @param country Upper case country code of the lines to load, or {@code null} for all lines.
+     */
+    private static IBANBlacklist load(BufferedReader reader, String country) throws IOException {
+        IBANScanner scanner = new IBANScanner();
+        IBANBlacklist.Builder builder = IBANBlacklist.builder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (country != null && !line.contains(country)) {
+                continue; // Cheaper than scanning the lines of other countries
+            }
+            // Pack the first valid IBAN of each line straight from the scanner buffer
+            scanner.scan(line, (iban, length, start, end) -> {
+                if (country == null || (iban[0] == country.charAt(0) && iban[1] == country.charAt(1))) {
+                    builder.add(iban, length);
+                }
+                return false;
+            });
+        }
+        return builder.build();
+    }
 }
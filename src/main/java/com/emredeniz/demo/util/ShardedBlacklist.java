@@ -0,0 +1,211 @@
+package com.emredeniz.demo.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable blacklist partitioned into one {@link IBANBlacklist} per country code, each behind an
+ * {@link IBANBloomFilter}.
+ * <p>
+ * A lookup goes straight to the shard of the IBAN's country, so an IBAN of a country without blacklisted entries is
+ * rejected without touching anything else. For the others the filter of the shard answers from one cache line, and
+ * only about 1% of the IBANs that are not blacklisted get through it to the binary search over the entries. Shards
+ * can be replaced one at a time, e.g. to reload the blacklist of a single country; all other shards and their
+ * filters are shared with the previous instance.
+ */
+public final class ShardedBlacklist {
+
+    static final int COUNTRIES = 26 * 26;
+
+    private static final ShardedBlacklist EMPTY =
+            new ShardedBlacklist(new IBANBlacklist[COUNTRIES], new IBANBloomFilter[COUNTRIES]);
+
+    // Shard and its filter per country index, both null if the country has no entries
+    private final IBANBlacklist[] shards;
+    private final IBANBloomFilter[] filters;
+    private final int size;
+
+    private ShardedBlacklist(IBANBlacklist[] shards, IBANBloomFilter[] filters) {
+        this.shards = shards;
+        this.filters = filters;
+        int total = 0;
+        for (IBANBlacklist shard : shards) {
+            total += shard == null ? 0 : shard.size();
+        }
+        this.size = total;
+    }
+
+    public static ShardedBlacklist empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Splits a blacklist by country. Since its entries are sorted, those of a country are adjacent and are copied
+     * into their shard in one piece. Entries that do not start with a country code can never match and are left out.
+     *
+     * @param blacklist The blacklist to split.
+     * @return The sharded blacklist.
+     */
+    public static ShardedBlacklist of(IBANBlacklist blacklist) {
+        if (blacklist.size() == 0) {
+            return EMPTY;
+        }
+        IBANBlacklist[] shards = new IBANBlacklist[COUNTRIES];
+        IBANBloomFilter[] filters = new IBANBloomFilter[COUNTRIES];
+        int start = blacklist.countryStart(0);
+        for (int country = 0; country < COUNTRIES; country++) {
+            int end = blacklist.countryStart(country + 1);
+            set(shards, filters, country, blacklist.range(start, end));
+            start = end;
+        }
+        return new ShardedBlacklist(shards, filters);
+    }
+
+    /**
+     * Checks whether a normalized IBAN is blacklisted.
+     *
+     * @param iban   Buffer holding the normalized IBAN.
+     * @param length Number of valid characters in the buffer.
+     * @return {@code true} if the IBAN is in the blacklist.
+     */
+    public boolean contains(char[] iban, int length) {
+        if (length < 2 || length > IBANScanner.MAX_IBAN_LENGTH || !isUpperLetter(iban[0]) || !isUpperLetter(iban[1])) {
+            return false;
+        }
+        int country = IBANScanner.countryIndex(iban[0], iban[1]);
+        if (shards[country] == null) {
+            return false;
+        }
+        return contains(country, IBANBlacklist.pack(iban, length, 0), IBANBlacklist.pack(iban, length, 1),
+                IBANBlacklist.pack(iban, length, 2));
+    }
+
+    /**
+     * Asks the Bloom filter of the IBAN's shard only, without searching the entries.
+     *
+     * @param iban   Buffer holding the normalized IBAN.
+     * @param length Number of valid characters in the buffer.
+     * @return {@code false} if the IBAN is definitely not blacklisted, {@code true} if it may be.
+     */
+    public boolean mightContain(char[] iban, int length) {
+        if (length < 2 || length > IBANScanner.MAX_IBAN_LENGTH || !isUpperLetter(iban[0]) || !isUpperLetter(iban[1])) {
+            return false;
+        }
+        int country = IBANScanner.countryIndex(iban[0], iban[1]);
+        return shards[country] != null && filters[country].mightContain(IBANBlacklist.pack(iban, length, 0),
+                IBANBlacklist.pack(iban, length, 1), IBANBlacklist.pack(iban, length, 2));
+    }
+
+    boolean contains(long w0, long w1, long w2) {
+        int country = IBANBlacklist.countryIndex(w0);
+        return country >= 0 && shards[country] != null && contains(country, w0, w1, w2);
+    }
+
+    private boolean contains(int country, long w0, long w1, long w2) {
+        return filters[country].mightContain(w0, w1, w2) && shards[country].contains(w0, w1, w2);
+    }
+
+    /**
+     * @param country Two-letter country code.
+     * @return The entries of the given country.
+     */
+    public IBANBlacklist shard(String country) {
+        IBANBlacklist shard = shards[countryIndex(country)];
+        return shard == null ? IBANBlacklist.empty() : shard;
+    }
+
+    /**
+     * Replaces the entries of one country.
+     *
+     * @param country Two-letter country code.
+     * @param shard   The new entries of the country; entries of other countries are ignored.
+     * @return The new blacklist; this instance is left unchanged.
+     */
+    public ShardedBlacklist withShard(String country, IBANBlacklist shard) {
+        IBANBlacklist[] replacedShards = shards.clone();
+        IBANBloomFilter[] replacedFilters = filters.clone();
+        set(replacedShards, replacedFilters, countryIndex(country), shard.country(country));
+        return new ShardedBlacklist(replacedShards, replacedFilters);
+    }
+
+    /**
+     * Creates a new blacklist with the additions merged in and the removals taken out, see
+     * {@link IBANBlacklist#with(IBANBlacklist, IBANBlacklist)}. Only the shards of the countries they touch are
+     * rebuilt.
+     *
+     * @param additions IBANs to add.
+     * @param removals  IBANs to remove, applied after the additions.
+     * @return The merged blacklist; this instance is left unchanged.
+     */
+    public ShardedBlacklist with(IBANBlacklist additions, IBANBlacklist removals) {
+        if (additions.size() == 0 && removals.size() == 0) {
+            return this;
+        }
+        IBANBlacklist[] mergedShards = shards.clone();
+        IBANBloomFilter[] mergedFilters = filters.clone();
+        int additionStart = additions.countryStart(0);
+        int removalStart = removals.countryStart(0);
+        for (int country = 0; country < COUNTRIES; country++) {
+            int additionEnd = additions.countryStart(country + 1);
+            int removalEnd = removals.countryStart(country + 1);
+            if (additionEnd > additionStart || removalEnd > removalStart) {
+                IBANBlacklist shard = shards[country] == null ? IBANBlacklist.empty() : shards[country];
+                set(mergedShards, mergedFilters, country,
+                        shard.with(additions.range(additionStart, additionEnd), removals.range(removalStart, removalEnd)));
+            }
+            additionStart = additionEnd;
+            removalStart = removalEnd;
+        }
+        return new ShardedBlacklist(mergedShards, mergedFilters);
+    }
+
+    /**
+     * @return The number of IBANs in all shards.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The approximate number of heap bytes used by all shards and their filters.
+     */
+    public long sizeInBytes() {
+        long bytes = 16L + 2L * COUNTRIES * 4;
+        for (int country = 0; country < COUNTRIES; country++) {
+            if (shards[country] != null) {
+                bytes += shards[country].sizeInBytes() + filters[country].sizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The number of countries with at least one entry.
+     */
+    public int countries() {
+        return (int) Arrays.stream(shards).filter(shard -> shard != null).count();
+    }
+
+    /**
+     * @param country Two-letter country code, case-insensitive.
+     * @return The index of the country's shard.
+     * @throws IllegalArgumentException If the code is not two letters.
+     */
+    static int countryIndex(String country) {
+        if (country == null || country.length() != 2
+                || !isUpperLetter(Character.toUpperCase(country.charAt(0)))
+                || !isUpperLetter(Character.toUpperCase(country.charAt(1)))) {
+            throw new IllegalArgumentException("Not a two-letter country code: " + country);
+        }
+        return IBANScanner.countryIndex(Character.toUpperCase(country.charAt(0)), Character.toUpperCase(country.charAt(1)));
+    }
+
+    private static void set(IBANBlacklist[] shards, IBANBloomFilter[] filters, int country, IBANBlacklist shard) {
+        boolean empty = shard.size() == 0;
+        shards[country] = empty ? null : shard;
+        filters[country] = empty ? null : new IBANBloomFilter(shard.entries());
+    }
+
+    private static boolean isUpperLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+}
@@ -0,0 +1,96 @@
+package com.emredeniz.demo.controller;
+
+import com.emredeniz.demo.service.BlacklistReloadService;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANValidator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+public class BlacklistAdminControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Mock
+    private BlacklistReloadService blacklistReloadService;
+
+    @Mock
+    private IBANValidator ibanValidator;
+
+    @InjectMocks
+    private BlacklistAdminController blacklistAdminController;
+
+    @BeforeEach
+    public void setup() {
+        ReflectionTestUtils.setField(blacklistAdminController, "adminEnabled", true);
+        mockMvc = MockMvcBuilders.standaloneSetup(blacklistAdminController).build();
+    }
+
+    @Test
+    public void testApplyDelta_Disabled() throws Exception {
+        ReflectionTestUtils.setField(blacklistAdminController, "adminEnabled", false);
+
+        mockMvc.perform(post("/api/admin/blacklist/delta")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("+DE89370400440532013000\n"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/admin/blacklist/reload"))
+                .andExpect(status().isForbidden());
+        verifyNoInteractions(blacklistReloadService);
+    }
+
+    @Test
+    public void testApplyDelta_Applied() throws Exception {
+        when(blacklistReloadService.applyDeltaAsync(anyString()))
+                .thenReturn(CompletableFuture.completedFuture(BlacklistSnapshot.empty()));
+
+        mockMvc.perform(post("/api/admin/blacklist/delta")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("+DE89370400440532013000\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Blacklist delta applied, version 0."));
+    }
+
+    @Test
+    public void testApplyDelta_Rejected() throws Exception {
+        when(blacklistReloadService.applyDeltaAsync(anyString())).thenReturn(CompletableFuture.failedFuture(
+                new IllegalArgumentException("Line 1 of the blacklist delta holds no valid IBAN: +DE00")));
+
+        mockMvc.perform(post("/api/admin/blacklist/delta")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("+DE00\n"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Line 1 of the blacklist delta holds no valid IBAN: +DE00"));
+    }
+
+    @Test
+    public void testApplyDelta_JournalNotWritten() throws Exception {
+        when(blacklistReloadService.applyDeltaAsync(anyString())).thenReturn(CompletableFuture.failedFuture(
+                new UncheckedIOException(new IOException("No space left on device"))));
+
+        mockMvc.perform(post("/api/admin/blacklist/delta")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("+DE89370400440532013000\n"))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.message").value("Failed to apply blacklist delta: No space left on device"));
+    }
+}
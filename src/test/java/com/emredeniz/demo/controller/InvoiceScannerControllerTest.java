@@ -1,21 +1,45 @@
 package com.emredeniz.demo.controller;
 
+import com.emredeniz.demo.exception.PDFDownloadException;
+import com.emredeniz.demo.model.BatchScanResult;
+import com.emredeniz.demo.model.ExtractionMode;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.service.BatchScanService;
 import com.emredeniz.demo.service.InvoiceScannerService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -23,11 +47,19 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ExtendWith(MockitoExtension.class)
 public class InvoiceScannerControllerTest {
 
+    private static final ScanOptions DEFAULT_OPTIONS = new ScanOptions(null, false);
+
     private MockMvc mockMvc;
 
     @Mock
     private InvoiceScannerService invoiceScannerService;
 
+    @Mock
+    private BatchScanService batchScanService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @InjectMocks
     private InvoiceScannerController invoiceScannerController;
 
@@ -38,7 +70,7 @@ public class InvoiceScannerControllerTest {
 
     @Test
     public void testScanInvoice_NoBlacklistedIBANs() throws Exception {
-        when(invoiceScannerService.scanInvoiceForBlacklistedIBANs(anyString())).thenReturn(Set.of());
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS))).thenReturn(result(Set.of()));
 
         mockMvc.perform(post("/api/invoices/scan")
                         .param("url", "classpath:example_invoice.pdf"))
@@ -50,8 +82,8 @@ public class InvoiceScannerControllerTest {
 
     @Test
     public void testScanInvoice_BlacklistedIBANsFound() throws Exception {
-        when(invoiceScannerService.scanInvoiceForBlacklistedIBANs(anyString()))
-                .thenReturn(Set.of("DE89370400440532013000", "GB29NWBK60161331926819"));
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS)))
+                .thenReturn(result(Set.of("DE89370400440532013000", "GB29NWBK60161331926819")));
 
         mockMvc.perform(post("/api/invoices/scan")
                         .param("url", "classpath:example_invoice.pdf"))
@@ -66,7 +98,7 @@ public class InvoiceScannerControllerTest {
 
     @Test
     public void testScanInvoice_InvalidPDFUrl() throws Exception {
-        when(invoiceScannerService.scanInvoiceForBlacklistedIBANs(anyString()))
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS)))
                 .thenThrow(new IOException("Failed to load PDF document from URL: classpath:invalid_invoice.pdf"));
 
         mockMvc.perform(post("/api/invoices/scan")
@@ -76,9 +108,29 @@ public class InvoiceScannerControllerTest {
                 .andExpect(jsonPath("$.status").value(500));
     }
 
+    @Test
+    public void testScanInvoice_DownloadFailuresKeepTheirStatus() throws Exception {
+        Map<PDFDownloadException.Reason, Integer> statuses = Map.of(
+                PDFDownloadException.Reason.NOT_FOUND, 404,
+                PDFDownloadException.Reason.HTTP_ERROR, 502,
+                PDFDownloadException.Reason.TOO_LARGE, 413,
+                PDFDownloadException.Reason.TIMEOUT, 504,
+                PDFDownloadException.Reason.TOO_MANY_REQUESTS, 503);
+        for (Map.Entry<PDFDownloadException.Reason, Integer> entry : statuses.entrySet()) {
+            when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS)))
+                    .thenThrow(new PDFDownloadException(entry.getKey(), "Download failed"));
+
+            mockMvc.perform(post("/api/invoices/scan")
+                            .param("url", "https://example.com/invoice.pdf"))
+                    .andExpect(status().is(entry.getValue()))
+                    .andExpect(jsonPath("$.message").value("Download failed"))
+                    .andExpect(jsonPath("$.status").value(entry.getValue()));
+        }
+    }
+
     @Test
     public void testScanInvoice_EmptyPDF() throws Exception {
-        when(invoiceScannerService.scanInvoiceForBlacklistedIBANs(anyString())).thenReturn(Set.of());
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS))).thenReturn(result(Set.of()));
 
         mockMvc.perform(post("/api/invoices/scan")
                         .param("url", "classpath:empty_invoice.pdf"))
@@ -87,4 +139,184 @@ public class InvoiceScannerControllerTest {
                 .andExpect(jsonPath("$.blacklistedIbans").isEmpty())
                 .andExpect(jsonPath("$.status").value(200));
     }
+
+    @Test
+    public void testScanInvoice_PagesNotRecognized() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS)))
+                .thenReturn(result(Set.of()).withPagesNotRecognized(2));
+
+        mockMvc.perform(post("/api/invoices/scan")
+                        .param("url", "classpath:scanned_invoice.pdf"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value(
+                        "No blacklisted IBANs found on the readable pages. 2 pages without text could not be recognized and were not scanned."))
+                .andExpect(jsonPath("$.blacklistedIbans").isEmpty())
+                .andExpect(jsonPath("$.pagesNotRecognized").value(2));
+
+        // A complete scan does not report the field at all
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS))).thenReturn(result(Set.of()));
+        mockMvc.perform(post("/api/invoices/scan")
+                        .param("url", "classpath:example_invoice.pdf"))
+                .andExpect(jsonPath("$.pagesNotRecognized").doesNotExist());
+    }
+
+    @Test
+    public void testScanInvoice_StopAtFirstHitWithPageHits() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), eq(new ScanOptions(null, true))))
+                .thenReturn(new ScanResult(Set.of("DE89370400440532013000"), Map.of(3, Set.of("DE89370400440532013000")), 3));
+
+        mockMvc.perform(post("/api/invoices/scan")
+                        .param("url", "classpath:example_invoice.pdf")
+                        .param("stopAtFirstHit", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("There is 1 blacklisted IBAN found in the invoice."))
+                .andExpect(jsonPath("$.blacklistedIbans[0]").value("DE89370400440532013000"))
+                .andExpect(jsonPath("$.pageHits.3[0]").value("DE89370400440532013000"))
+                .andExpect(jsonPath("$.status").value(200));
+    }
+
+    @Test
+    public void testScanInvoice_TimingsKeepConfiguredMode() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), eq(DEFAULT_OPTIONS), any())).thenReturn(result(Set.of()));
+
+        mockMvc.perform(post("/api/invoices/scan")
+                        .param("url", "classpath:example_invoice.pdf")
+                        .param("timings", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("No blacklisted IBANs found."))
+                .andExpect(jsonPath("$.timings").isMap());
+    }
+
+    @Test
+    public void testScanInvoice_MemoryModeKeepsConfiguredMode() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), eq(new ScanOptions(null, false, MemoryMode.TEMP_FILE))))
+                .thenReturn(result(Set.of("DE89370400440532013000")));
+
+        mockMvc.perform(post("/api/invoices/scan")
+                        .param("url", "classpath:example_invoice.pdf")
+                        .param("memoryMode", "TEMP_FILE"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("There is 1 blacklisted IBAN found in the invoice."));
+    }
+
+    @Test
+    public void testScanUpload_RawBody() throws Exception {
+        byte[] pdf = "%PDF-1.7 raw".getBytes(StandardCharsets.US_ASCII);
+        when(invoiceScannerService.scanUpload(any(), eq((long) pdf.length), eq(new ScanOptions(ExtractionMode.STREAMING, false)), any()))
+                .thenAnswer(invocation -> {
+                    assertArrayEquals(pdf, invocation.<InputStream>getArgument(0).readAllBytes());
+                    return new ScanResult(Set.of("DE89370400440532013000"), Map.of(1, Set.of("DE89370400440532013000")), 1);
+                });
+
+        mockMvc.perform(post("/api/invoices/scan/upload")
+                        .contentType(MediaType.APPLICATION_PDF)
+                        .param("mode", "STREAMING")
+                        .content(pdf))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("There is 1 blacklisted IBAN found in the invoice."))
+                .andExpect(jsonPath("$.pageHits.1[0]").value("DE89370400440532013000"))
+                .andExpect(jsonPath("$.timings").doesNotExist());
+    }
+
+    @Test
+    public void testScanUpload_Multipart() throws Exception {
+        byte[] pdf = "%PDF-1.7 multipart".getBytes(StandardCharsets.US_ASCII);
+        when(invoiceScannerService.scanUpload(any(MultipartFile.class), eq(new ScanOptions(null, false)), any()))
+                .thenAnswer(invocation -> {
+                    assertArrayEquals(pdf, invocation.<MultipartFile>getArgument(0).getBytes());
+                    return result(Set.of());
+                });
+
+        mockMvc.perform(multipart("/api/invoices/scan/upload")
+                        .file(new MockMultipartFile("file", "invoice.pdf", MediaType.APPLICATION_PDF_VALUE, pdf))
+                        .param("timings", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("No blacklisted IBANs found."))
+                .andExpect(jsonPath("$.timings").isMap());
+    }
+
+    @Test
+    public void testScanUpload_TooLarge() throws Exception {
+        PDFDownloadException tooLarge = new PDFDownloadException(PDFDownloadException.Reason.TOO_LARGE,
+                "Uploaded PDF exceeds the maximum size of 100 MB");
+        when(invoiceScannerService.scanUpload(any(InputStream.class), anyLong(), any(), any())).thenThrow(tooLarge);
+        when(invoiceScannerService.scanUpload(any(MultipartFile.class), any(), any())).thenThrow(tooLarge);
+
+        mockMvc.perform(post("/api/invoices/scan/upload")
+                        .contentType(MediaType.APPLICATION_PDF)
+                        .content(new byte[16]))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(jsonPath("$.message").value("Uploaded PDF exceeds the maximum size of 100 MB"))
+                .andExpect(jsonPath("$.status").value(413));
+
+        mockMvc.perform(multipart("/api/invoices/scan/upload")
+                        .file(new MockMultipartFile("file", "invoice.pdf", MediaType.APPLICATION_PDF_VALUE, new byte[16])))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(jsonPath("$.status").value(413));
+    }
+
+    @Test
+    public void testScanUpload_OtherFailure() throws Exception {
+        when(invoiceScannerService.scanUpload(any(InputStream.class), anyLong(), any(), any()))
+                .thenThrow(new IOException("Failed to load PDF document from upload"));
+
+        mockMvc.perform(post("/api/invoices/scan/upload")
+                        .contentType(MediaType.APPLICATION_PDF)
+                        .content(new byte[16]))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.message").value("Failed to load PDF document from upload"));
+    }
+
+    @Test
+    public void testScanInvoices_StreamsOneLinePerInvoice() throws Exception {
+        doAnswer(invocation -> {
+            Iterator<String> urls = invocation.getArgument(0);
+            BatchScanService.ResultSink sink = invocation.getArgument(2);
+            sink.accept(new BatchScanResult(urls.next(), new ScanResult(Set.of("DE89370400440532013000"), Map.of(), 1), null));
+            sink.accept(new BatchScanResult(urls.next(), null, "File not found in classpath: missing.pdf"));
+            return null;
+        }).when(batchScanService).scanAll(any(), any(), any());
+
+        MvcResult result = mockMvc.perform(post("/api/invoices/scan/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"urls\": [\"classpath:example_invoice.pdf\", \"classpath:missing.pdf\"]}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(Matchers.allOf(
+                        Matchers.containsString("\"blacklistedIbans\":[\"DE89370400440532013000\"]"),
+                        Matchers.containsString("\"url\":\"classpath:example_invoice.pdf\""),
+                        Matchers.containsString("\"status\":500"),
+                        Matchers.containsString("\"url\":\"classpath:missing.pdf\""),
+                        Matchers.containsString("\"error\":\"File not found in classpath: missing.pdf\""))));
+    }
+
+    @Test
+    public void testScanInvoiceStream_InvalidLinesFailOnlyThemselves() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenReturn(result(Set.of("DE89370400440532013000")));
+        MockMvc batchMockMvc = MockMvcBuilders.standaloneSetup(new InvoiceScannerController(invoiceScannerService,
+                new BatchScanService(invoiceScannerService), objectMapper)).build();
+
+        MvcResult result = batchMockMvc.perform(post("/api/invoices/scan/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("\"classpath:first.pdf\"\n{\"url\": \"classpath:\n\n{\"file\": \"invoice.pdf\"}\n{\"url\": \"classpath:last.pdf\"}\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        batchMockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(Matchers.allOf(
+                        Matchers.containsString("\"url\":\"classpath:first.pdf\""),
+                        Matchers.containsString("\"url\":\"classpath:last.pdf\""),
+                        Matchers.containsString("\"status\":400"),
+                        Matchers.containsString("\"error\":\"Line 2 is not valid JSON: "),
+                        Matchers.containsString("\"error\":\"Line 4 holds no URL"))));
+    }
+
+    private static ScanResult result(Set<String> blacklistedIBANs) {
+        return new ScanResult(blacklistedIBANs, Map.of(), 1);
+    }
 }
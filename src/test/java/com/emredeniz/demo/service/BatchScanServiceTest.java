@@ -0,0 +1,127 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.BatchScanResult;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class BatchScanServiceTest {
+
+    private static final ScanOptions OPTIONS = new ScanOptions(null, false);
+    private static final ScanResult RESULT = new ScanResult(Set.of(), Map.of(), 1);
+
+    @Mock
+    private InvoiceScannerService invoiceScannerService;
+
+    @Test
+    public void testScanAll_BoundsInvoicesInFlight() throws IOException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return RESULT;
+        });
+        // Counts how far the input was read ahead of the results
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<String> urls = IntStream.range(0, 20).mapToObj(i -> {
+            pulled.incrementAndGet();
+            return "invoice-" + i;
+        }).iterator();
+
+        List<BatchScanResult> results = new ArrayList<>();
+        service(3).scanAll(urls, OPTIONS, result -> {
+            assertTrue(pulled.get() <= results.size() + 3);
+            results.add(result);
+        });
+
+        assertEquals(20, results.size());
+        assertEquals(3, maxInFlight.get());
+        assertTrue(results.stream().allMatch(result -> result.result() == RESULT));
+    }
+
+    @Test
+    public void testScanAll_SinkFailureCancelsScansInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenAnswer(invocation -> {
+            if (invocation.<String>getArgument(0).equals("fast")) {
+                started.await();
+                return RESULT;
+            }
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return RESULT;
+        });
+
+        started.countDown();
+        IOException exception = assertThrows(IOException.class, () -> service(3).scanAll(
+                List.of("fast", "slow-1", "slow-2", "never").iterator(), OPTIONS, result -> {
+                    throw new IOException("Broken pipe");
+                }));
+
+        assertEquals("Broken pipe", exception.getMessage());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testScanAll_InvalidEntryFailsOnlyItself() throws IOException {
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenReturn(RESULT);
+        Iterator<String> urls = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < 3;
+            }
+
+            @Override
+            public String next() {
+                if (next++ == 1) {
+                    throw new IllegalArgumentException("Line 2 holds no URL");
+                }
+                return "invoice-" + next;
+            }
+        };
+
+        List<BatchScanResult> results = new ArrayList<>();
+        service(2).scanAll(urls, OPTIONS, results::add);
+
+        assertEquals(3, results.size());
+        assertTrue(results.contains(new BatchScanResult(null, null, "Line 2 holds no URL")));
+        assertEquals(2, results.stream().filter(result -> result.result() == RESULT).count());
+    }
+
+    private BatchScanService service(int maxConcurrency) {
+        BatchScanService service = new BatchScanService(invoiceScannerService);
+        ReflectionTestUtils.setField(service, "maxConcurrency", maxConcurrency);
+        return service;
+    }
+}
@@ -0,0 +1,166 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.util.IBANValidator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlacklistReloadServiceTest {
+
+    private static final String TEXT = "DE89370400440532013000 DE15300606010505780780 GB33BUKB20201555555555 GB82WEST12345698765432";
+
+    @TempDir
+    private Path directory;
+
+    private Path file;
+    private BlacklistReloadService service;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        file = directory.resolve("blacklist.txt");
+        Files.writeString(file, "DE89370400440532013000\nGB33 BUKB 2020 1555 5555 55\n");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testApplyDeltaAsync_KeptAcrossReloadsAndRestart() throws Exception {
+        IBANValidator validator = validator();
+        service = service(validator, false);
+
+        service.applyDeltaAsync("+DE15 3006 0601 0505 7807 80\n-GB33BUKB20201555555555\n").get();
+        Set<String> expected = Set.of("DE89370400440532013000", "DE15300606010505780780");
+        assertEquals(expected, validator.findBlacklistedIBANs(TEXT));
+
+        service.reloadAsync().get();
+        assertEquals(expected, validator.findBlacklistedIBANs(TEXT));
+        service.reloadAsync("GB").get();
+        assertEquals(expected, validator.findBlacklistedIBANs(TEXT));
+
+        // A later delta wins over an earlier one
+        service.applyDeltaAsync("+GB33BUKB20201555555555\n").get();
+        assertEquals(3, validator.findBlacklistedIBANs(TEXT).size());
+
+        IBANValidator restarted = validator();
+        assertEquals(Set.of("DE89370400440532013000", "DE15300606010505780780", "GB33BUKB20201555555555"),
+                restarted.findBlacklistedIBANs(TEXT));
+        assertEquals(1, restarted.snapshot().addedSize());
+        assertTrue(Files.exists(directory.resolve("blacklist.txt.journal")));
+    }
+
+    @Test
+    public void testStart_AppliesDeltaFiles() throws Exception {
+        // Dropped while the application was down
+        Files.writeString(directory.resolve("first.delta"), "+GB82WEST12345698765432\n");
+        IBANValidator validator = validator();
+        service = service(validator, true);
+
+        awaitApplied(directory.resolve("first.delta"));
+        assertTrue(validator.findBlacklistedIBANs(TEXT).contains("GB82WEST12345698765432"));
+
+        // Dropped while watching
+        Files.writeString(directory.resolve("second.delta"), "-DE89370400440532013000\n");
+        awaitApplied(directory.resolve("second.delta"));
+        assertEquals(Set.of("GB33BUKB20201555555555", "GB82WEST12345698765432"), validator.findBlacklistedIBANs(TEXT));
+
+        // Neither delta is applied again at the next start, both come from the journal
+        service.stop();
+        IBANValidator restarted = validator();
+        service = service(restarted, true);
+        assertEquals(Set.of("GB33BUKB20201555555555", "GB82WEST12345698765432"), restarted.findBlacklistedIBANs(TEXT));
+    }
+
+    @Test
+    public void testReloadAsync_DropsDeltasOlderThanRegeneratedFile() throws Exception {
+        IBANValidator validator = validator();
+        service = service(validator, false);
+        service.applyDeltaAsync("+DE15300606010505780780\n").get();
+        Thread.sleep(10);
+
+        // Regenerated upstream without the added IBAN and without GB33
+        Files.writeString(file, "DE89370400440532013000\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        Thread.sleep(10);
+        service.applyDeltaAsync("+GB82WEST12345698765432\n").get();
+
+        service.reloadAsync().get();
+        assertEquals(Set.of("DE89370400440532013000", "GB82WEST12345698765432"), validator.findBlacklistedIBANs(TEXT));
+        String journal = Files.readString(directory.resolve("blacklist.txt.journal"));
+        assertFalse(journal.contains("DE15300606010505780780"));
+        assertTrue(journal.contains("+GB82WEST12345698765432"));
+
+        IBANValidator restarted = validator();
+        assertEquals(Set.of("DE89370400440532013000", "GB82WEST12345698765432"), restarted.findBlacklistedIBANs(TEXT));
+    }
+
+    @Test
+    public void testApplyDeltaAsync_RejectsDeltaWithoutValidIBAN() throws Exception {
+        IBANValidator validator = validator();
+        service = service(validator, false);
+        long version = validator.snapshot().version();
+
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> service.applyDeltaAsync("+DE15300606010505780780\n+DE15300606010505780781\n").get());
+
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        assertEquals("Line 2 of the blacklist delta holds no valid IBAN: +DE15300606010505780781", exception.getCause().getMessage());
+        // Nothing of the delta is applied or journaled
+        assertEquals(version, validator.snapshot().version());
+        assertFalse(Files.exists(directory.resolve("blacklist.txt.journal")));
+    }
+
+    @Test
+    public void testStart_RejectsDeltaFileWithoutValidIBAN() throws Exception {
+        Files.writeString(directory.resolve("broken.delta"), "+GB82WEST12345698765432\nnot an IBAN\n");
+        IBANValidator validator = validator();
+        service = service(validator, true);
+
+        Path rejected = directory.resolve("broken.delta.rejected");
+        for (int i = 0; i < 100 && !Files.exists(rejected); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(Files.exists(rejected));
+        assertFalse(validator.findBlacklistedIBANs(TEXT).contains("GB82WEST12345698765432"));
+    }
+
+    private IBANValidator validator() throws IOException {
+        IBANValidator validator = new IBANValidator();
+        ReflectionTestUtils.setField(validator, "externalBlacklistedIBANsFile", file.toString());
+        validator.init();
+        return validator;
+    }
+
+    private BlacklistReloadService service(IBANValidator validator, boolean watch) throws IOException {
+        BlacklistReloadService reloadService = new BlacklistReloadService(validator);
+        ReflectionTestUtils.setField(reloadService, "externalBlacklistedIBANsFile", file.toString());
+        ReflectionTestUtils.setField(reloadService, "watch", watch);
+        reloadService.start();
+        return reloadService;
+    }
+
+    private static void awaitApplied(Path delta) throws InterruptedException {
+        Path applied = delta.resolveSibling(delta.getFileName() + ".applied");
+        for (int i = 0; i < 100 && !Files.exists(applied); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(Files.exists(applied), "Not applied: " + delta);
+        assertFalse(Files.exists(delta));
+    }
+}
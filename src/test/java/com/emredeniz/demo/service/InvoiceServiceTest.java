@@ -1,17 +1,22 @@
 package com.emredeniz.demo.service;
 
+import com.emredeniz.demo.model.MemoryMode;
 import com.emredeniz.demo.util.IBANValidator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -24,6 +29,22 @@ public class InvoiceServiceTest {
     @Mock
     private IBANValidator ibanValidator;
 
+    @Mock
+    private SharedFontCache sharedFontCache;
+
+    // Returns no OCR session, so pages without text are skipped
+    @Mock
+    private OcrFallback ocrFallback;
+
+    // Permits are refined with the page count of the loaded document, so they have to be real
+    @Spy
+    private StageLimiter stageLimiter = stageLimiter();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Spy
+    private ScanMetrics scanMetrics = new ScanMetrics(registry);
+
     @InjectMocks
     private InvoiceScannerService invoiceScannerService;
 
@@ -31,10 +52,12 @@ public class InvoiceServiceTest {
     public void testScanInvoiceForBlacklistedIBANs_NoBlacklistedIBANs() throws IOException {
         // Mock the PDF document
         PDDocument mockDocument = new PDDocument();
-        when(pdfDownloaderService.downloadPDF(anyString())).thenReturn(mockDocument);
+        DownloadedPDF pdf = mock(DownloadedPDF.class);
+        when(pdf.load()).thenReturn(mockDocument);
+        when(pdfDownloaderService.download(anyString(), any())).thenReturn(pdf);
 
         // Mock the IBAN validator to return an empty list (no blacklisted IBANs)
-        when(ibanValidator.findBlacklistedIBANs(anyString())).thenReturn(Set.of());
+        when(ibanValidator.findBlacklistedIBANs(anyString(), any())).thenReturn(Set.of());
 
         // Test the method
         String url = "classpath:example_invoice.pdf";
@@ -44,8 +67,8 @@ public class InvoiceServiceTest {
         assertTrue(blacklistedIBANs.isEmpty());
 
         // Verify interactions
-        verify(pdfDownloaderService, times(1)).downloadPDF(url);
-        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString());
+        verify(pdfDownloaderService, times(1)).download(url, MemoryMode.AUTO);
+        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString(), any());
 
         // Close the mock document
         mockDocument.close();
@@ -55,10 +78,15 @@ public class InvoiceServiceTest {
     public void testScanInvoiceForBlacklistedIBANs_BlacklistedIBANsFound() throws IOException {
         // Mock the PDF document
         PDDocument mockDocument = new PDDocument();
-        when(pdfDownloaderService.downloadPDF(anyString())).thenReturn(mockDocument);
+        DownloadedPDF pdf = mock(DownloadedPDF.class);
+        when(pdf.load()).thenReturn(mockDocument);
+        when(pdfDownloaderService.download(anyString(), any())).thenReturn(pdf);
 
         // Mock the IBAN validator to return a list of blacklisted IBANs
-        when(ibanValidator.findBlacklistedIBANs(anyString())).thenReturn(Set.of("DE89370400440532013000", "GB29NWBK60161331926819"));
+        when(ibanValidator.findBlacklistedIBANs(anyString(), any())).thenAnswer(invocation -> {
+            invocation.<IntConsumer>getArgument(1).accept(3);
+            return Set.of("DE89370400440532013000", "GB29NWBK60161331926819");
+        });
 
         // Test the method
         String url = "classpath:example_invoice.pdf";
@@ -68,10 +96,12 @@ public class InvoiceServiceTest {
         assertEquals(2, blacklistedIBANs.size());
         assertTrue(blacklistedIBANs.contains("DE89370400440532013000"));
         assertTrue(blacklistedIBANs.contains("GB29NWBK60161331926819"));
+        // Valid IBANs found by the full text scan, blacklisted or not
+        assertEquals(3, registry.get("invoice.iban.candidates").counter().count());
 
         // Verify interactions
-        verify(pdfDownloaderService, times(1)).downloadPDF(url);
-        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString());
+        verify(pdfDownloaderService, times(1)).download(url, MemoryMode.AUTO);
+        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString(), any());
 
         // Close the mock document
         mockDocument.close();
@@ -80,7 +110,7 @@ public class InvoiceServiceTest {
     @Test
     public void testScanInvoiceForBlacklistedIBANs_InvalidPDFUrl() throws IOException {
         // Mock the PDF downloader to throw an exception for an invalid URL
-        when(pdfDownloaderService.downloadPDF(anyString())).thenThrow(new IOException("File not found"));
+        when(pdfDownloaderService.download(anyString(), any())).thenThrow(new IOException("File not found"));
 
         // Test the method
         String url = "classpath:invalid_invoice.pdf";
@@ -90,18 +120,21 @@ public class InvoiceServiceTest {
         assertTrue(exception.getMessage().contains("File not found"));
 
         // Verify interactions
-        verify(pdfDownloaderService, times(1)).downloadPDF(url);
-        verify(ibanValidator, never()).findBlacklistedIBANs(anyString());
+        verify(pdfDownloaderService, times(1)).download(url, MemoryMode.AUTO);
+        verify(ibanValidator, never()).findBlacklistedIBANs(anyString(), any());
+        verify(scanMetrics, times(1)).record(any());
     }
 
     @Test
     public void testScanInvoiceForBlacklistedIBANs_EmptyPDF() throws IOException {
         // Mock an empty PDF document
         PDDocument mockDocument = new PDDocument();
-        when(pdfDownloaderService.downloadPDF(anyString())).thenReturn(mockDocument);
+        DownloadedPDF pdf = mock(DownloadedPDF.class);
+        when(pdf.load()).thenReturn(mockDocument);
+        when(pdfDownloaderService.download(anyString(), any())).thenReturn(pdf);
 
         // Mock the IBAN validator to return an empty list (no text to scan)
-        when(ibanValidator.findBlacklistedIBANs(anyString())).thenReturn(Set.of());
+        when(ibanValidator.findBlacklistedIBANs(anyString(), any())).thenReturn(Set.of());
 
         // Test the method
         String url = "classpath:empty_invoice.pdf";
@@ -111,10 +144,16 @@ public class InvoiceServiceTest {
         assertTrue(blacklistedIBANs.isEmpty());
 
         // Verify interactions
-        verify(pdfDownloaderService, times(1)).downloadPDF(url);
-        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString());
+        verify(pdfDownloaderService, times(1)).download(url, MemoryMode.AUTO);
+        verify(ibanValidator, times(1)).findBlacklistedIBANs(anyString(), any());
 
         // Close the mock document
         mockDocument.close();
     }
+
+    private static StageLimiter stageLimiter() {
+        StageLimiter stageLimiter = new StageLimiter();
+        stageLimiter.init();
+        return stageLimiter;
+    }
 }
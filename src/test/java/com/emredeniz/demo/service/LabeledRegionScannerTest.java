@@ -0,0 +1,121 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.IBANLocation;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.util.IBANValidator;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabeledRegionScannerTest {
+
+    private LabeledRegionScanner scanner;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        IBANValidator ibanValidator = new IBANValidator();
+        ReflectionTestUtils.setField(ibanValidator, "blacklistedIBANsFile", "samples/blacklisted_ibans.txt");
+        ibanValidator.init();
+        scanner = new LabeledRegionScanner(ibanValidator);
+    }
+
+    @Test
+    public void testScan_MatchesOnlyTheLabeledRegion() throws IOException {
+        try (PDDocument document = document(new String[][]{{
+                "100 700 Reference DE89370400440532013000",
+                "100 400 Total: 120.00 EUR",
+                "300 400 Bankverbindung",
+                "300 386 GB33 BUKB 2020 1555 5555 55"}})) {
+
+            ScanResult result = scanner.scan(document, false, new ScanTrace());
+
+            // The reference number is a blacklisted IBAN too, but it is not next to a label
+            assertEquals(Set.of("GB33BUKB20201555555555"), result.blacklistedIbans());
+            assertEquals(Map.of(1, Set.of("GB33BUKB20201555555555")), result.pageHits());
+            assertEquals(1, result.locations().size());
+            IBANLocation location = result.locations().get(0);
+            assertTrue(location.labeled());
+            assertEquals(1, location.page());
+            assertEquals(300, location.x(), 1);
+            // Top left origin: the baseline at 386 points from the bottom of a letter page is 792 - 386 = 406 from the top
+            assertTrue(location.y() < 406 && location.y() + location.height() > 400);
+            assertTrue(location.width() > 100);
+        }
+    }
+
+    @Test
+    public void testScan_FallsBackToWholePageWithoutLabels() throws IOException {
+        try (PDDocument document = document(new String[][]{
+                {"100 700 IBAN: DE15 3006 0601 0505 7807 80"},
+                {"100 700 Please transfer to FR76 3000 6000 0112 3456 7890 189"}})) {
+
+            ScanResult result = scanner.scan(document, false, new ScanTrace());
+
+            assertEquals(Set.of("FR7630006000011234567890189"), result.blacklistedIbans());
+            assertEquals(2, result.pagesScanned());
+            assertEquals(1, result.locations().size());
+            assertEquals(2, result.locations().get(0).page());
+            assertFalse(result.locations().get(0).labeled());
+        }
+    }
+
+    @Test
+    public void testScan_FallsBackToWholePageWithoutHitInRegions() throws IOException {
+        try (PDDocument document = document(new String[][]{{
+                "100 700 IBAN: DE15 3006 0601 0505 7807 80",
+                "100 400 Payee: GB33 BUKB 2020 1555 5555 55"}})) {
+
+            ScanResult result = scanner.scan(document, false, new ScanTrace());
+
+            // The labeled IBAN is valid but not blacklisted, it must not hide the one further down
+            assertEquals(Set.of("GB33BUKB20201555555555"), result.blacklistedIbans());
+            assertEquals(1, result.locations().size());
+            assertFalse(result.locations().get(0).labeled());
+        }
+    }
+
+    @Test
+    public void testScan_StopsAtFirstHit() throws IOException {
+        try (PDDocument document = document(new String[][]{
+                {"100 700 IBAN DE89 3704 0044 0532 0130 00"},
+                {"100 700 IBAN GB33 BUKB 2020 1555 5555 55"}})) {
+
+            ScanResult result = scanner.scan(document, true, new ScanTrace());
+
+            assertEquals(Set.of("DE89370400440532013000"), result.blacklistedIbans());
+            assertEquals(1, result.pagesScanned());
+        }
+    }
+
+    /**
+     * @param pages Per page, lines of text given as "x y text" in PDF points from the bottom left corner.
+     */
+    private static PDDocument document(String[][] pages) throws IOException {
+        PDDocument document = new PDDocument();
+        for (String[] lines : pages) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                for (String line : lines) {
+                    String[] parts = line.split(" ", 3);
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.newLineAtOffset(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]));
+                    content.showText(parts[2]);
+                    content.endText();
+                }
+            }
+        }
+        return document;
+    }
+}
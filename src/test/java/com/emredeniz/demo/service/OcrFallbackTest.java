@@ -0,0 +1,218 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.util.BlacklistMatcher;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OcrFallbackTest {
+
+    @Test
+    public void testCorrectIBANs_ReadsConfusedCharacters() {
+        assertEquals("IBAN: DE89370400440532013000 BIC", OcrFallback.correctIBANs("IBAN: DE89 37O4 OO44 O532 O13O OO BIC"));
+        // A letter of the bank code read as a digit
+        assertEquals("IE29AIBK93115212345678", OcrFallback.correctIBANs("IE29 A1BK 9311 5212 3456 78"));
+        // A country code read as digits
+        assertEquals("IT60X0542811101000000123456", OcrFallback.correctIBANs("1T60 X054 2811 1010 0000 0123 456"));
+        // Bank code letters, which the format of the country requires
+        assertEquals("GB77BOFI60161331926819", OcrFallback.correctIBANs("GB77 B0F1 6016 1331 9268 19"));
+        // A letter where the format allows both, found through the checksum
+        assertEquals("CH4000762O123456789AB", OcrFallback.correctIBANs("CH40 0076 2012 3456 789A B"));
+        assertEquals("Total 1,000.00 EUR, ref DE00 1234", OcrFallback.correctIBANs("Total 1,000.00 EUR, ref DE00 1234"));
+    }
+
+    @Test
+    public void testCorrectIBANs_ReadsNoLettersWhereFormatHasNone() {
+        // Reading two of its zeros as O would pass the checksum, but a German BBAN is all digits
+        assertEquals("DE51 0010 1495 0090 9298 81", OcrFallback.correctIBANs("DE51 0010 1495 0090 9298 81"));
+        assertEquals("DE89 3704 0044 O532 0130 0X", OcrFallback.correctIBANs("DE89 3704 0044 O532 0130 0X"));
+    }
+
+    @Test
+    public void testRecognize_MatchesImageOnlyPageAndCaches() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        OcrFallback ocr = ocr(image -> {
+            calls.incrementAndGet();
+            return "Bank details\nIBAN: DE89 37O4 OO44 O532 O13O OO\n";
+        }, Duration.ofSeconds(10));
+        byte[] pdf = imageOnlyPdf();
+        try {
+            for (int i = 0; i < 2; i++) {
+                ScanTrace trace = new ScanTrace();
+                assertEquals(Set.of("DE89370400440532013000"), scan(pdf, ocr, trace));
+                assertTrue(trace.isRecorded(ScanTrace.Stage.OCR));
+                assertEquals(0, trace.pagesNotRecognized());
+            }
+            // The second scan rendered the same page image
+            assertEquals(1, calls.get());
+            // Without a session the page is skipped
+            assertEquals(Set.of(), scan(pdf, null));
+        } finally {
+            ocr.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecognize_TimeoutLeavesPageWithoutText() throws IOException {
+        OcrFallback ocr = ocr(image -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "DE89370400440532013000";
+        }, Duration.ofMillis(50));
+        try {
+            ScanTrace trace = new ScanTrace();
+            assertEquals(Set.of(), scan(imageOnlyPdf(), ocr, trace));
+            assertEquals(1, trace.pagesNotRecognized());
+        } finally {
+            ocr.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecognize_TimeoutStartsWhenPageLeavesQueue() throws Exception {
+        // Each page takes most of the timeout, the second one waits for the first on the single thread
+        OcrFallback ocr = ocr(image -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "IBAN: DE89 3704 0044 0532 0130 00";
+        }, Duration.ofMillis(500));
+        byte[] pdf = imageOnlyPdf();
+        try {
+            CountDownLatch ready = new CountDownLatch(2);
+            Callable<ScanTrace> scan = () -> {
+                ScanTrace trace = new ScanTrace();
+                ready.countDown();
+                ready.await();
+                assertEquals(Set.of("DE89370400440532013000"), scan(pdf, ocr, trace));
+                return trace;
+            };
+            ExecutorService scans = Executors.newFixedThreadPool(2);
+            try {
+                for (Future<ScanTrace> trace : scans.invokeAll(List.of(scan, scan))) {
+                    assertEquals(0, trace.get().pagesNotRecognized());
+                }
+            } finally {
+                scans.shutdownNow();
+            }
+        } finally {
+            ocr.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecognize_RejectsPageImageBeyondParseBudget() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        StageLimiter limiter = limiter(8);
+        // A letter page at 300 DPI is rendered to about 8.4 MB, only 4 MB are left beside the document
+        OcrFallback ocr = ocr(image -> {
+            calls.incrementAndGet();
+            return "";
+        }, Duration.ofSeconds(10), 300, limiter);
+        DownloadedPDF pdf = DownloadedPDF.inMemory(imageOnlyPdf(), "", MemoryMode.MAIN_MEMORY, 0);
+        try (StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf)) {
+            long reserved = limiter.parseReserved();
+            ScanTrace trace = new ScanTrace();
+            assertEquals(Set.of(), scan(imageOnlyPdf(), ocr, trace));
+            assertEquals(1, trace.pagesNotRecognized());
+            assertEquals(0, calls.get());
+            assertEquals(reserved, limiter.parseReserved());
+        } finally {
+            ocr.shutdown();
+        }
+    }
+
+    @Test
+    public void testSession_NullWhenDisabled() throws IOException {
+        OcrFallback ocr = new OcrFallback(image -> "", limiter(64));
+        ocr.init();
+        try (PDDocument document = new PDDocument()) {
+            assertNull(ocr.session(document, new ScanTrace()));
+        }
+    }
+
+    private static OcrFallback ocr(OcrEngine engine, Duration timeout) {
+        return ocr(engine, timeout, 72, limiter(64));
+    }
+
+    private static OcrFallback ocr(OcrEngine engine, Duration timeout, int dpi, StageLimiter limiter) {
+        OcrFallback ocr = new OcrFallback(engine, limiter);
+        ReflectionTestUtils.setField(ocr, "enabled", true);
+        ReflectionTestUtils.setField(ocr, "dpi", dpi);
+        ReflectionTestUtils.setField(ocr, "timeout", timeout);
+        ocr.init();
+        return ocr;
+    }
+
+    private static StageLimiter limiter(int parseBudgetMegabytes) {
+        StageLimiter limiter = new StageLimiter();
+        ReflectionTestUtils.setField(limiter, "parseHeapShare",
+                (double) DataSize.ofMegabytes(parseBudgetMegabytes).toBytes() / Runtime.getRuntime().maxMemory());
+        limiter.init();
+        return limiter;
+    }
+
+    private static Set<String> scan(byte[] pdf, OcrFallback ocr) throws IOException {
+        return scan(pdf, ocr, new ScanTrace());
+    }
+
+    private static Set<String> scan(byte[] pdf, OcrFallback ocr, ScanTrace trace) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            BlacklistMatcher matcher = BlacklistMatcher.allIBANs();
+            PageTextStripper stripper = new PageTextStripper(matcher::feedPage, trace);
+            stripper.setOcr(ocr == null ? null : ocr.session(document, trace));
+            stripper.extract(document);
+            return matcher.hits();
+        }
+    }
+
+    // A page that only draws an image, like a scanned invoice
+    private static byte[] imageOnlyPdf() throws IOException {
+        BufferedImage scan = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scan.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 200, 100);
+        graphics.setColor(Color.BLACK);
+        graphics.drawString("IBAN", 10, 50);
+        graphics.dispose();
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            PDImageXObject image = LosslessFactory.createFromImage(document, scan);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.drawImage(image, 50, 500, 200, 100);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
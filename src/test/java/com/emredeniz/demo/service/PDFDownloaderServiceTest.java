@@ -0,0 +1,285 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.MemoryMode;
+import com.sun.management.ThreadMXBean;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PDFDownloaderServiceTest {
+
+    private HttpServer server;
+    private byte[] invoice;
+    private String baseUrl;
+
+    private PDFDownloaderService pdfDownloaderService;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        try (InputStream inputStream = new ClassPathResource("samples/example_invoice.pdf").getInputStream()) {
+            invoice = inputStream.readAllBytes();
+        }
+
+        // Local stub of a document store
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/invoice.pdf", exchange -> {
+            exchange.sendResponseHeaders(200, invoice.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(invoice);
+            }
+        });
+        server.createContext("/chunked.pdf", exchange -> {
+            exchange.sendResponseHeaders(200, 0); // No Content-Length
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(invoice);
+            }
+        });
+        server.createContext("/stalled.pdf", exchange -> {
+            exchange.sendResponseHeaders(200, invoice.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(invoice, 0, 1024);
+            body.flush();
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/missing.pdf", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        pdfDownloaderService = new PDFDownloaderService();
+        pdfDownloaderService.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pdfDownloaderService.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testDownload_SmallPDFStaysInMemory() throws IOException {
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf")) {
+            assertFalse(pdf.isSpooled());
+            assertEquals(invoice.length, pdf.size());
+        }
+    }
+
+    @Test
+    public void testDownload_LargePDFIsSpooledToDisk() throws IOException {
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/chunked.pdf");
+             PDDocument document = pdf.load()) {
+            assertTrue(pdf.isSpooled());
+            assertEquals(invoice.length, pdf.size());
+            assertEquals(64, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    public void testDownload_AutoMemoryModeFollowsSize() throws IOException {
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf", MemoryMode.AUTO)) {
+            assertEquals(MemoryMode.MAIN_MEMORY, pdf.memoryMode());
+        }
+
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf", MemoryMode.AUTO)) {
+            assertTrue(pdf.isSpooled());
+            assertEquals(MemoryMode.MIXED, pdf.memoryMode());
+        }
+
+        ReflectionTestUtils.setField(pdfDownloaderService, "mixedThreshold", DataSize.ofKilobytes(64));
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf", MemoryMode.AUTO)) {
+            assertEquals(MemoryMode.TEMP_FILE, pdf.memoryMode());
+        }
+    }
+
+    @Test
+    public void testDownload_TempFileModeSpoolsSmallPDF() throws IOException {
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf", MemoryMode.TEMP_FILE);
+             PDDocument document = pdf.load()) {
+            assertTrue(pdf.isSpooled());
+            assertEquals(64, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    public void testDownload_MainMemoryModeNeverSpools() throws IOException {
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/chunked.pdf", MemoryMode.MAIN_MEMORY);
+             PDDocument document = pdf.load()) {
+            assertFalse(pdf.isSpooled());
+            assertEquals(64, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    public void testDownload_ContentLengthAboveMaxSize() {
+        ReflectionTestUtils.setField(pdfDownloaderService, "maxSize", DataSize.ofKilobytes(64));
+
+        IOException exception = assertThrows(IOException.class, () -> pdfDownloaderService.download(baseUrl + "/invoice.pdf"));
+        assertTrue(exception.getMessage().contains("exceeds the maximum size"));
+    }
+
+    @Test
+    public void testDownload_StreamAboveMaxSize() {
+        ReflectionTestUtils.setField(pdfDownloaderService, "maxSize", DataSize.ofKilobytes(64));
+
+        IOException exception = assertThrows(IOException.class, () -> pdfDownloaderService.download(baseUrl + "/chunked.pdf"));
+        assertTrue(exception.getMessage().contains("exceeds the maximum size"));
+    }
+
+    @Test
+    public void testDownload_StalledTransferTimesOut() {
+        ReflectionTestUtils.setField(pdfDownloaderService, "transferTimeout", Duration.ofMillis(300));
+
+        IOException exception = assertThrows(IOException.class, () -> pdfDownloaderService.download(baseUrl + "/stalled.pdf"));
+        assertTrue(exception.getMessage().contains("Timed out downloading PDF"));
+    }
+
+    @Test
+    public void testDownload_HttpError() {
+        IOException exception = assertThrows(IOException.class, () -> pdfDownloaderService.download(baseUrl + "/missing.pdf"));
+        assertTrue(exception.getMessage().contains("HTTP 404"));
+    }
+
+    @Test
+    public void testDownload_HostPermitsAreDroppedWhenIdle() throws IOException {
+        try (DownloadedPDF pdf = pdfDownloaderService.download(baseUrl + "/invoice.pdf")) {
+            assertEquals(invoice.length, pdf.size());
+        }
+        assertThrows(IOException.class, () -> pdfDownloaderService.download(baseUrl + "/missing.pdf"));
+
+        assertEquals(Map.of(), ReflectionTestUtils.getField(pdfDownloaderService, "hostPermits"));
+    }
+
+    @Test
+    public void testReceive_UploadWithContentLengthStaysInMemory() throws IOException {
+        try (DownloadedPDF pdf = pdfDownloaderService.receive(new ByteArrayInputStream(invoice), invoice.length, MemoryMode.AUTO);
+             PDDocument document = pdf.load()) {
+            assertFalse(pdf.isSpooled());
+            assertEquals(invoice.length, pdf.size());
+            assertEquals(64, document.getNumberOfPages());
+        }
+    }
+
+    @Test
+    public void testReceive_UploadOfUnknownLengthIsSpooledAboveThreshold() throws IOException {
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+
+        try (DownloadedPDF pdf = pdfDownloaderService.receive(new ByteArrayInputStream(invoice), -1, MemoryMode.AUTO);
+             DownloadedPDF download = pdfDownloaderService.download(baseUrl + "/invoice.pdf")) {
+            assertTrue(pdf.isSpooled());
+            assertEquals(download.sha256(), pdf.sha256());
+        }
+    }
+
+    @Test
+    public void testReceive_AnnouncedLengthDoesNotAllocateBuffer() throws IOException {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+
+        // A client announcing the full upload limit but sending a small body
+        try (DownloadedPDF pdf = pdfDownloaderService.receive(new ByteArrayInputStream(invoice),
+                DataSize.ofMegabytes(100).toBytes(), MemoryMode.MAIN_MEMORY);
+             InputStream inputStream = pdf.openStream()) {
+            assertFalse(pdf.isSpooled());
+            assertArrayEquals(invoice, inputStream.readAllBytes());
+        }
+        assertTrue(threads.getCurrentThreadAllocatedBytes() - allocated < DataSize.ofMegabytes(32).toBytes());
+    }
+
+    @Test
+    public void testReceive_MultipartFileAboveThresholdIsMovedToDisk() throws IOException {
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+        MockMultipartFile file = new MockMultipartFile("file", "invoice.pdf", "application/pdf", invoice);
+
+        try (DownloadedPDF pdf = pdfDownloaderService.receive(file, MemoryMode.AUTO);
+             DownloadedPDF download = pdfDownloaderService.download(baseUrl + "/invoice.pdf");
+             PDDocument document = pdf.load()) {
+            assertTrue(pdf.isSpooled());
+            assertEquals(invoice.length, pdf.size());
+            assertEquals(download.sha256(), pdf.sha256());
+            assertEquals(64, document.getNumberOfPages());
+        }
+
+        // In MAIN_MEMORY mode the file is copied onto the heap like a request body
+        try (DownloadedPDF pdf = pdfDownloaderService.receive(file, MemoryMode.MAIN_MEMORY)) {
+            assertFalse(pdf.isSpooled());
+            assertEquals(invoice.length, pdf.size());
+        }
+    }
+
+    @Test
+    public void testReceive_UploadAboveMaxSize() {
+        ReflectionTestUtils.setField(pdfDownloaderService, "uploadMaxSize", DataSize.ofKilobytes(64));
+
+        IOException announced = assertThrows(IOException.class,
+                () -> pdfDownloaderService.receive(new ByteArrayInputStream(invoice), invoice.length, MemoryMode.AUTO));
+        assertTrue(announced.getMessage().contains("exceeds the maximum size"));
+
+        IOException streamed = assertThrows(IOException.class,
+                () -> pdfDownloaderService.receive(new ByteArrayInputStream(invoice), -1, MemoryMode.AUTO));
+        assertTrue(streamed.getMessage().contains("exceeds the maximum size"));
+    }
+
+    @Test
+    public void testReceive_FailedUploadLeavesNoTemporaryFile() throws IOException {
+        ReflectionTestUtils.setField(pdfDownloaderService, "memoryThreshold", DataSize.ofKilobytes(64));
+        // Fails with a runtime exception once the body has been spooled to a file
+        InputStream failing = new ByteArrayInputStream(invoice, 0, 128 * 1024) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (available() == 0) {
+                    throw new IllegalStateException("Connection reset");
+                }
+                return super.read(b, off, len);
+            }
+        };
+        long before = temporaryPDFs();
+
+        assertThrows(IllegalStateException.class, () -> pdfDownloaderService.receive(failing, -1, MemoryMode.AUTO));
+        assertEquals(before, temporaryPDFs());
+    }
+
+    @Test
+    public void testDownloadPDF_FromClasspath() throws IOException {
+        try (PDDocument document = pdfDownloaderService.downloadPDF("classpath:samples/example_invoice.pdf")) {
+            assertEquals(64, document.getNumberOfPages());
+        }
+    }
+
+    private static long temporaryPDFs() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().matches("invoice-.*\\.pdf")).count();
+        }
+    }
+}
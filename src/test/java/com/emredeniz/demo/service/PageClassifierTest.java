@@ -0,0 +1,131 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageClassifierTest {
+
+    private final PDDocument document = new PDDocument();
+
+    @AfterEach
+    public void teardown() throws IOException {
+        document.close();
+    }
+
+    @Test
+    public void testMayHaveText_TextPage() throws IOException {
+        PDPage page = addPage();
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            drawImage(content);
+            showText(content, "IBAN DE89 3704 0044 0532 0130 00");
+        }
+
+        assertTrue(PageClassifier.mayHaveText(page));
+    }
+
+    @Test
+    public void testMayHaveText_ImageOnlyPage() throws IOException {
+        PDPage page = addPage();
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            drawImage(content);
+        }
+
+        assertFalse(PageClassifier.mayHaveText(page));
+    }
+
+    @Test
+    public void testMayHaveText_ImagePageWithUnusedFont() throws IOException {
+        PDPage page = addPage();
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            drawImage(content);
+        }
+        // Scanners often share one resource dictionary with a font between all pages
+        page.getResources().add(PDType1Font.HELVETICA);
+
+        assertFalse(PageClassifier.mayHaveText(page));
+    }
+
+    @Test
+    public void testMayHaveText_TextInForm() throws IOException {
+        PDFormXObject form = new PDFormXObject(document);
+        form.setBBox(new PDRectangle(200, 50));
+        form.setResources(new PDResources());
+        try (PDPageContentStream content = new PDPageContentStream(document, form, form.getContentStream().createOutputStream())) {
+            showText(content, "IBAN DE89 3704 0044 0532 0130 00");
+        }
+        PDPage page = addPage();
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            drawImage(content);
+            content.drawForm(form);
+        }
+
+        assertTrue(PageClassifier.mayHaveText(page));
+    }
+
+    @Test
+    public void testExtract_SkipsImageOnlyPages() throws IOException {
+        try (PDPageContentStream content = new PDPageContentStream(document, addPage())) {
+            drawImage(content);
+        }
+        try (PDPageContentStream content = new PDPageContentStream(document, addPage())) {
+            showText(content, "IBAN DE89 3704 0044 0532 0130 00");
+        }
+        ScanTrace trace = new ScanTrace();
+        StringWriter text = new StringWriter();
+
+        new ScanTextStripper(trace).extract(document, text);
+
+        assertEquals("IBAN DE89 3704 0044 0532 0130 00", text.toString().trim());
+        assertEquals(1, trace.pagesSkipped());
+        assertTrue(trace.isRecorded(ScanTrace.Stage.CLASSIFY));
+    }
+
+    @Test
+    public void testExtract_ClassificationTurnedOff() throws IOException {
+        try (PDPageContentStream content = new PDPageContentStream(document, addPage())) {
+            drawImage(content);
+        }
+        ScanTrace trace = new ScanTrace();
+        ScanTextStripper stripper = new ScanTextStripper(trace);
+        stripper.setClassifyPages(false);
+
+        stripper.extract(document, new StringWriter());
+
+        assertEquals(0, trace.pagesSkipped());
+        assertFalse(trace.isRecorded(ScanTrace.Stage.CLASSIFY));
+    }
+
+    private PDPage addPage() {
+        PDPage page = new PDPage();
+        document.addPage(page);
+        return page;
+    }
+
+    private void drawImage(PDPageContentStream content) throws IOException {
+        PDImageXObject image = LosslessFactory.createFromImage(document, new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY));
+        content.drawImage(image, 0, 0, 612, 792);
+    }
+
+    private static void showText(PDPageContentStream content, String text) throws IOException {
+        content.beginText();
+        content.setFont(PDType1Font.HELVETICA, 10);
+        content.newLineAtOffset(10, 10);
+        content.showText(text);
+        content.endText();
+    }
+}
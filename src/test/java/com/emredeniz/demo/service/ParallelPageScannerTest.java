@@ -0,0 +1,83 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANValidator;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelPageScannerTest {
+
+    private final OcrFallback ocrFallback = mock(OcrFallback.class);
+    private final StageLimiter stageLimiter = new StageLimiter();
+    private ParallelPageScanner scanner;
+
+    @BeforeEach
+    public void setUp() {
+        IBANValidator ibanValidator = mock(IBANValidator.class);
+        when(ibanValidator.snapshot()).thenReturn(BlacklistSnapshot.empty());
+        stageLimiter.init();
+        SharedFontCache sharedFontCache = new SharedFontCache();
+        sharedFontCache.init();
+
+        scanner = new ParallelPageScanner(ibanValidator, sharedFontCache, stageLimiter, ocrFallback);
+        ReflectionTestUtils.setField(scanner, "workers", 2);
+        ReflectionTestUtils.setField(scanner, "minPagesPerWorker", 1);
+        scanner.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scanner.shutdown();
+    }
+
+    @Test
+    public void testScan_WaitsForWorkersWhenFirstRangeFails() throws Exception {
+        Thread caller = Thread.currentThread();
+        CountDownLatch workerStarted = new CountDownLatch(1);
+        AtomicBoolean workerDone = new AtomicBoolean();
+        when(ocrFallback.session(any(), any())).thenAnswer(invocation -> {
+            if (Thread.currentThread() == caller) {
+                assertTrue(workerStarted.await(5, TimeUnit.SECONDS));
+                throw new IllegalStateException("First range failed");
+            }
+            workerStarted.countDown();
+            Thread.sleep(Duration.ofMillis(200));
+            workerDone.set(true);
+            return null;
+        });
+
+        assertThrows(IllegalStateException.class, () -> scanner.scan(pdf(2), false, new ScanTrace()));
+
+        // The worker's copy must be closed before its share of the parse permit is released
+        assertTrue(workerDone.get());
+        assertEquals(0, stageLimiter.parseReserved());
+    }
+
+    private static DownloadedPDF pdf(int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            document.save(bytes);
+            return DownloadedPDF.inMemory(bytes.toByteArray(), "", MemoryMode.MAIN_MEMORY, 0);
+        }
+    }
+}
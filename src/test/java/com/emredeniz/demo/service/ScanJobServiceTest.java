@@ -0,0 +1,196 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.JobQueueFullException;
+import com.emredeniz.demo.model.JobLane;
+import com.emredeniz.demo.model.JobStatus;
+import com.emredeniz.demo.model.ScanJob;
+import com.emredeniz.demo.model.ScanOptions;
+import com.emredeniz.demo.model.ScanResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ScanJobServiceTest {
+
+    private static final ScanOptions OPTIONS = new ScanOptions(null, false);
+    private static final ScanResult RESULT = new ScanResult(Set.of("DE89370400440532013000"),
+            Map.of(1, Set.of("DE89370400440532013000")), 1);
+
+    @Mock
+    private InvoiceScannerService invoiceScannerService;
+
+    @Mock
+    private PDFDownloaderService pdfDownloaderService;
+
+    @TempDir
+    private Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<ScanJobService> services = new ArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setup() {
+        // Small documents unless their URL says otherwise
+        lenient().when(pdfDownloaderService.contentLength(anyString()))
+                .thenAnswer(invocation -> invocation.<String>getArgument(0).contains("large") ? 100_000_000L : 1_000L);
+    }
+
+    @AfterEach
+    public void teardown() {
+        release.countDown();
+        services.forEach(ScanJobService::stop);
+    }
+
+    @Test
+    public void testSubmit_JobIsScannedAndCanBePolled() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenReturn(RESULT);
+        ScanJobService service = start(2, 10);
+
+        ScanJob job = service.submit("classpath:samples/example_invoice.pdf", OPTIONS, null);
+        assertEquals(JobStatus.QUEUED, job.status());
+        assertEquals(JobLane.LARGE, job.lane());
+
+        ScanJob done = awaitFinished(service, job.id());
+        assertEquals(JobStatus.DONE, done.status());
+        assertEquals(RESULT, done.result());
+        assertNotNull(done.finishedAt());
+        // Finished jobs are only kept in the store
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(service, "jobs")).isEmpty());
+        assertEquals(done, service.get(job.id()));
+        assertNull(service.get("../" + job.id()));
+    }
+
+    @Test
+    public void testSubmit_DoesNotWaitForSize() throws Exception {
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenReturn(RESULT);
+        CountDownLatch sized = new CountDownLatch(1);
+        when(pdfDownloaderService.contentLength("small-slow")).thenAnswer(invocation -> {
+            sized.await();
+            return 1_000L;
+        });
+        ScanJobService service = start(1, 10);
+
+        ScanJob job = assertTimeoutPreemptively(Duration.ofSeconds(1), () -> service.submit("small-slow", OPTIONS, null));
+        assertEquals(JobLane.LARGE, job.lane());
+        assertEquals(JobStatus.DONE, awaitFinished(service, job.id()).status());
+        sized.countDown();
+    }
+
+    @Test
+    public void testSubmit_FullLaneIsRejectedWithRetryAfter() throws Exception {
+        blockScans();
+        ScanJobService service = start(1, 1);
+
+        service.submit("large-running", OPTIONS, null);
+        verify(invoiceScannerService, timeout(1000)).scanInvoice(eq("large-running"), any());
+        service.submit("large-queued", OPTIONS, null);
+
+        // Every job enters the large lane, so the check needs no request for the size
+        JobQueueFullException exception = assertThrows(JobQueueFullException.class,
+                () -> service.submit("small-rejected", OPTIONS, null));
+        assertTrue(exception.getMessage().startsWith("The large job queue is full"));
+        assertTrue(exception.retryAfter().toSeconds() >= 1);
+        verify(pdfDownloaderService, never()).contentLength("small-rejected");
+        // Only the accepted jobs are stored
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testStart_ResumesJobsQueuedBeforeRestart() throws Exception {
+        blockScans();
+        ScanJobService first = start(1, 10);
+        first.submit("small-running", OPTIONS, null);
+        verify(invoiceScannerService, timeout(1000)).scanInvoice(eq("small-running"), any());
+        ScanJob queued = first.submit("small-queued", OPTIONS, null);
+        first.stop();
+
+        release.countDown();
+        ScanJobService restarted = start(1, 10);
+
+        assertEquals(JobStatus.DONE, awaitFinished(restarted, queued.id()).status());
+        verify(invoiceScannerService, timeout(1000).times(2)).scanInvoice(eq("small-running"), any());
+    }
+
+    @Test
+    public void testWorkers_ServeSmallLaneFirst() throws Exception {
+        blockScans();
+        ScanJobService service = start(1, 10);
+        service.submit("small-running", OPTIONS, null);
+        verify(invoiceScannerService, timeout(1000)).scanInvoice(eq("small-running"), any());
+
+        ScanJob large = service.submit("large", OPTIONS, null);
+        ScanJob small = service.submit("small", OPTIONS, null);
+        // Moved to the small lane once its size is known
+        for (int i = 0; i < 500 && service.get(small.id()).lane() != JobLane.SMALL; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(JobLane.SMALL, service.get(small.id()).lane());
+        release.countDown();
+
+        awaitFinished(service, large.id());
+        awaitFinished(service, small.id());
+        InOrder inOrder = inOrder(invoiceScannerService);
+        inOrder.verify(invoiceScannerService).scanInvoice(eq("small"), any());
+        inOrder.verify(invoiceScannerService).scanInvoice(eq("large"), any());
+    }
+
+    private void blockScans() throws IOException {
+        when(invoiceScannerService.scanInvoice(anyString(), any())).thenAnswer(invocation -> {
+            release.await();
+            return RESULT;
+        });
+    }
+
+    private ScanJobService start(int workers, int queueCapacity) throws IOException {
+        ScanJobStore store = new ScanJobStore(objectMapper);
+        ReflectionTestUtils.setField(store, "directory", directory);
+        store.init();
+
+        ScanJobService service = new ScanJobService(invoiceScannerService, pdfDownloaderService, store, objectMapper);
+        ReflectionTestUtils.setField(service, "workers", workers);
+        ReflectionTestUtils.setField(service, "queueCapacity", queueCapacity);
+        service.start();
+        services.add(service);
+        return service;
+    }
+
+    private static ScanJob awaitFinished(ScanJobService service, String id) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            ScanJob job = service.get(id);
+            if (job != null && job.finished()) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        fail("Scan job " + id + " did not finish");
+        return null;
+    }
+}
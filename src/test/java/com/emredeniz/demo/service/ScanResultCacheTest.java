@@ -0,0 +1,76 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.model.CacheStatus;
+import com.emredeniz.demo.model.ScanResult;
+import com.emredeniz.demo.util.BlacklistSnapshot;
+import com.emredeniz.demo.util.IBANBlacklist;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScanResultCacheTest {
+
+    private static final String DE = "DE89370400440532013000";
+    private static final String GB = "GB33BUKB20201555555555";
+    private static final String FR = "FR7630006000011234567890189";
+
+    private static final ScanResultCache.Candidates CANDIDATES =
+            new ScanResultCache.Candidates(Map.of(2, Set.of(DE), 5, Set.of(GB, FR)), 8);
+
+    private ScanResultCache scanResultCache;
+
+    @BeforeEach
+    public void setup() {
+        scanResultCache = new ScanResultCache();
+        scanResultCache.init();
+    }
+
+    @Test
+    public void testMatch_FollowsBlacklistUpdates() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty().replace(IBANBlacklist.builder().add(GB).build());
+
+        ScanResult result = CANDIDATES.match(snapshot, false);
+        assertEquals(Set.of(GB), result.blacklistedIbans());
+        assertEquals(Map.of(5, Set.of(GB)), result.pageHits());
+        assertEquals(8, result.pagesScanned());
+
+        snapshot = snapshot.withDelta(IBANBlacklist.builder().add(DE).build(), IBANBlacklist.builder().add(GB).build());
+        result = CANDIDATES.match(snapshot, false);
+        assertEquals(Set.of(DE), result.blacklistedIbans());
+        assertEquals(Map.of(2, Set.of(DE)), result.pageHits());
+    }
+
+    @Test
+    public void testMatch_StopAtFirstHit() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty().replace(IBANBlacklist.builder().add(DE).add(FR).build());
+
+        ScanResult result = CANDIDATES.match(snapshot, true);
+
+        assertEquals(Set.of(DE), result.blacklistedIbans());
+        assertEquals(2, result.pagesScanned());
+    }
+
+    @Test
+    public void testGet_CountsHitsAndMisses() {
+        assertNull(scanResultCache.get("a"));
+        scanResultCache.put("a", CANDIDATES);
+        assertSame(CANDIDATES, scanResultCache.get("a"));
+
+        CacheStatus status = scanResultCache.status();
+        assertEquals(1, status.entries());
+        assertEquals(1, status.hits());
+        assertEquals(1, status.misses());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        scanResultCache.put("a", CANDIDATES);
+        scanResultCache.invalidateAll();
+
+        assertNull(scanResultCache.get("a"));
+    }
+}
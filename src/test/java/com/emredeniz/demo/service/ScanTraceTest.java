@@ -0,0 +1,71 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.PDFDownloadException;
+import com.emredeniz.demo.service.ScanTrace.Stage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScanTraceTest {
+
+    @Test
+    public void testTime_RecordsStageAndReturnsResult() throws IOException {
+        ScanTrace trace = new ScanTrace();
+
+        String result = trace.time(Stage.DOWNLOAD, () -> "pdf");
+
+        assertEquals("pdf", result);
+        assertTrue(trace.isRecorded(Stage.DOWNLOAD));
+        assertFalse(trace.isRecorded(Stage.EXTRACT));
+        assertTrue(trace.nanos(Stage.DOWNLOAD) >= 0);
+    }
+
+    @Test
+    public void testAdd_MovesTimeToNestedStage() {
+        ScanTrace trace = new ScanTrace();
+
+        trace.add(Stage.EXTRACT, 1_000_000);
+        trace.add(Stage.MATCH, 300_000);
+        trace.add(Stage.EXTRACT, -300_000);
+
+        assertEquals(700_000, trace.nanos(Stage.EXTRACT));
+        assertEquals(300_000, trace.nanos(Stage.MATCH));
+    }
+
+    @Test
+    public void testTime_RemembersFirstFailedStage() {
+        ScanTrace trace = new ScanTrace();
+        PDFDownloadException failure = new PDFDownloadException(PDFDownloadException.Reason.TIMEOUT, "Timed out");
+
+        assertThrows(PDFDownloadException.class, () -> trace.time(Stage.DOWNLOAD, () -> {
+            throw failure;
+        }));
+        assertThrows(IllegalStateException.class, () -> trace.time(Stage.LOAD, () -> {
+            throw new IllegalStateException();
+        }));
+        trace.fail(failure);
+
+        assertEquals(Stage.DOWNLOAD, trace.failedStage());
+        assertSame(failure, trace.failure());
+        assertTrue(trace.isRecorded(Stage.DOWNLOAD));
+    }
+
+    @Test
+    public void testTimingsMillis_ListsRecordedStagesInPipelineOrder() {
+        ScanTrace trace = new ScanTrace();
+        trace.add(Stage.MATCH, 2_500_000);
+        trace.add(Stage.DOWNLOAD, 12_345_678);
+        trace.finish(0);
+
+        Map<String, Double> timings = trace.timingsMillis();
+
+        assertEquals(List.of("download", "match", "total"), List.copyOf(timings.keySet()));
+        assertEquals(12.35, timings.get("download"));
+        assertEquals(2.5, timings.get("match"));
+        assertEquals(timings.get("total"), trace.timingsMillis().get("total"), "the total is fixed once the scan is done");
+    }
+}
@@ -0,0 +1,104 @@
+package com.emredeniz.demo.service;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedFontCacheTest {
+
+    private SharedFontCache sharedFontCache;
+    private byte[] pdf;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        sharedFontCache = new SharedFontCache();
+        sharedFontCache.init();
+        // The sample invoice embeds its TrueType fonts
+        try (InputStream inputStream = new ClassPathResource("samples/example_invoice.pdf").getInputStream()) {
+            pdf = inputStream.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testRelease_FontsAreReusedByTheNextDocument() throws IOException {
+        PDFont first;
+        try (PDDocument document = load()) {
+            first = firstFont(document);
+            SharedFontCache.release(document);
+        }
+
+        try (PDDocument document = load()) {
+            assertSame(first, firstFont(document));
+        }
+    }
+
+    @Test
+    public void testAttach_BorrowedFontsAreNotShared() throws IOException {
+        try (PDDocument document = load(); PDDocument other = load()) {
+            PDFont font = firstFont(document);
+            SharedFontCache.release(document);
+
+            assertSame(font, firstFont(other));
+            // Borrowed by the other document until it is released
+            try (PDDocument third = load()) {
+                assertNotSame(font, firstFont(third));
+            }
+        }
+    }
+
+    @Test
+    public void testExtract_FontsAreReturnedWhenExtractionFails() throws IOException {
+        PDFont first;
+        try (PDDocument document = load()) {
+            first = firstFont(document);
+            ScanTextStripper stripper = new ScanTextStripper(new ScanTrace()) {
+                @Override
+                protected void writePage() throws IOException {
+                    throw new IOException("Broken content stream");
+                }
+            };
+            assertThrows(IOException.class, () -> stripper.extract(document, new StringWriter()));
+        }
+
+        try (PDDocument document = load()) {
+            assertSame(first, firstFont(document));
+        }
+    }
+
+    @Test
+    public void testAttach_Disabled() throws IOException {
+        ReflectionTestUtils.setField(sharedFontCache, "enabled", false);
+        PDFont first;
+        try (PDDocument document = load()) {
+            first = firstFont(document);
+            SharedFontCache.release(document);
+        }
+
+        try (PDDocument document = load()) {
+            assertNotSame(first, firstFont(document));
+        }
+    }
+
+    private PDDocument load() throws IOException {
+        PDDocument document = PDDocument.load(pdf);
+        sharedFontCache.attach(document);
+        return document;
+    }
+
+    private static PDFont firstFont(PDDocument document) throws IOException {
+        PDResources resources = document.getPage(0).getResources();
+        COSName name = resources.getFontNames().iterator().next();
+        return resources.getFont(name);
+    }
+}
@@ -0,0 +1,143 @@
+package com.emredeniz.demo.service;
+
+import com.emredeniz.demo.exception.ScanCapacityException;
+import com.emredeniz.demo.model.MemoryMode;
+import com.emredeniz.demo.service.ScanTrace.Stage;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StageLimiterTest {
+
+    private static final long MB = DataSize.ofMegabytes(1).toBytes();
+
+    @Test
+    public void testInit_SizesLimitsToHeap() {
+        StageLimiter limiter = new StageLimiter();
+        ReflectionTestUtils.setField(limiter, "parseHeapShare", 0.25);
+        limiter.init();
+
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        assertEquals(maxHeap / 4 >> 10, limiter.parseBudget() >> 10);
+        assertEquals(0, limiter.parseReserved());
+        assertEquals(Math.max(1, maxHeap / 4 / DataSize.ofMegabytes(8).toBytes()), limiter.maxConcurrentTransfers());
+    }
+
+    @Test
+    public void testParseEstimate_CountsHeapBytesOfMemoryMode() {
+        StageLimiter limiter = limiter(64);
+        byte[] bytes = new byte[(int) MB];
+
+        assertEquals(4 * MB + 3 * MB, limiter.parseEstimate(DownloadedPDF.inMemory(bytes, "", MemoryMode.MAIN_MEMORY, 0), 0));
+        assertEquals(4 * MB + 3 * MB + 10 * 8192, limiter.parseEstimate(DownloadedPDF.inMemory(bytes, "", MemoryMode.MAIN_MEMORY, 0), 10));
+        Path file = Path.of("unused.pdf");
+        assertEquals(4 * MB + 3 * 2 * MB, limiter.parseEstimate(DownloadedPDF.spooled(file, 100 * MB, "", MemoryMode.MIXED, 2 * MB), 0));
+        assertEquals(4 * MB, limiter.parseEstimate(DownloadedPDF.spooled(file, 100 * MB, "", MemoryMode.TEMP_FILE, 0), 0));
+    }
+
+    @Test
+    public void testParse_RejectsWhenBudgetIsExhausted() throws IOException {
+        StageLimiter limiter = limiter(12);
+        ScanTrace trace = new ScanTrace();
+
+        // 4MB + 3 x 1MB each, the second one does not fit
+        try (StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf(MB))) {
+            assertEquals(7 * MB, limiter.parseReserved());
+            ScanCapacityException exception = assertThrows(ScanCapacityException.class, () -> limiter.parse(trace, pdf(MB)));
+            assertEquals(Duration.ofSeconds(1), exception.retryAfter());
+            assertEquals(Stage.QUEUE, trace.failedStage());
+            assertTrue(trace.nanos(Stage.QUEUE) >= Duration.ofMillis(50).toNanos());
+            // Smaller documents still fit
+            try (StageLimiter.Permit small = limiter.parse(new ScanTrace(), pdf(0))) {
+                assertEquals(11 * MB, limiter.parseReserved());
+            }
+        }
+
+        // Released by the first scan
+        assertEquals(0, limiter.parseReserved());
+        try (StageLimiter.Permit permit = limiter.parse(trace, pdf(MB))) {
+            assertNotNull(permit);
+        }
+    }
+
+    @Test
+    public void testParse_DocumentLargerThanBudgetRunsAlone() throws IOException {
+        StageLimiter limiter = limiter(10);
+
+        try (StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf(50 * MB))) {
+            assertEquals(10 * MB, limiter.parseReserved());
+            assertThrows(ScanCapacityException.class, () -> limiter.parse(new ScanTrace(), pdf(0)));
+        }
+        assertEquals(0, limiter.parseReserved());
+    }
+
+    @Test
+    public void testPagesLoaded_RefinesReservation() throws IOException {
+        StageLimiter limiter = limiter(10);
+        ReflectionTestUtils.setField(limiter, "parseHeapPerPage", DataSize.ofMegabytes(1));
+
+        try (StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf(0))) {
+            permit.pagesLoaded(2);
+            assertEquals(6 * MB, limiter.parseReserved());
+
+            try (StageLimiter.Permit other = limiter.parse(new ScanTrace(), pdf(0))) {
+                // Nothing is free, the scan goes ahead on its first estimate
+                other.pagesLoaded(1);
+                assertEquals(10 * MB, limiter.parseReserved());
+            }
+            assertEquals(6 * MB, limiter.parseReserved());
+        }
+        assertEquals(0, limiter.parseReserved());
+    }
+
+    @Test
+    public void testTryGrow_TakesOnlyCopiesThatFit() throws IOException {
+        StageLimiter limiter = limiter(13);
+
+        try (StageLimiter.Permit other = limiter.parse(new ScanTrace(), pdf(0))) {
+            StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf(0));
+            assertEquals(1, permit.tryGrow(4));
+            assertEquals(12 * MB, limiter.parseReserved());
+            assertThrows(ScanCapacityException.class, () -> limiter.parse(new ScanTrace(), pdf(0)));
+
+            permit.close();
+            permit.close();
+            // Both copies of the scan are free again, the third one is still held by the other scan
+            assertEquals(4 * MB, limiter.parseReserved());
+            assertEquals(1, limiter.parse(new ScanTrace(), pdf(0)).tryGrow(2));
+        }
+    }
+
+    @Test
+    public void testTryReserve_TakesHeapOnlyIfFree() throws IOException {
+        StageLimiter limiter = limiter(10);
+
+        try (StageLimiter.Permit permit = limiter.parse(new ScanTrace(), pdf(0))) {
+            try (StageLimiter.Permit image = limiter.tryReserve(5 * MB)) {
+                assertNotNull(image);
+                assertEquals(9 * MB, limiter.parseReserved());
+                assertNull(limiter.tryReserve(2 * MB));
+            }
+            assertEquals(4 * MB, limiter.parseReserved());
+        }
+        assertEquals(0, limiter.parseReserved());
+    }
+
+    private static DownloadedPDF pdf(long size) {
+        return DownloadedPDF.spooled(Path.of("unused.pdf"), size, "", MemoryMode.MAIN_MEMORY, 0);
+    }
+
+    private static StageLimiter limiter(int parseBudgetMegabytes) {
+        StageLimiter limiter = new StageLimiter();
+        ReflectionTestUtils.setField(limiter, "parseHeapShare", (double) parseBudgetMegabytes * MB / Runtime.getRuntime().maxMemory());
+        ReflectionTestUtils.setField(limiter, "acquireTimeout", Duration.ofMillis(50));
+        limiter.init();
+        return limiter;
+    }
+}
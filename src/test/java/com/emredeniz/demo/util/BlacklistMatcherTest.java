@@ -0,0 +1,78 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlacklistMatcherTest {
+
+    private BlacklistSnapshot blacklist;
+
+    @BeforeEach
+    public void setup() {
+        blacklist = BlacklistSnapshot.empty().replace(IBANBlacklist.builder()
+                .add("DE89370400440532013000")
+                .add("GB33BUKB20201555555555")
+                .build());
+    }
+
+    @Test
+    public void testFeedPage_HitsByPage() {
+        BlacklistMatcher matcher = blacklist.newMatcher(false);
+
+        assertTrue(matcher.feedPage(1, "Invoice\nIBAN: DE89 3704 0044 0532 0130 00\n"));
+        assertTrue(matcher.feedPage(2, "Terms and conditions\n"));
+        assertTrue(matcher.feedPage(3, "Alternative account GB33BUKB20201555555555\n"));
+
+        assertEquals(Set.of("DE89370400440532013000", "GB33BUKB20201555555555"), matcher.hits());
+        assertEquals(Map.of(1, Set.of("DE89370400440532013000"), 3, Set.of("GB33BUKB20201555555555")), matcher.hitsByPage());
+        assertEquals(3, matcher.pagesScanned());
+    }
+
+    @Test
+    public void testFeedPage_IBANWrappedAcrossPageBreak() {
+        BlacklistMatcher matcher = blacklist.newMatcher(false);
+
+        matcher.feedPage(1, "IBAN: DE89 3704 0044\n");
+        matcher.feedPage(2, "0532 0130 00\nThank you");
+
+        assertEquals(Map.of(1, Set.of("DE89370400440532013000")), matcher.hitsByPage());
+    }
+
+    @Test
+    public void testFeedPage_HitAtEndOfPageIsReportedOnce() {
+        BlacklistMatcher matcher = blacklist.newMatcher(false);
+
+        matcher.feedPage(1, "IBAN: DE89370400440532013000\n");
+        matcher.feedPage(2, "Page two\n");
+
+        assertEquals(Map.of(1, Set.of("DE89370400440532013000")), matcher.hitsByPage());
+    }
+
+    @Test
+    public void testFeedPage_StopAtFirstHit() {
+        BlacklistMatcher matcher = blacklist.newMatcher(true);
+
+        assertTrue(matcher.feedPage(1, "Nothing here\n"));
+        assertFalse(matcher.feedPage(2, "DE89370400440532013000 GB33BUKB20201555555555\n"));
+        assertFalse(matcher.feedPage(3, "GB33BUKB20201555555555\n"));
+
+        assertEquals(Set.of("DE89370400440532013000"), matcher.hits());
+        assertTrue(matcher.isStopped());
+        assertEquals(2, matcher.pagesScanned());
+    }
+
+    @Test
+    public void testAllIBANs_ReportsEveryValidIBAN() {
+        BlacklistMatcher matcher = BlacklistMatcher.allIBANs();
+
+        matcher.feedPage(1, "IBAN: FR76 3000 6000 0112 3456 7890 189\n");
+        matcher.feedPage(2, "DE89370400440532013000 DE00370400440532013000\n");
+
+        assertEquals(Map.of(1, Set.of("FR7630006000011234567890189"), 2, Set.of("DE89370400440532013000")), matcher.hitsByPage());
+    }
+}
@@ -0,0 +1,72 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlacklistSnapshotTest {
+
+    private static final String DE = "DE89370400440532013000";
+    private static final String GB = "GB33BUKB20201555555555";
+    private static final String FR = "FR7630006000011234567890189";
+
+    @Test
+    public void testWithDelta_AddAndRemove() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty()
+                .replace(IBANBlacklist.builder().add(DE).add(GB).build())
+                .withDelta(IBANBlacklist.builder().add(FR).build(), IBANBlacklist.builder().add(GB).build());
+
+        assertTrue(contains(snapshot, DE));
+        assertFalse(contains(snapshot, GB));
+        assertTrue(contains(snapshot, FR));
+        assertEquals(2, snapshot.size());
+        assertEquals(2, snapshot.version());
+    }
+
+    @Test
+    public void testWithDelta_ReAddRemovedIBAN() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty()
+                .replace(IBANBlacklist.builder().add(DE).build())
+                .withDelta(IBANBlacklist.empty(), IBANBlacklist.builder().add(DE).build())
+                .withDelta(IBANBlacklist.builder().add(DE).build(), IBANBlacklist.empty());
+
+        assertTrue(contains(snapshot, DE));
+        assertEquals(1, snapshot.size());
+        assertEquals(0, snapshot.addedSize());
+        assertEquals(0, snapshot.removedSize());
+    }
+
+    @Test
+    public void testWithDelta_RemovalWinsWithinOneDelta() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty()
+                .replace(IBANBlacklist.builder().add(DE).build())
+                .withDelta(IBANBlacklist.builder().add(FR).build(), IBANBlacklist.builder().add(FR).add(GB).build());
+
+        assertFalse(contains(snapshot, FR));
+        assertFalse(contains(snapshot, GB));
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void testReplaceCountry_DropsDeltasOfThatCountryOnly() {
+        BlacklistSnapshot snapshot = BlacklistSnapshot.empty()
+                .replace(IBANBlacklist.builder().add(DE).add(GB).build())
+                .withDelta(IBANBlacklist.builder().add(FR).add("GB82WEST12345698765432").build(),
+                        IBANBlacklist.builder().add(DE).build())
+                .replaceCountry("GB", IBANBlacklist.builder().add("GB29NWBK60161331926819").build());
+
+        assertFalse(contains(snapshot, GB));
+        assertFalse(contains(snapshot, "GB82WEST12345698765432"));
+        assertTrue(contains(snapshot, "GB29NWBK60161331926819"));
+        assertTrue(contains(snapshot, FR));
+        assertFalse(contains(snapshot, DE));
+        assertEquals(2, snapshot.size());
+        assertEquals(1, snapshot.addedSize());
+        assertEquals(1, snapshot.removedSize());
+        assertEquals(3, snapshot.version());
+    }
+
+    private static boolean contains(BlacklistSnapshot snapshot, String iban) {
+        return snapshot.contains(iban.toCharArray(), iban.length());
+    }
+}
@@ -0,0 +1,103 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IBANBlacklistFileTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void testRead_RoundTrip() throws IOException {
+        IBANBlacklist blacklist = IBANBlacklist.builder()
+                .add("DE89370400440532013000")
+                .add("GB33BUKB20201555555555")
+                .add("IT60X0542811101000000123456")
+                .build();
+        Path file = directory.resolve("blacklist.bin");
+
+        IBANBlacklistFile.write(file, blacklist, 1234, 5678);
+        IBANBlacklist read = IBANBlacklistFile.read(file, 1234, 5678);
+
+        assertEquals(3, read.size());
+        assertTrue(read.contains("GB33BUKB20201555555555"));
+        assertFalse(read.contains("DE15300606010505780780"));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testRead_OtherSourceOrNoFile() throws IOException {
+        Path file = directory.resolve("blacklist.bin");
+        assertNull(IBANBlacklistFile.read(file, 1234, 5678));
+
+        IBANBlacklistFile.write(file, IBANBlacklist.builder().add("DE89370400440532013000").build(), 1234, 5678);
+
+        assertNull(IBANBlacklistFile.read(file, 1235, 5678));
+        assertNull(IBANBlacklistFile.read(file, 1234, 5679));
+    }
+
+    @Test
+    public void testRead_CorruptOrTruncated() throws IOException {
+        Path file = directory.resolve("blacklist.bin");
+        IBANBlacklistFile.write(file, IBANBlacklist.builder().add("DE89370400440532013000").build(), 1234, 5678);
+        long size = Files.size(file);
+
+        // One bit flipped in the entry
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, size - 8);
+            channel.write(b.put(0, (byte) (b.get(0) ^ 1)).rewind(), size - 8);
+        }
+        assertThrows(IOException.class, () -> IBANBlacklistFile.read(file, 1234, 5678));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+        assertThrows(IOException.class, () -> IBANBlacklistFile.read(file, 1234, 5678));
+    }
+
+    @Test
+    public void testValidatorInit_WritesAndLoadsSnapshot() throws IOException {
+        Path text = directory.resolve("blacklist.txt");
+        Files.writeString(text, "DE89370400440532013000\nGB33 BUKB 2020 1555 5555 55\n");
+        Path binary = directory.resolve("snapshot/blacklist.bin");
+
+        validator(text, binary);
+        assertTrue(Files.exists(binary));
+
+        // Served from the snapshot as long as the text file is unchanged
+        IBANBlacklistFile.write(binary, IBANBlacklist.builder().add("DE89370400440532013000").build(),
+                Files.size(text), Files.getLastModifiedTime(text).toMillis());
+        assertEquals(Set.of("DE89370400440532013000"),
+                validator(text, binary).findBlacklistedIBANs("DE89370400440532013000 GB33BUKB20201555555555"));
+
+        // A changed text file is parsed again and the snapshot rebuilt
+        Files.writeString(text, "DE89370400440532013000\nGB33 BUKB 2020 1555 5555 55\nIT60X0542811101000000123456\n");
+        IBANValidator validator = validator(text, binary);
+        assertEquals(3, validator.findBlacklistedIBANs(
+                "DE89370400440532013000 GB33BUKB20201555555555 IT60X0542811101000000123456").size());
+        assertEquals(3, IBANBlacklistFile.read(binary, Files.size(text), Files.getLastModifiedTime(text).toMillis()).size());
+    }
+
+    private static IBANValidator validator(Path text, Path binary) throws IOException {
+        IBANValidator validator = new IBANValidator();
+        ReflectionTestUtils.setField(validator, "externalBlacklistedIBANsFile", text.toString());
+        ReflectionTestUtils.setField(validator, "binaryBlacklistFile", binary.toString());
+        validator.init();
+        return validator;
+    }
+}
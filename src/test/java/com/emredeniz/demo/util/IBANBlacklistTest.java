@@ -0,0 +1,48 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IBANBlacklistTest {
+
+    @Test
+    public void testContains_AfterSortingAndDeduplication() {
+        IBANBlacklist blacklist = IBANBlacklist.builder()
+                .add("IT60X0542811101000000123456")
+                .add("DE89370400440532013000")
+                .add("GB33BUKB20201555555555")
+                .add("DE89370400440532013000")
+                .build();
+
+        assertEquals(3, blacklist.size());
+        assertTrue(blacklist.contains("DE89370400440532013000"));
+        assertTrue(blacklist.contains("GB33BUKB20201555555555"));
+        assertTrue(blacklist.contains("IT60X0542811101000000123456"));
+        assertFalse(blacklist.contains("DE15300606010505780780"));
+    }
+
+    @Test
+    public void testContains_PrefixIsNotAMatch() {
+        IBANBlacklist blacklist = IBANBlacklist.builder().add("DE89370400440532013000").build();
+
+        assertFalse(blacklist.contains("DE8937040044053201300"));
+        assertFalse(blacklist.contains("DE893704004405320130000"));
+    }
+
+    @Test
+    public void testContains_FromScannerBuffer() {
+        IBANBlacklist blacklist = IBANBlacklist.builder().add("FR7630006000011234567890189").build();
+        char[] buffer = "FR7630006000011234567890189 trailing garbage".toCharArray();
+
+        assertTrue(blacklist.contains(buffer, 27));
+    }
+
+    @Test
+    public void testEmpty() {
+        IBANBlacklist blacklist = IBANBlacklist.builder().build();
+
+        assertEquals(0, blacklist.size());
+        assertFalse(blacklist.contains("DE89370400440532013000"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IBANValidatorTest {
+
+    private IBANValidator ibanValidator;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        ibanValidator = new IBANValidator();
+        ReflectionTestUtils.setField(ibanValidator, "blacklistedIBANsFile", "samples/blacklisted_ibans.txt");
+        ibanValidator.init();
+    }
+
+    @Test
+    public void testFindBlacklistedIBANs_CompactAndGrouped() {
+        String text = "Pay to DE89370400440532013000 or GB33 BUKB 2020 1555 5555 55 before the due date.";
+
+        Set<String> blacklistedIBANs = ibanValidator.findBlacklistedIBANs(text);
+
+        assertEquals(Set.of("DE89370400440532013000", "GB33BUKB20201555555555"), blacklistedIBANs);
+    }
+
+    @Test
+    public void testFindBlacklistedIBANs_NotBlacklisted() {
+        String text = "IBAN: DE15 3006 0601 0505 7807 80 SWIFT/BIC: DAAEDEDD";
+
+        assertTrue(ibanValidator.findBlacklistedIBANs(text).isEmpty());
+    }
+
+    @Test
+    public void testFindBlacklistedIBANs_CountsCandidates() {
+        String text = "DE89370400440532013000, DE15 3006 0601 0505 7807 80 and DE89370400440532013001";
+        int[] candidates = {0};
+
+        assertEquals(Set.of("DE89370400440532013000"), ibanValidator.findBlacklistedIBANs(text, count -> candidates[0] = count));
+        // The last one has an invalid checksum
+        assertEquals(2, candidates[0]);
+    }
+
+    @Test
+    public void testFindBlacklistedIBANs_InvalidChecksumOrLength() {
+        // Last digit changed, one digit missing and one digit too many
+        String text = "DE89370400440532013001 DE8937040044053201300 DE893704004405320130000";
+
+        assertTrue(ibanValidator.findBlacklistedIBANs(text).isEmpty());
+    }
+
+    @Test
+    public void testFindBlacklistedIBANs_NoWordBoundary() {
+        String text = "REFDE89370400440532013000";
+
+        assertTrue(ibanValidator.findBlacklistedIBANs(text).isEmpty());
+    }
+
+    @Test
+    public void testReloadCountry_KeepsOtherCountries() throws IOException {
+        Path file = Files.createTempFile("blacklist-", ".txt");
+        try {
+            Files.writeString(file, "DE89370400440532013000\nGB33 BUKB 2020 1555 5555 55\n");
+            IBANValidator validator = new IBANValidator();
+            ReflectionTestUtils.setField(validator, "externalBlacklistedIBANsFile", file.toString());
+            validator.init();
+
+            Files.writeString(file, "DE15300606010505780780\nGB82 WEST 1234 5698 7654 32\n");
+            validator.reload("gb");
+
+            String text = "DE89370400440532013000 DE15300606010505780780 GB33BUKB20201555555555 GB82WEST12345698765432";
+            assertEquals(Set.of("DE89370400440532013000", "GB82WEST12345698765432"), validator.findBlacklistedIBANs(text));
+            assertEquals(2, validator.snapshot().version());
+            assertThrows(IllegalArgumentException.class, () -> validator.reload("G1"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        IBANScanner scanner = new IBANScanner();
+
+        assertEquals("FR7630006000011234567890189", scanner.normalize("FR76 3000 6000 0112 3456 7890 189"));
+        assertEquals("", scanner.normalize("not an IBAN"));
+    }
+}
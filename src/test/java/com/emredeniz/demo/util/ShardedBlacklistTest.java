@@ -0,0 +1,90 @@
+package com.emredeniz.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedBlacklistTest {
+
+    private static final String DE = "DE89370400440532013000";
+    private static final String GB = "GB33BUKB20201555555555";
+    private static final String FR = "FR7630006000011234567890189";
+
+    @Test
+    public void testContains_NoFalseNegativesAndFewFalsePositives() {
+        Random random = new Random(42);
+        List<String> blacklisted = randomIbans(random, 50_000);
+        IBANBlacklist.Builder builder = IBANBlacklist.builder();
+        blacklisted.forEach(builder::add);
+        ShardedBlacklist blacklist = ShardedBlacklist.of(builder.build());
+
+        assertEquals(50_000, blacklist.size());
+        assertEquals(3, blacklist.countries());
+        for (String iban : blacklisted) {
+            assertTrue(blacklist.contains(iban.toCharArray(), iban.length()), iban);
+        }
+        // The exact search behind the filter rejects its false positives
+        for (String iban : randomIbans(new Random(7), 50_000)) {
+            assertFalse(blacklist.contains(iban.toCharArray(), iban.length()), iban);
+        }
+        assertFalse(blacklist.contains("IT60X0542811101000000123456".toCharArray(), 27));
+    }
+
+    @Test
+    public void testWithShard_ReplacesOneCountry() {
+        ShardedBlacklist blacklist = ShardedBlacklist.of(IBANBlacklist.builder().add(DE).add(GB).build());
+
+        ShardedBlacklist replaced = blacklist.withShard("gb", IBANBlacklist.builder().add(FR).add("GB82WEST12345698765432").build());
+
+        assertTrue(contains(replaced, DE));
+        assertFalse(contains(replaced, GB));
+        assertTrue(contains(replaced, "GB82WEST12345698765432"));
+        // Not an IBAN of the replaced country
+        assertFalse(contains(replaced, FR));
+        assertEquals(2, replaced.size());
+        assertTrue(contains(blacklist, GB));
+    }
+
+    @Test
+    public void testWith_MergesPerCountry() {
+        ShardedBlacklist blacklist = ShardedBlacklist.of(IBANBlacklist.builder().add(DE).add(GB).build())
+                .with(IBANBlacklist.builder().add(FR).build(), IBANBlacklist.builder().add(GB).build());
+
+        assertTrue(contains(blacklist, DE));
+        assertFalse(contains(blacklist, GB));
+        assertTrue(contains(blacklist, FR));
+        assertEquals(2, blacklist.size());
+        assertEquals(2, blacklist.countries());
+        assertEquals(1, blacklist.shard("FR").size());
+        assertEquals(0, blacklist.shard("GB").size());
+    }
+
+    @Test
+    public void testCountryIndex_RejectsInvalidCodes() {
+        assertEquals(ShardedBlacklist.countryIndex("DE"), ShardedBlacklist.countryIndex("de"));
+        assertThrows(IllegalArgumentException.class, () -> ShardedBlacklist.countryIndex("D1"));
+        assertThrows(IllegalArgumentException.class, () -> ShardedBlacklist.countryIndex("DEU"));
+    }
+
+    private static boolean contains(ShardedBlacklist blacklist, String iban) {
+        return blacklist.contains(iban.toCharArray(), iban.length());
+    }
+
+    // Normalized IBAN-shaped strings of three countries; the checksum does not matter for lookups
+    private static List<String> randomIbans(Random random, int count) {
+        String[] countries = {"DE", "FR", "NL"};
+        List<String> ibans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder iban = new StringBuilder(countries[random.nextInt(countries.length)]);
+            for (int j = 0; j < 20; j++) {
+                iban.append((char) ('0' + random.nextInt(10)));
+            }
+            ibans.add(iban.toString());
+        }
+        return ibans;
+    }
+}